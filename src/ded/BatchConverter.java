@@ -0,0 +1,265 @@
+// BatchConverter.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import util.Util;
+import util.awt.BitmapFont;
+import util.awt.ResourceImageCache;
+
+import ded.model.Diagram;
+import ded.model.DiagramFile;
+import ded.ui.DiagramController;
+
+/** Command-line tool to convert and render diagrams without a display.
+  *
+  * Usage:
+  *
+  *   java -cp dist/ded.jar ded.BatchConverter [options] files...
+  *
+  * or equivalently, 'ded --batch [options] files...'.  Options:
+  *
+  *   -format png    Write "<file>.png", as the editor does when saving,
+  *                  with the diagram JSON embedded as a comment.  This
+  *                  is the default.
+  *   -format json   Write the diagram as ".ded" JSON.  A .ded input is
+  *                  rewritten in place (upgrading its format version);
+  *                  otherwise the extension is replaced by ".ded".
+  *   -o DIR         Put output files in DIR instead of next to inputs.
+  *   -jobs N        Convert N files at a time.  The default is the
+  *                  number of processors.
+  *   -force         Write PNGs even when the existing output was
+  *                  already rendered from the same diagram.  Without
+  *                  this, such files are left alone.
+  *
+  * Inputs may be .ded (JSON), .er (legacy binary), or .png files whose
+  * comment contains diagram JSON.  Rendering uses the same controller
+  * painting code as the editor; images referenced by entities are
+  * resolved relative to the input file, as the editor would do.
+  *
+  * The exit status is 0 if every file converted, 1 otherwise. */
+public class BatchConverter {
+    // ---------- data ----------
+    /** True to write JSON, false to write PNG. */
+    private boolean writeJSON = false;
+
+    /** Output directory, or null to write next to the inputs. */
+    private File outputDir = null;
+
+    /** Number of conversions to run concurrently. */
+    private int jobs = Runtime.getRuntime().availableProcessors();
+
+    /** True to write PNGs even if they are already current. */
+    private boolean force = false;
+
+    /** Font loaded once and copied for each thread. */
+    private BitmapFont font;
+
+    /** Cache of application resource images, shared by all threads. */
+    private ResourceImageCache resourceImageCache = new ResourceImageCache();
+
+    /** Per-thread copy of 'font', since its glyph cache is unsynchronized. */
+    private ThreadLocal<BitmapFont> threadFont = new ThreadLocal<BitmapFont>() {
+        @Override
+        protected BitmapFont initialValue()
+        {
+            return new BitmapFont(BatchConverter.this.font);
+        }
+    };
+
+    // ---------- methods ----------
+    public static void main(String args[]) throws Exception
+    {
+        // Rendering must not try to contact a display.  This only has
+        // an effect when this class is the program's entry point;
+        // otherwise 'Main' has already done it.
+        System.setProperty("java.awt.headless", "true");
+
+        BatchConverter bc = new BatchConverter();
+        ArrayList<String> files = new ArrayList<String>();
+
+        for (int i=0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("-format") && i+1 < args.length) {
+                String f = args[++i];
+                if (f.equals("json")) {
+                    bc.writeJSON = true;
+                }
+                else if (f.equals("png")) {
+                    bc.writeJSON = false;
+                }
+                else {
+                    usage("unknown format: "+f);
+                }
+            }
+            else if (a.equals("-o") && i+1 < args.length) {
+                bc.outputDir = new File(args[++i]);
+                if (!bc.outputDir.isDirectory()) {
+                    usage("not a directory: "+bc.outputDir);
+                }
+            }
+            else if (a.equals("-jobs") && i+1 < args.length) {
+                bc.jobs = Math.max(1, Integer.parseInt(args[++i]));
+            }
+            else if (a.equals("-force")) {
+                bc.force = true;
+            }
+            else if (a.startsWith("-")) {
+                usage("unknown option: "+a);
+            }
+            else {
+                files.add(a);
+            }
+        }
+
+        if (files.isEmpty()) {
+            usage("no input files");
+        }
+
+        System.exit(bc.convertAll(files)? 0 : 1);
+    }
+
+    private static void usage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println("usage: BatchConverter [-format png|json] [-o DIR] [-jobs N] [-force] files...");
+        System.exit(2);
+    }
+
+    /** Convert all of 'files', printing progress.  Return true if all
+      * of them succeeded. */
+    public boolean convertAll(ArrayList<String> files)
+        throws Exception
+    {
+        this.font = Ded.loadDiagramBitmapFont();
+
+        // Swing initializes the look and feel lazily when the first
+        // component is made.  Do that here rather than racing to do it
+        // in the worker threads.
+        new DiagramController(this.font, this.resourceImageCache);
+
+        ExecutorService pool = Executors.newFixedThreadPool(this.jobs);
+        ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+        for (final String fname : files) {
+            results.add(pool.submit(new Callable<String>() {
+                public String call()
+                {
+                    return BatchConverter.this.convertOne(fname);
+                }
+            }));
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+        int failures = 0;
+        for (int i=0; i < files.size(); i++) {
+            String error = results.get(i).get();
+            if (error != null) {
+                System.err.println(files.get(i)+": "+error);
+                failures++;
+            }
+        }
+
+        System.out.println("converted "+(files.size()-failures)+" of "+
+                           files.size()+" files");
+        return failures == 0;
+    }
+
+    /** Convert one file.  Return null on success, or an error message. */
+    private String convertOne(String inName)
+    {
+        try {
+            // The name the diagram is considered to have been loaded
+            // from.  This affects the file name label and where images
+            // are found, and is what the editor would use.
+            String sourceName = inName;
+            Diagram d;
+
+            DiagramFile file = DiagramFile.read(inName);
+            if (file.format == DiagramFile.Format.PNG) {
+                sourceName = DiagramController.getPNGSourceFileName(inName);
+                d = parsePNGComment(file.pngComment);
+            }
+            else {
+                d = file.diagram;
+            }
+
+            String outName;
+            boolean unchanged = false;
+            if (this.writeJSON) {
+                outName = this.placeOutput(sourceName.endsWith(".ded")?
+                    sourceName : replaceExtension(sourceName, ".ded"));
+                d.saveToFile(outName);
+            }
+            else {
+                outName = this.placeOutput(sourceName+".png");
+                DiagramController dc =
+                    new DiagramController(this.threadFont.get(), this.resourceImageCache);
+                dc.setDiagramAndFileName(d, sourceName);
+                String comment = DiagramController.makePNGComment(d);
+                String renderHash = dc.getRenderHash(comment);
+                if (!this.force &&
+                    DiagramController.isPNGFileCurrent(new File(outName), renderHash))
+                {
+                    unchanged = true;
+                }
+                else {
+                    String warning = dc.renderToPNGFile(new File(outName),
+                                                        comment, renderHash);
+                    if (warning != null) {
+                        System.err.println(inName+": warning: "+warning);
+                    }
+                }
+            }
+
+            synchronized (System.out) {
+                System.out.println((unchanged? "unchanged " : "wrote ")+outName);
+            }
+            return null;
+        }
+        catch (Exception e) {
+            return Util.getExceptionMessage(e);
+        }
+    }
+
+    /** Parse the diagram in 'comment', read from a PNG file. */
+    private static Diagram parsePNGComment(String comment)
+        throws Exception
+    {
+        if (comment == null || !comment.startsWith("{")) {
+            throw new RuntimeException("PNG file does not have a diagram comment");
+        }
+        return Diagram.parseJSONString(comment);
+    }
+
+    /** Return 'name' with its extension, if any, replaced by 'ext'. */
+    private static String replaceExtension(String name, String ext)
+    {
+        int slash = name.lastIndexOf(File.separatorChar);
+        int dot = name.lastIndexOf('.');
+        if (dot > slash + 1) {
+            return name.substring(0, dot) + ext;
+        }
+        return name + ext;
+    }
+
+    /** Return where to write output 'name', honoring 'outputDir'. */
+    private String placeOutput(String name)
+    {
+        if (this.outputDir == null) {
+            return name;
+        }
+        return new File(this.outputDir, new File(name).getName()).getPath();
+    }
+}
+
+// EOF
@@ -0,0 +1,329 @@
+// BatchValidator.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONObject;
+
+import util.ImageFileUtil;
+import util.Util;
+
+import ded.model.Diagram;
+import ded.model.DiagramFile;
+import ded.ui.DiagramController;
+
+/** Command-line tool to check a collection of diagram files.
+  *
+  * Usage:
+  *
+  *   java -cp dist/ded.jar ded.BatchValidator [-jobs N] files-or-dirs...
+  *
+  * or equivalently, 'ded --validate [-jobs N] files-or-dirs...'.
+  * Directories are searched recursively for .ded and .er files; files
+  * named explicitly are checked whatever their names.  Files are
+  * checked on a work-stealing pool of N threads, by default the number
+  * of processors.
+  *
+  * Each file is read, checked with 'Diagram.selfCheck', and put
+  * through a JSON serialization cycle and a deep copy, both of which
+  * must produce an equal diagram.  If "<file>.png" exists, the diagram
+  * in its comment must also be equal, and it is reported as stale if
+  * saving or BatchConverter would render it again.
+  *
+  * The results are written to standard output as one line of JSON per
+  * file, in the order the files were named (and by name within each
+  * directory), such as:
+  *
+  *   {"file":"a.ded","format":"JSON","ok":true,"millis":4.2,"png":"current","errors":[]}
+  *
+  * where "format" is as in DiagramFile.Format, or null if the file
+  * could not be read, "millis" is the time spent on the file, and
+  * "png" is one of:
+  *
+  *   none        There is no "<file>.png".
+  *   current     It has the diagram, and was rendered by this build.
+  *   stale       It has the diagram, but would be rendered again, for
+  *               example because the program or an image changed.
+  *   mismatch    Its comment has a different diagram.
+  *   no-comment  It has no diagram comment.
+  *   invalid     It or its comment could not be read.
+  *
+  * "ok" is false if "errors" is not empty, which includes the last
+  * three "png" cases.  A summary is written to standard error.  The
+  * exit status is 0 if every file is ok, 1 otherwise. */
+public class BatchValidator {
+    // ---------- types ----------
+    /** Result of checking one file. */
+    private static class Result {
+        /** The file checked. */
+        public String fileName;
+
+        /** Its format, or null if it could not be read. */
+        public DiagramFile.Format format = null;
+
+        /** State of its PNG export; see the class comment. */
+        public String png = "none";
+
+        /** Problems found.  Empty if the file is ok. */
+        public ArrayList<String> errors = new ArrayList<String>();
+
+        /** Time spent checking it. */
+        public long nanos;
+
+        public Result(String fileName)
+        {
+            this.fileName = fileName;
+        }
+
+        /** Return the result as one line of JSON. */
+        public String toJSONLine()
+        {
+            // This is assembled by hand, rather than with JSONObject,
+            // so the keys are always in the same order.
+            StringBuilder sb = new StringBuilder();
+            sb.append("{\"file\":").append(JSONObject.quote(this.fileName));
+            sb.append(",\"format\":").append(this.format == null?
+                "null" : JSONObject.quote(this.format.name()));
+            sb.append(",\"ok\":").append(this.errors.isEmpty());
+            sb.append(",\"millis\":").append(String.format(Locale.ENGLISH, "%.1f", this.nanos / 1e6));
+            sb.append(",\"png\":").append(JSONObject.quote(this.png));
+            sb.append(",\"errors\":[");
+            for (int i=0; i < this.errors.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(JSONObject.quote(this.errors.get(i)));
+            }
+            sb.append("]}");
+            return sb.toString();
+        }
+    }
+
+    // ---------- data ----------
+    /** Number of files to check concurrently. */
+    private int jobs = Runtime.getRuntime().availableProcessors();
+
+    // ---------- methods ----------
+    public static void main(String args[]) throws Exception
+    {
+        // Nothing here uses a display.  This only has an effect when
+        // this class is the program's entry point; otherwise 'Main'
+        // has already done it.
+        System.setProperty("java.awt.headless", "true");
+
+        // 'selfCheck' uses assertions.  This must be done before the
+        // model classes are initialized.
+        BatchValidator.class.getClassLoader().setPackageAssertionStatus("ded.model", true);
+
+        BatchValidator bv = new BatchValidator();
+        ArrayList<String> files = new ArrayList<String>();
+
+        for (int i=0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("-jobs") && i+1 < args.length) {
+                bv.jobs = Math.max(1, Integer.parseInt(args[++i]));
+            }
+            else if (a.startsWith("-")) {
+                usage("unknown option: "+a);
+            }
+            else if (new File(a).isDirectory()) {
+                findDiagramFiles(new File(a), files);
+            }
+            else {
+                files.add(a);
+            }
+        }
+
+        if (files.isEmpty()) {
+            usage("no input files");
+        }
+
+        System.exit(bv.checkAll(files)? 0 : 1);
+    }
+
+    private static void usage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println("usage: BatchValidator [-jobs N] files-or-dirs...");
+        System.exit(2);
+    }
+
+    /** Add the .ded and .er files in and below 'dir' to 'files'. */
+    private static void findDiagramFiles(File dir, ArrayList<String> files)
+    {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;        // Unreadable; nothing to check.
+        }
+        Arrays.sort(children);
+        for (File f : children) {
+            if (f.isDirectory()) {
+                findDiagramFiles(f, files);
+            }
+            else if (f.getName().endsWith(".ded") || f.getName().endsWith(".er")) {
+                files.add(f.getPath());
+            }
+        }
+    }
+
+    /** Check all of 'files', printing the results.  Return true if all
+      * of them are ok. */
+    public boolean checkAll(ArrayList<String> files)
+        throws Exception
+    {
+        long start = System.nanoTime();
+
+        ExecutorService pool = Executors.newWorkStealingPool(this.jobs);
+        ArrayList<Future<Result>> results = new ArrayList<Future<Result>>();
+        for (final String fname : files) {
+            results.add(pool.submit(new Callable<Result>() {
+                public Result call()
+                {
+                    return checkOne(fname);
+                }
+            }));
+        }
+        pool.shutdown();
+
+        // Print each result as soon as it and all before it are done.
+        int failures = 0;
+        int stale = 0;
+        for (Future<Result> f : results) {
+            Result r = f.get();
+            System.out.println(r.toJSONLine());
+            if (!r.errors.isEmpty()) {
+                failures++;
+            }
+            if (r.png.equals("stale")) {
+                stale++;
+            }
+        }
+
+        System.err.println("checked "+files.size()+" files in "+
+                           (System.nanoTime() - start) / 1000000+" ms: "+
+                           failures+" failed, "+stale+" with stale PNG");
+        return failures == 0;
+    }
+
+    /** Check one file. */
+    private static Result checkOne(String fname)
+    {
+        Result r = new Result(fname);
+        long start = System.nanoTime();
+        try {
+            Diagram d = null;
+            try {
+                DiagramFile file = DiagramFile.read(fname);
+                r.format = file.format;
+                d = file.diagram;
+                if (d == null) {
+                    r.errors.add("is a PNG image, not a diagram file");
+                }
+            }
+            catch (Exception e) {
+                r.errors.add("read: "+Util.getExceptionMessage(e));
+            }
+
+            if (d != null) {
+                checkDiagram(d, r);
+                checkPNG(d, fname, r);
+            }
+        }
+        catch (Throwable t) {
+            // Keep going with the other files no matter what.
+            r.errors.add("unexpected: "+describe(t));
+        }
+        r.nanos = System.nanoTime() - start;
+        return r;
+    }
+
+    /** Check the consistency of 'd' on its own, adding problems to 'r'. */
+    private static void checkDiagram(Diagram d, Result r)
+    {
+        try {
+            d.selfCheck();
+        }
+        catch (Throwable t) {
+            r.errors.add("self-check: "+describe(t));
+            return;     // The other checks would not be meaningful.
+        }
+
+        try {
+            // The JSON may differ from the file if it has an older
+            // version, but after that it should be stable.
+            String json = d.toJSONString();
+            Diagram d2 = Diagram.parseJSONString(json);
+            d2.selfCheck();
+            if (!d.equals(d2)) {
+                r.errors.add("round trip: the diagram read back from JSON is different");
+            }
+            else if (!json.equals(d2.toJSONString())) {
+                r.errors.add("round trip: writing JSON again gives a different result");
+            }
+
+            if (!d.equals(d.deepCopy())) {
+                r.errors.add("round trip: a deep copy is different");
+            }
+        }
+        catch (Throwable t) {
+            r.errors.add("round trip: "+describe(t));
+        }
+    }
+
+    /** Compare 'd', read from 'fname', with the PNG export of it, if
+      * there is one, setting 'r.png'. */
+    private static void checkPNG(Diagram d, String fname, Result r)
+    {
+        File png = new File(fname+".png");
+        if (!png.isFile()) {
+            return;
+        }
+
+        Diagram pngDiagram;
+        try {
+            String comment = ImageFileUtil.getPNGComment(png);
+            if (comment == null || !comment.startsWith("{")) {
+                r.png = "no-comment";
+                r.errors.add("PNG: it does not have a diagram comment");
+                return;
+            }
+            pngDiagram = Diagram.parseJSONString(comment);
+        }
+        catch (Exception e) {
+            r.png = "invalid";
+            r.errors.add("PNG: "+Util.getExceptionMessage(e));
+            return;
+        }
+
+        if (!d.equals(pngDiagram)) {
+            r.png = "mismatch";
+            r.errors.add("PNG: its comment has a different diagram");
+            return;
+        }
+
+        String renderHash = DiagramController.getRenderHash(
+            d, fname, DiagramController.makePNGComment(d));
+        r.png = DiagramController.isPNGFileCurrent(png, renderHash)? "current" : "stale";
+    }
+
+    /** Return a description of 't' for the report. */
+    private static String describe(Throwable t)
+    {
+        if (t instanceof Exception) {
+            return Util.getExceptionMessage((Exception)t);
+        }
+        return t.toString();
+    }
+}
+
+// EOF
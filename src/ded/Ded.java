@@ -4,7 +4,11 @@
 package ded;
 
 import java.awt.Frame;
+import java.awt.GraphicsConfiguration;
 import java.awt.Image;
+import java.awt.Insets;
+import java.awt.Rectangle;
+import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
@@ -28,6 +32,7 @@ import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UIManager.LookAndFeelInfo;
@@ -128,6 +133,55 @@ public class Ded extends JFrame implements WindowListener {
 
         // Use a bitmap font packaged with 'ded' itself.  (After many
         // attempts, I was unable to find a portable alternative.)
+        try {
+            this.diagramBitmapFont = loadDiagramBitmapFont();
+        }
+        catch (Exception e) {
+            System.err.println("cannot load bitmap font resource: "+e);
+            System.exit(2);
+        }
+
+        this.diagramController = new DiagramController(this);
+        this.diagramController.setName("diagramController");
+        this.diagramController.setOpaque(true);
+
+        // The diagram can be larger than the screen, so put it into a
+        // scroll pane.  Only the part in the viewport gets painted.
+        JScrollPane scrollPane = new JScrollPane(this.diagramController);
+        scrollPane.setName("diagramScrollPane");
+        scrollPane.setBorder(null);
+        this.setContentPane(scrollPane);
+
+        this.buildMenuBar();
+    }
+
+    /** Size the window to fit the diagram, but no larger than the
+      * part of the screen available to it.  Beyond that, the user
+      * scrolls. */
+    @Override
+    public void pack()
+    {
+        super.pack();
+
+        GraphicsConfiguration gc = this.getGraphicsConfiguration();
+        if (gc == null) {
+            return;
+        }
+        Rectangle screen = gc.getBounds();
+        Insets insets = Toolkit.getDefaultToolkit().getScreenInsets(gc);
+        int maxWidth = screen.width - insets.left - insets.right;
+        int maxHeight = screen.height - insets.top - insets.bottom;
+        if (this.getWidth() > maxWidth || this.getHeight() > maxHeight) {
+            this.setSize(Math.min(this.getWidth(), maxWidth),
+                         Math.min(this.getHeight(), maxHeight));
+        }
+    }
+
+    /** Load the bitmap font used to draw text in the diagram area.
+      * This does not require a display. */
+    public static BitmapFont loadDiagramBitmapFont()
+        throws Exception
+    {
         InputStream in = null;
         try {
             String fname = "resources/helvR12sm.bdf.gz";
@@ -143,11 +197,7 @@ public class Ded extends JFrame implements WindowListener {
                 in = new FileInputStream(fname);
             }
             in = new GZIPInputStream(in);
-            this.diagramBitmapFont = new BitmapFont(new BDFParser(in));
-        }
-        catch (Exception e) {
-            System.err.println("cannot load bitmap font resource: "+e);
-            System.exit(2);
+            return new BitmapFont(new BDFParser(in));
         }
         finally {
             if (in != null) {
@@ -157,13 +207,6 @@ public class Ded extends JFrame implements WindowListener {
                 catch (IOException e) {/*don't care*/}
             }
         }
-
-        this.diagramController = new DiagramController(this);
-        this.diagramController.setName("diagramController");
-        this.diagramController.setOpaque(true);
-        this.setContentPane(this.diagramController);
-
-        this.buildMenuBar();
     }
 
     /** Build the menu. */
@@ -175,6 +218,7 @@ public class Ded extends JFrame implements WindowListener {
         menuBar.add(buildEditMenu());
         menuBar.add(buildModeMenu());
         menuBar.add(buildDiagramMenu());
+        menuBar.add(buildViewMenu());
         menuBar.add(buildHelpMenu());
         this.setJMenuBar(menuBar);
     }
@@ -397,6 +441,40 @@ public class Ded extends JFrame implements WindowListener {
         return m;
     }
 
+    @SuppressWarnings("serial")
+    private JMenu buildViewMenu()
+    {
+        JMenu m = new JMenu("View");
+        m.setName("view");
+        m.setMnemonic(KeyEvent.VK_V);
+
+        m.add(new MenuAction("Zoom in", KeyEvent.VK_I, KeyEvent.VK_EQUALS, ActionEvent.CTRL_MASK) {
+            public void actionPerformed(ActionEvent e) {
+                Ded.this.diagramController.zoomBy(+1);
+            }
+        });
+
+        m.add(new MenuAction("Zoom out", KeyEvent.VK_O, KeyEvent.VK_MINUS, ActionEvent.CTRL_MASK) {
+            public void actionPerformed(ActionEvent e) {
+                Ded.this.diagramController.zoomBy(-1);
+            }
+        });
+
+        m.add(new MenuAction("Actual size", KeyEvent.VK_A, KeyEvent.VK_0, ActionEvent.CTRL_MASK) {
+            public void actionPerformed(ActionEvent e) {
+                Ded.this.diagramController.resetZoom();
+            }
+        });
+
+        m.add(new MenuAction("Zoom to fit", KeyEvent.VK_F) {
+            public void actionPerformed(ActionEvent e) {
+                Ded.this.diagramController.zoomToFit();
+            }
+        });
+
+        return m;
+    }
+
     @SuppressWarnings("serial")
     private JMenu buildHelpMenu()
     {
@@ -420,6 +498,12 @@ public class Ded extends JFrame implements WindowListener {
             }
         });
 
+        m.add(new MenuAction("Show performance window...", KeyEvent.VK_P) {
+            public void actionPerformed(ActionEvent e) {
+                Ded.this.diagramController.showPerformanceWindow();
+            }
+        });
+
         m.addSeparator();
 
         m.add(new MenuAction("About ...", KeyEvent.VK_A) {
@@ -496,6 +580,11 @@ public class Ded extends JFrame implements WindowListener {
         super.dispose();
         this.diagramController.disposeOwnedWindows();
 
+        // We only get here once any unsaved changes have been saved
+        // or abandoned, so the files for recovering them are no
+        // longer needed.
+        this.diagramController.discardRecoveryFiles();
+
         // Unfortunately, there is a 1-2 second delay between when I
         // hit 'q' or the X button and when the process exits unless
         // I manually shut down the JVM.  I hate that delay, so I do
@@ -0,0 +1,351 @@
+// ImageMapInserter.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded;
+
+import java.io.File;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import util.Util;
+
+import ded.model.Diagram;
+import ded.model.Entity;
+
+/** Command-line tool to insert HTML image maps generated from
+  * diagrams, like the 'insert-ded-image-map' script.
+  *
+  * Usage:
+  *
+  *   java -cp dist/ded.jar ded.ImageMapInserter [-jobs N] files.html...
+  *
+  * or equivalently, 'ded --image-map [-jobs N] files.html...'.
+  *
+  * Each image map must initially be added to the HTML by hand, with
+  * comments naming the diagram it is for:
+  *
+  *   <map name="some-image-map">
+  *     <!-- BEGIN IMAGE MAP FOR "some-diagram.ded" -->
+  *     <!-- END IMAGE MAP FOR "some-diagram.ded" -->
+  *   </map>
+  *
+  * Everything between those lines is replaced with one <area> element
+  * per entity that has an anchor name (see 'Entity.anchorName').  A
+  * relative diagram name is relative to the directory containing the
+  * HTML file.
+  *
+  * A file is only rewritten if that changes it, in which case the
+  * original is first copied to "<file>.bak".  Files are processed N at
+  * a time, by default the number of processors.  Each diagram is read
+  * once no matter how many maps refer to it, unless it changes while
+  * this runs.
+  *
+  * The exit status is 0 if every file was processed, 1 otherwise. */
+public class ImageMapInserter {
+    // ---------- constants ----------
+    /** Line that begins an image map, with the diagram file name. */
+    private static final Pattern beginPattern =
+        Pattern.compile("<!-- BEGIN IMAGE MAP FOR \"(.*)\" -->");
+
+    /** Line that ends an image map. */
+    private static final Pattern endPattern =
+        Pattern.compile("<!-- END IMAGE MAP FOR \"(.*)\" -->");
+
+    /** Text inserted at the start of every image map. */
+    private static final String prologue =
+        "  <!-- This image map is automatically inserted by the\n"+
+        "       'insert-ded-image-map' script.  Do not edit it manually. -->\n";
+
+    // ---------- types ----------
+    /** A problem with the input, whose message says everything. */
+    private static class InsertError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public InsertError(String message)
+        {
+            super(message);
+        }
+    }
+
+    /** The areas made from one version of a diagram file. */
+    private static class CachedAreas {
+        /** Modification time and size of the file that was read. */
+        public long lastModified;
+        public long length;
+
+        /** Makes the areas, for the first thread that needs them. */
+        public FutureTask<String> task;
+
+        public CachedAreas(long lastModified, long length, FutureTask<String> task)
+        {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.task = task;
+        }
+    }
+
+    // ---------- data ----------
+    /** Number of files to process concurrently. */
+    private int jobs = Runtime.getRuntime().availableProcessors();
+
+    /** Map from the canonical name of each diagram file to the areas
+      * made from it. */
+    private ConcurrentHashMap<String, CachedAreas> areaCache =
+        new ConcurrentHashMap<String, CachedAreas>();
+
+    // ---------- methods ----------
+    public static void main(String args[]) throws Exception
+    {
+        ImageMapInserter imi = new ImageMapInserter();
+        ArrayList<String> files = new ArrayList<String>();
+
+        for (int i=0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("-jobs") && i+1 < args.length) {
+                imi.jobs = Math.max(1, Integer.parseInt(args[++i]));
+            }
+            else if (a.startsWith("-")) {
+                usage("unknown option: "+a);
+            }
+            else {
+                files.add(a);
+            }
+        }
+
+        if (files.isEmpty()) {
+            usage("no input files");
+        }
+
+        System.exit(imi.processAll(files)? 0 : 1);
+    }
+
+    private static void usage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println("usage: ImageMapInserter [-jobs N] files.html...");
+        System.exit(2);
+    }
+
+    /** Process all of 'files', reporting errors.  Return true if all
+      * of them succeeded. */
+    public boolean processAll(ArrayList<String> files)
+        throws Exception
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(this.jobs);
+        ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+        for (final String fname : files) {
+            results.add(pool.submit(new Callable<String>() {
+                public String call()
+                {
+                    try {
+                        ImageMapInserter.this.processFile(fname);
+                        return null;
+                    }
+                    catch (Exception e) {
+                        return describe(e);
+                    }
+                }
+            }));
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+        int failures = 0;
+        for (int i=0; i < files.size(); i++) {
+            String error = results.get(i).get();
+            if (error != null) {
+                System.err.println("Error: "+error);
+                failures++;
+            }
+        }
+        return failures == 0;
+    }
+
+    /** Update the image maps in HTML file 'htmlName'.  Return true if
+      * that changed it. */
+    public boolean processFile(String htmlName)
+        throws Exception
+    {
+        File htmlFile = new File(htmlName);
+        String text = new String(Files.readAllBytes(htmlFile.toPath()),
+                                 StandardCharsets.UTF_8);
+        File baseDir = htmlFile.getAbsoluteFile().getParentFile();
+
+        StringBuilder out = new StringBuilder(text.length());
+
+        // Name of the diagram in the current image map, or null when
+        // not in one.
+        String dedName = null;
+
+        int lineNumber = 0;
+        int start = 0;
+        while (start < text.length()) {
+            // Each line keeps its terminator, so unchanged parts of the
+            // file are copied exactly.
+            int nl = text.indexOf('\n', start);
+            int end = (nl < 0? text.length() : nl+1);
+            String line = text.substring(start, end);
+            start = end;
+            lineNumber++;
+
+            try {
+                if (dedName != null) {
+                    // Skip to the end of the current image map.
+                    Matcher m = endPattern.matcher(line);
+                    if (m.find()) {
+                        if (!m.group(1).equals(dedName)) {
+                            throw new InsertError(
+                                "Image map for \""+dedName+"\" is either not "+
+                                "terminated or ends with an incorrect "+
+                                "terminator:\n"+line);
+                        }
+                        dedName = null;
+                        out.append(line);
+                    }
+                }
+                else {
+                    out.append(line);
+
+                    Matcher m = beginPattern.matcher(line);
+                    if (m.find()) {
+                        dedName = m.group(1);
+                        out.append(prologue);
+                        out.append(this.getAreas(Util.getFileRelativeTo(baseDir, dedName)));
+                    }
+                }
+            }
+            catch (Exception e) {
+                throw new InsertError(htmlName+":"+lineNumber+": "+describe(e));
+            }
+        }
+
+        if (dedName != null) {
+            throw new InsertError(
+                htmlName+": Image map for \""+dedName+"\" is not terminated");
+        }
+
+        String newText = out.toString();
+        if (newText.equals(text)) {
+            return false;
+        }
+
+        // Make a backup of the original file before rewriting it.
+        Files.copy(htmlFile.toPath(), new File(htmlName+".bak").toPath(),
+                   StandardCopyOption.REPLACE_EXISTING);
+        Files.write(htmlFile.toPath(), newText.getBytes(StandardCharsets.UTF_8));
+        return true;
+    }
+
+    /** Return the <area> elements for diagram 'dedFile', reading it
+      * only if it has not already been read in its current state. */
+    private String getAreas(final File dedFile)
+        throws Exception
+    {
+        String key = dedFile.getCanonicalPath();
+        long lastModified = dedFile.lastModified();
+        long length = dedFile.length();
+
+        while (true) {
+            CachedAreas cached = this.areaCache.get(key);
+            if (cached != null &&
+                cached.lastModified == lastModified &&
+                cached.length == length)
+            {
+                return getResult(cached.task);
+            }
+
+            // Install a new entry.  If another thread does so first, use
+            // its entry instead, so the file is only read once.
+            CachedAreas fresh = new CachedAreas(lastModified, length,
+                new FutureTask<String>(new Callable<String>() {
+                    public String call() throws Exception
+                    {
+                        return makeAreas(dedFile);
+                    }
+                }));
+            boolean installed = (cached == null?
+                this.areaCache.putIfAbsent(key, fresh) == null :
+                this.areaCache.replace(key, cached, fresh));
+            if (installed) {
+                fresh.task.run();
+                return getResult(fresh.task);
+            }
+        }
+    }
+
+    /** Wait for 'task' and return its result, throwing what it threw. */
+    private static String getResult(FutureTask<String> task)
+        throws Exception
+    {
+        try {
+            return task.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception)e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /** Read 'dedFile' and return its <area> elements. */
+    private static String makeAreas(File dedFile)
+        throws Exception
+    {
+        Diagram d;
+        try {
+            d = Diagram.readFromFileAutodetect(dedFile.getPath());
+        }
+        catch (Exception e) {
+            throw new InsertError(dedFile.getPath()+": "+describe(e));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Entity e : d.entities) {
+            if (e.anchorName.isEmpty()) {
+                continue;
+            }
+
+            // HTML image maps use (x1,y1,x2,y2) rectangles.
+            int x = e.loc.x;
+            int y = e.loc.y;
+            String name = escapeAttribute(e.anchorName);
+            sb.append("  <!--AUTO--><area shape=\"rect\" coords=\""+
+                      x+","+y+","+(x+e.size.width)+","+(y+e.size.height)+
+                      "\" href=\"#"+name+"\" alt=\""+name+"\" />\n");
+        }
+        return sb.toString();
+    }
+
+    /** Return a description of 'e' for an error message. */
+    private static String describe(Exception e)
+    {
+        if (e instanceof InsertError) {
+            return e.getMessage();
+        }
+        return Util.getExceptionMessage(e);
+    }
+
+    /** Return 's' escaped for use in a double-quoted HTML attribute. */
+    private static String escapeAttribute(String s)
+    {
+        return s.replace("&", "&amp;").replace("\"", "&quot;")
+                .replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
+
+// EOF
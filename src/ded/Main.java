@@ -0,0 +1,56 @@
+// Main.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded;
+
+import java.util.Arrays;
+
+import util.Util;
+
+/** Entry point of dist/ded.jar and the 'ded' script.
+  *
+  * With no special first argument, this starts the editor, 'Ded'.
+  * Otherwise it runs one of the command-line tools:
+  *
+  *   --batch        BatchConverter
+  *   --image-map    ImageMapInserter
+  *   --validate     BatchValidator
+  *
+  * The tools never open a window, so they run with java.awt.headless
+  * set.  That only works if it is set before any AWT class is loaded,
+  * which is why this class must not refer to AWT, Swing, or 'Ded'
+  * except to call it. */
+public class Main {
+    public static void main(String[] args)
+    {
+        String tool = (args.length > 0? args[0] : "");
+        String[] toolArgs = (args.length > 0?
+            Arrays.copyOfRange(args, 1, args.length) : args);
+
+        if (tool.equals("--batch") || tool.equals("--image-map") ||
+            tool.equals("--validate"))
+        {
+            System.setProperty("java.awt.headless", "true");
+            try {
+                if (tool.equals("--batch")) {
+                    BatchConverter.main(toolArgs);
+                }
+                else if (tool.equals("--image-map")) {
+                    ImageMapInserter.main(toolArgs);
+                }
+                else {
+                    BatchValidator.main(toolArgs);
+                }
+            }
+            catch (Exception e) {
+                System.err.println(Util.getExceptionMessage(e));
+                System.exit(2);
+            }
+            return;
+        }
+
+        Ded.main(args);
+    }
+}
+
+// EOF
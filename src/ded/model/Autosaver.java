@@ -0,0 +1,249 @@
+// Autosaver.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.io.File;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import util.Util;
+
+/** Periodically write a copy of a diagram being edited to a file
+  * next to it, with 'fileSuffix' appended to its name.
+  *
+  * A save is triggered when the diagram has had unsaved changes for
+  * 'delaySeconds', or when 'commandLimit' commands have accumulated,
+  * whichever is first.  Serializing and writing happen on a worker
+  * thread.  Requests made while a save is in progress are coalesced,
+  * so at most one more save follows it, and it writes the newest
+  * state.  The file is replaced atomically, so it always contains a
+  * complete diagram.
+  *
+  * The caller supplies immutable snapshots, so nothing is copied on
+  * the caller's thread. */
+public class Autosaver {
+    // ---------- constants ----------
+    /** Appended to the diagram file name to get the autosave name. */
+    public static final String fileSuffix = ".autosave";
+
+    // ---------- data ----------
+    /** File to write. */
+    private File autosaveFile;
+
+    /** Seconds of unsaved changes after which to save, or 0 to only
+      * save after 'commandLimit' commands. */
+    private int delaySeconds;
+
+    /** Number of commands after which to save, or 0 to only save
+      * after 'delaySeconds'. */
+    private int commandLimit;
+
+    /** Thread that does the saving, and runs the delay timer. */
+    private ScheduledExecutorService executor;
+
+    // The remaining fields are protected by 'this'.
+
+    /** Newest state not yet written, or null if it has been. */
+    private Diagram pending = null;
+
+    /** Number of commands since the last save. */
+    private int commandsSinceSave = 0;
+
+    /** The delay timer, if running. */
+    private ScheduledFuture<?> timer = null;
+
+    /** True if a save task has been submitted but not yet started. */
+    private boolean saveQueued = false;
+
+    /** Description of the most recent error saving, or null. */
+    private String error = null;
+
+    // ---------- methods ----------
+    /** Prepare to autosave changes to the diagram that is saved in
+      * 'diagramFileName'.  The limits are as described for the fields
+      * of the same names. */
+    public Autosaver(String diagramFileName, int delaySeconds, int commandLimit)
+    {
+        this.autosaveFile = new File(autosaveFileName(diagramFileName));
+        this.delaySeconds = delaySeconds;
+        this.commandLimit = commandLimit;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Autosaver");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** Return the name of the autosave file for 'diagramFileName'. */
+    public static String autosaveFileName(String diagramFileName)
+    {
+        return diagramFileName + fileSuffix;
+    }
+
+    /** Return true if there is an autosave file for 'diagramFileName'
+      * that was written after that file was last modified. */
+    public static boolean isNewerThanFile(String diagramFileName)
+    {
+        File f = new File(autosaveFileName(diagramFileName));
+        return f.exists() &&
+               f.lastModified() > new File(diagramFileName).lastModified();
+    }
+
+    /** Delete the autosave file for 'diagramFileName', if any. */
+    public static void delete(String diagramFileName)
+    {
+        new File(autosaveFileName(diagramFileName)).delete();
+    }
+
+    /** Note that a command has changed the diagram into 'diagram',
+      * which the caller must not modify afterward. */
+    public synchronized void changed(Diagram diagram)
+    {
+        this.pending = diagram;
+        this.commandsSinceSave++;
+
+        if (this.commandLimit > 0 && this.commandsSinceSave >= this.commandLimit) {
+            this.requestSave();
+        }
+        else if (this.delaySeconds > 0 && this.timer == null && !this.saveQueued) {
+            this.timer = this.executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    Autosaver.this.save();
+                }
+            }, this.delaySeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /** Arrange for 'pending' to be saved as soon as possible. */
+    private synchronized void requestSave()
+    {
+        if (this.timer != null) {
+            this.timer.cancel(false /*mayInterruptIfRunning*/);
+            this.timer = null;
+        }
+        if (!this.saveQueued) {
+            this.saveQueued = true;
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Autosaver.this.save();
+                }
+            });
+        }
+    }
+
+    /** Write the pending state, if any.  Runs on the worker thread. */
+    private void save()
+    {
+        Diagram d;
+        synchronized (this) {
+            d = this.pending;
+            this.pending = null;
+            this.commandsSinceSave = 0;
+            this.timer = null;
+            this.saveQueued = false;
+        }
+        if (d == null) {
+            return;
+        }
+
+        String err = null;
+        try {
+            writeAtomically(this.autosaveFile, d.toJSON().toString(2) + "\n");
+        }
+        catch (Exception e) {
+            err = "writing \""+this.autosaveFile+"\": "+Util.getExceptionMessage(e);
+        }
+        synchronized (this) {
+            this.error = err;
+        }
+    }
+
+    /** Replace 'file' with 'contents', such that a crash leaves either
+      * the old or the new contents. */
+    private static void writeAtomically(File file, String contents)
+        throws Exception
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileChannel ch = FileChannel.open(tmp.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(contents.getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+
+            // The data must be on disk before the rename is.
+            ch.force(false);
+        }
+        finally {
+            ch.close();
+        }
+
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (Exception e) {
+            tmp.delete();
+            throw e;
+        }
+    }
+
+    /** Return a description of the error from the most recent save,
+      * or null if it succeeded or there has been none, and forget it
+      * so each failure is only reported once. */
+    public synchronized String takeError()
+    {
+        String ret = this.error;
+        this.error = null;
+        return ret;
+    }
+
+    /** Stop autosaving, abandoning anything not yet written, and
+      * delete the autosave file.  This is called when the changes have
+      * been saved or deliberately abandoned.  The object cannot be
+      * used afterward. */
+    public void discard()
+    {
+        synchronized (this) {
+            this.pending = null;
+            if (this.timer != null) {
+                this.timer.cancel(false /*mayInterruptIfRunning*/);
+                this.timer = null;
+            }
+        }
+
+        // Wait for any save in progress so it does not recreate the
+        // file after we delete it.
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.autosaveFile.delete();
+    }
+}
+
+// EOF
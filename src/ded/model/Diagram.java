@@ -19,11 +19,19 @@ import java.io.Reader;
 import java.io.StringReader;
 import java.io.Writer;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -31,6 +39,7 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import util.FlattenInputStream;
+import util.IdentityHashSet;
 import util.StringUtil;
 import util.Util;
 import util.XParse;
@@ -44,6 +53,15 @@ public class Diagram implements JSONable {
       * should never be changed. */
     public static final String jsonType = "Diagram Editor Diagram";
 
+    /** Syntax accepted by 'rgbSpecToColor'. */
+    private static final Pattern rgbSpecPattern =
+        Pattern.compile("^RGB\\(([0-9]+),([0-9]+),([0-9]+)\\)$");
+
+    /** Value stored in 'resolvedColors' for a color string that does
+      * not name or specify any color.  It is only compared by
+      * identity. */
+    private static final Color unresolvedColor = new Color(0, 0, 0);
+
     /** Default value of 'backgroundColor'. */
     public static final String defaultBackgroundColor = "White";
 
@@ -61,6 +79,9 @@ public class Diagram implements JSONable {
       * not be preserved. */
     public static final int currentFileVersion = 23;
 
+    /** Little-endian integer at the start of every ER file. */
+    public static final int erMagic = 0x2B044C63;
+
     // ---------- public data ------------
     /** Size of window to display diagram.  Some elements might not fit
       * in the current size.
@@ -89,9 +110,39 @@ public class Diagram implements JSONable {
     /** Relations. */
     public ArrayList<Relation> relations;
 
-    /** Map from color names to Colors. */
+    /** Map from color names to Colors.  After changing the contents
+      * of this map in place, call 'namedColorsChanged'.  Replacing
+      * the map with a different object is detected automatically. */
     public LinkedHashMap<String, Color> namedColors;
 
+    // ---------- private types ------------
+    /** Cache of 'getNamedColor' results for one 'namedColors' map.
+      * Several threads can paint the same diagram at once, so it can
+      * be read and added to concurrently. */
+    private static class ResolvedColors {
+        /** The 'namedColors' object this was built from.  If
+          * 'namedColors' no longer refers to it, the cache is stale. */
+        public final LinkedHashMap<String, Color> source;
+
+        /** Map from each color string that has been looked up to its
+          * Color, or to 'unresolvedColor' if it does not denote one. */
+        public final ConcurrentHashMap<String, Color> colors =
+            new ConcurrentHashMap<String, Color>();
+
+        public ResolvedColors(LinkedHashMap<String, Color> source)
+        {
+            this.source = source;
+        }
+    }
+
+    // ---------- private data ------------
+    /** Cache of 'getNamedColor' results, or null if none has been
+      * made yet.  A stale cache is replaced rather than cleared, so a
+      * thread still using it is not disturbed.  This is derived
+      * entirely from 'namedColors', so it is not copied, compared, or
+      * serialized. */
+    private volatile ResolvedColors resolvedColors = null;
+
     // ----------- public methods -----------
     public Diagram()
     {
@@ -131,21 +182,55 @@ public class Diagram implements JSONable {
     /** Given a color name, get a Color object.  Return 'fallback' if the
       * name cannot be found or interpreted. */
     public Color getNamedColor(String namedColor, Color fallback)
+    {
+        // This is called for every element on every paint, so the
+        // answers are cached rather than parsing RGB specs each time.
+        // ConcurrentHashMap does not allow a null key.
+        if (namedColor == null) {
+            Color c = this.resolveColor(namedColor);
+            return (c == unresolvedColor)? fallback : c;
+        }
+
+        ResolvedColors rc = this.resolvedColors;
+        if (rc == null || rc.source != this.namedColors) {
+            rc = new ResolvedColors(this.namedColors);
+            this.resolvedColors = rc;
+        }
+
+        Color c = rc.colors.get(namedColor);
+        if (c == null) {
+            c = this.resolveColor(namedColor);
+            rc.colors.put(namedColor, c);
+        }
+
+        return (c == unresolvedColor)? fallback : c;
+    }
+
+    /** Interpret 'namedColor' without consulting the cache.  Return
+      * 'unresolvedColor' if it cannot be interpreted. */
+    private Color resolveColor(String namedColor)
     {
         Color c = this.namedColors.get(namedColor);
         if (c != null) {
             return c;
         }
-        else {
-            // Check for the RGB syntax.
+
+        // Check for the RGB syntax.
+        if (namedColor != null) {
             c = rgbSpecToColor(namedColor);
             if (c != null) {
                 return c;
             }
-            else {
-                return fallback;
-            }
         }
+
+        return unresolvedColor;
+    }
+
+    /** Discard cached color lookups.  This must be called after
+      * modifying 'namedColors' in place. */
+    public void namedColorsChanged()
+    {
+        this.resolvedColors = new ResolvedColors(this.namedColors);
     }
 
     /** Given a color, express it as an RGB specification string that
@@ -159,8 +244,7 @@ public class Diagram implements JSONable {
       * null if the input is malformed. */
     public static Color rgbSpecToColor(String spec)
     {
-        String[] elts = StringUtil.parseByRegex(spec,
-            "^RGB\\(([0-9]+),([0-9]+),([0-9]+)\\)$");
+        String[] elts = StringUtil.parseByRegex(spec, rgbSpecPattern);
         if (elts != null) {
             try {
                 int r = Integer.valueOf(elts[1]);
@@ -186,12 +270,24 @@ public class Diagram implements JSONable {
 
     public void selfCheck()
     {
+        // Check membership by identity in hash sets.  Searching the
+        // lists, which compares elements with 'equals', would make
+        // this quadratic.
+        IdentityHashSet<Entity> entitySet = new IdentityHashSet<Entity>();
+        for (Entity e : this.entities) {
+            entitySet.add(e);
+        }
+        IdentityHashSet<Inheritance> inheritanceSet = new IdentityHashSet<Inheritance>();
+        for (Inheritance i : this.inheritances) {
+            inheritanceSet.add(i);
+        }
+
         for (Relation r : this.relations) {
-            r.globalSelfCheck(this);
+            r.globalSelfCheck(entitySet, inheritanceSet);
         }
 
         for (Inheritance i : this.inheritances) {
-            i.globalSelfCheck(this);
+            i.globalSelfCheck(entitySet);
         }
     }
 
@@ -458,7 +554,8 @@ public class Diagram implements JSONable {
             this.drawFileName = true;
         }
 
-        this.backgroundColor = o.optString("backgroundColor", defaultBackgroundColor);
+        this.backgroundColor =
+            Interner.intern(o.optString("backgroundColor", defaultBackgroundColor));
 
         // Make the lists now; this is particularly useful for handling
         // older file formats.
@@ -507,7 +604,8 @@ public class Diagram implements JSONable {
         LinkedHashMap<String, Color> ret = new LinkedHashMap<String, Color>();
         for (int i=0; i < colorArray.length(); i++) {
             JSONObject colorObj = colorArray.getJSONObject(i);
-            String name = colorObj.getString("name");
+            // Entities refer to colors by name, so share it with them.
+            String name = Interner.intern(colorObj.getString("name"));
             String rgbSpec = colorObj.getString("color");
             Color color = rgbSpecToColor(rgbSpec);
             if (color == null) {
@@ -594,26 +692,25 @@ public class Diagram implements JSONable {
 
     /** Read a diagram from a file and return the new Diagram object.
       * This will auto-detect the ER or JSON file formats and read
-      * the file appropriately. */
+      * the file appropriately.  PNG files are rejected, since their
+      * comment might not be a diagram; see 'DiagramFile'. */
     public static Diagram readFromFileAutodetect(String fname)
         throws Exception
     {
-        // For compatibility with the C++ implementation, first attempt
-        // to read it in the ER format.
-        Diagram d = readFromERFile(fname);
-        if (d != null) {
-            return d;
-        }
-        else {
-            // The file is not in the ER format.  Proceed with reading
-            // it as JSON.  Exceptions will propagate out of
-            // this method, as they indicate that the file *was* in the
-            // ER format but some other problem occurred (or the file
-            // could not be read at all, which is a problem no matter
-            // what format we think the file is).
+        DiagramFile file = DiagramFile.read(fname);
+        if (file.diagram == null) {
+            throw new XParse("\""+fname+"\" is a PNG image, not a diagram file");
         }
+        return file.diagram;
+    }
 
-        return readFromFile(fname);
+    /** Return true if 'contents', from its position, begins with the
+      * ER magic number.  This does not change the position. */
+    public static boolean isERFormat(ByteBuffer contents)
+    {
+        return contents.remaining() >= 4 &&
+               contents.order(ByteOrder.LITTLE_ENDIAN)
+                       .getInt(contents.position()) == erMagic;
     }
 
     // ------------------ legacy deserialization -------------------------
@@ -623,15 +720,29 @@ public class Diagram implements JSONable {
     public static Diagram readFromERFile(String fname)
         throws XParse, IOException
     {
-        InputStream is = null;
+        FileChannel ch = FileChannel.open(Paths.get(fname), StandardOpenOption.READ);
         try {
-            is = new FileInputStream(fname);
-            return readFromERStream(is);
+            // Check the magic number before reading the rest, so that
+            // files in other formats are rejected cheaply.
+            ByteBuffer header = ByteBuffer.allocate(4);
+            Util.readFully(ch, header);
+            header.flip();
+            if (!isERFormat(header)) {
+                return null;
+            }
+
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new XParse("file is too large: "+size+" bytes");
+            }
+            ByteBuffer contents = ByteBuffer.allocate((int)size);
+            contents.put(header);
+            Util.readFully(ch, contents);
+            contents.flip();
+            return readFromERBuffer(contents);
         }
         finally {
-            if (is != null) {
-                is.close();
-            }
+            ch.close();
         }
     }
 
@@ -642,11 +753,32 @@ public class Diagram implements JSONable {
     public static Diagram readFromERStream(InputStream is)
         throws XParse, IOException
     {
-        FlattenInputStream flat = new FlattenInputStream(is);
+        return readFromERFlat(new FlattenInputStream(is));
+    }
+
+    /** Like 'readFromERStream', but read from 'contents', starting at
+      * its position. */
+    public static Diagram readFromERBuffer(ByteBuffer contents)
+        throws XParse, IOException
+    {
+        return readFromERFlat(new FlattenInputStream(contents));
+    }
 
+    /** Read a Diagram from 'flat', or return null if it does not begin
+      * with the ER magic number. */
+    private static Diagram readFromERFlat(FlattenInputStream flat)
+        throws XParse, IOException
+    {
         // Magic number identifier for the file format.
-        int magic = flat.readInt();
-        if (magic != 0x2B044C63) {
+        int magic;
+        try {
+            magic = flat.readInt();
+        }
+        catch (XParse e) {
+            // Too short to be an ER file.
+            return null;
+        }
+        if (magic != erMagic) {
             // The file is not in the expected format.
             return null;
         }
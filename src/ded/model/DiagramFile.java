@@ -0,0 +1,107 @@
+// DiagramFile.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import util.ImageFileUtil;
+import util.Util;
+import util.XParse;
+
+/** The result of reading a file that a diagram can be loaded from.
+  *
+  * The format is recognized from the first bytes of the file, not its
+  * name, and the file is opened once and read by the decoder for that
+  * format on the same channel. */
+public class DiagramFile {
+    // ---------- types ----------
+    /** The kinds of file that can be recognized. */
+    public static enum Format {
+        /** Binary format written by the C++ implementation. */
+        ER,
+
+        /** PNG image, possibly with diagram source in its comment. */
+        PNG,
+
+        /** The native JSON format.  A file that is not recognized as
+          * one of the others is assumed to be this. */
+        JSON
+    }
+
+    // ---------- public data ----------
+    /** Format of the file. */
+    public final Format format;
+
+    /** For ER and JSON, the diagram.  Null for PNG. */
+    public final Diagram diagram;
+
+    /** For PNG, the text of its "Comment" chunk, or null if it has
+      * none.  Null for the other formats.  Whether it is a diagram is
+      * left to the caller. */
+    public final String pngComment;
+
+    // ---------- methods ----------
+    private DiagramFile(Format format, Diagram diagram, String pngComment)
+    {
+        this.format = format;
+        this.diagram = diagram;
+        this.pngComment = pngComment;
+    }
+
+    /** Read 'fname', which may be in any of the formats.  Throw if it
+      * cannot be read, or is not valid in the format it appears to be. */
+    public static DiagramFile read(String fname)
+        throws Exception
+    {
+        FileChannel ch = FileChannel.open(Paths.get(fname), StandardOpenOption.READ);
+        try {
+            // Enough for both the PNG signature and the ER magic number.
+            ByteBuffer header = ByteBuffer.allocate(8);
+            Util.readFully(ch, header);
+            header.flip();
+
+            if (ImageFileUtil.isPNGSignature(header)) {
+                // Only the chunk headers and text are read; the image
+                // data is skipped.
+                ch.position(0);
+                return new DiagramFile(Format.PNG, null,
+                                       ImageFileUtil.getPNGText(ch, "Comment"));
+            }
+
+            // The other formats are decoded from the whole file.
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new XParse("file is too large: "+size+" bytes");
+            }
+            ByteBuffer contents =
+                ByteBuffer.allocate(Math.max((int)size, header.limit()));
+            contents.put(header);
+            Util.readFully(ch, contents);
+            contents.flip();
+
+            // For compatibility with the C++ implementation, the ER
+            // format takes precedence over JSON.
+            if (Diagram.isERFormat(contents)) {
+                return new DiagramFile(Format.ER, Diagram.readFromERBuffer(contents), null);
+            }
+
+            Diagram d = Diagram.readFromReader(new InputStreamReader(
+                new ByteArrayInputStream(contents.array(), 0, contents.limit()),
+                StandardCharsets.UTF_8));
+            return new DiagramFile(Format.JSON, d, null);
+        }
+        finally {
+            ch.close();
+        }
+    }
+}
+
+// EOF
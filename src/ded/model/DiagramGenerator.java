@@ -0,0 +1,346 @@
+// DiagramGenerator.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Point;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Random;
+
+/** Generates large, valid, pseudo-random diagrams for scale testing.
+  *
+  * All randomness comes from a Random seeded with 'seed', so the same
+  * settings always produce the same diagram.  The counts are public
+  * fields; set them and call 'generate'.
+  *
+  * This can also be run from the command line to write a diagram:
+  *
+  *   java -cp bin ded.model.DiagramGenerator [options] out.ded
+  *
+  * Options:
+  *
+  *   -seed N          Random seed.
+  *   -entities N      Entities, spread evenly over all shapes.
+  *   -relations N     Relations, spread evenly over all routing algorithms.
+  *   -inheritances N  Inheritances.
+  *   -images N        Entities (among the above) that show an image.
+  *   -colors N        Custom named colors. */
+public class DiagramGenerator {
+    // ---------- constants ----------
+    /** Horizontal and vertical distance between grid cells. */
+    private static final int cellWidth = 160;
+    private static final int cellHeight = 110;
+
+    // ---------- public data ----------
+    /** Seed for the random number generator. */
+    public long seed = 1;
+
+    /** Number of entities to create of each shape. */
+    public EnumMap<EntityShape, Integer> entityCounts =
+        new EnumMap<EntityShape, Integer>(EntityShape.class);
+
+    /** Number of relations to create with each routing algorithm. */
+    public EnumMap<RoutingAlgorithm, Integer> relationCounts =
+        new EnumMap<RoutingAlgorithm, Integer>(RoutingAlgorithm.class);
+
+    /** Maximum number of control points on each relation.  The actual
+      * number is chosen uniformly in [0,maxControlPoints]. */
+    public int maxControlPoints = 3;
+
+    /** Number of inheritances.  Each has a child relation. */
+    public int inheritances = 0;
+
+    /** Number of entities that have 'imageFileName' set. */
+    public int imageEntities = 0;
+
+    /** Image file names to use for image entities.  These are relative
+      * to the directory of the diagram file; the defaults exist in
+      * the 'tests' directory. */
+    public String[] imageFileNames = { "smiley.png", "purple10x10.png" };
+
+    /** Number of custom named colors to add to the default table. */
+    public int customColors = 0;
+
+    // ---------- private data ----------
+    /** Source of all randomness. */
+    private Random random;
+
+    // ---------- methods ----------
+    public DiagramGenerator()
+    {
+        for (EntityShape s : EntityShape.values()) {
+            this.entityCounts.put(s, 0);
+        }
+        for (RoutingAlgorithm r : RoutingAlgorithm.values()) {
+            this.relationCounts.put(r, 0);
+        }
+    }
+
+    /** Make a generator for a diagram with about 'n' entities, 'n'
+      * relations, 'n/10' inheritances and images, and a handful of
+      * custom colors, spread over all shapes and routing algorithms. */
+    public static DiagramGenerator scaled(int n)
+    {
+        DiagramGenerator g = new DiagramGenerator();
+        g.setTotalEntities(n);
+        g.setTotalRelations(n);
+        g.inheritances = n/10;
+        g.imageEntities = n/10;
+        g.customColors = Math.min(n, 20);
+        return g;
+    }
+
+    /** Spread 'n' entities as evenly as possible over all shapes. */
+    public void setTotalEntities(int n)
+    {
+        EntityShape[] shapes = EntityShape.values();
+        for (int i=0; i < shapes.length; i++) {
+            this.entityCounts.put(shapes[i], n/shapes.length + (i < n%shapes.length? 1 : 0));
+        }
+    }
+
+    /** Spread 'n' relations as evenly as possible over all algorithms. */
+    public void setTotalRelations(int n)
+    {
+        RoutingAlgorithm[] algs = RoutingAlgorithm.values();
+        for (int i=0; i < algs.length; i++) {
+            this.relationCounts.put(algs[i], n/algs.length + (i < n%algs.length? 1 : 0));
+        }
+    }
+
+    /** Total of 'entityCounts'. */
+    public int getTotalEntities()
+    {
+        int ret = 0;
+        for (int c : this.entityCounts.values()) {
+            ret += c;
+        }
+        return ret;
+    }
+
+    /** Build and return a new diagram according to the settings. */
+    public Diagram generate()
+    {
+        this.random = new Random(this.seed);
+        Diagram d = new Diagram();
+
+        // Custom colors.
+        for (int i=0; i < this.customColors; i++) {
+            d.namedColors.put("Custom "+i,
+                new Color(this.random.nextInt(256),
+                          this.random.nextInt(256),
+                          this.random.nextInt(256)));
+        }
+        d.namedColorsChanged();
+        ArrayList<String> colorNames = new ArrayList<String>(d.namedColors.keySet());
+
+        // Make the window big enough for a roughly square grid.
+        int total = this.getTotalEntities();
+        int columns = Math.max(1, (int)Math.ceil(Math.sqrt(total)));
+        int rows = (total + columns - 1) / columns;
+        d.windowSize = new Dimension(Math.max(700, columns*cellWidth + 40),
+                                     Math.max(500, rows*cellHeight + 40));
+
+        // Entities, in shuffled shape order so that shapes are
+        // interleaved in drawing order, laid out on the grid.
+        ArrayList<EntityShape> shapes = new ArrayList<EntityShape>();
+        for (EntityShape s : EntityShape.values()) {
+            for (int i=0; i < this.entityCounts.get(s); i++) {
+                shapes.add(s);
+            }
+        }
+        Collections.shuffle(shapes, this.random);
+
+        for (int i=0; i < shapes.size(); i++) {
+            Entity e = new Entity();
+            e.setShapeAndDefaults(shapes.get(i));
+            e.loc = new Point(20 + (i%columns)*cellWidth, 20 + (i/columns)*cellHeight);
+            e.size = new Dimension(60 + this.random.nextInt(80),
+                                   30 + this.random.nextInt(50));
+            e.name = "Entity "+i;
+            e.nameAlign = this.pick(TextAlign.values());
+            if (this.random.nextInt(3) != 0) {
+                e.attributes = "attr"+i+"a\nattr"+i+"b";
+            }
+            e.fillColor = this.pickColor(colorNames);
+            e.lineColor = this.pickColor(colorNames);
+            e.textColor = this.pickColor(colorNames);
+            if (e.shapeParams != null) {
+                for (int p=0; p < e.shapeParams.length; p++) {
+                    e.shapeParams[p] = 5 + this.random.nextInt(20);
+                }
+            }
+            for (ShapeFlag f : ShapeFlag.allFlagsForShape(e.shape)) {
+                if (this.random.nextBoolean()) {
+                    e.shapeFlags.add(f);
+                }
+                else {
+                    e.shapeFlags.remove(f);
+                }
+            }
+            if (this.random.nextInt(4) == 0) {
+                e.anchorName = "anchor"+i;
+            }
+            d.entities.add(e);
+        }
+
+        // Images, on distinct randomly chosen entities.
+        if (!d.entities.isEmpty() && this.imageFileNames.length > 0) {
+            ArrayList<Entity> candidates = new ArrayList<Entity>(d.entities);
+            Collections.shuffle(candidates, this.random);
+            int n = Math.min(this.imageEntities, candidates.size());
+            for (int i=0; i < n; i++) {
+                Entity e = candidates.get(i);
+                e.imageFileName = this.pick(this.imageFileNames);
+                e.imageFillStyle = this.pick(ImageFillStyle.values());
+            }
+        }
+
+        // Inheritances, each hanging below a random parent, with one
+        // relation from a random child to it.
+        if (!d.entities.isEmpty()) {
+            for (int i=0; i < this.inheritances; i++) {
+                Entity parent = this.pick(d.entities);
+                Inheritance inh = new Inheritance(parent, this.random.nextBoolean(),
+                    new Point(parent.loc.x + parent.size.width/2,
+                              parent.loc.y + parent.size.height + 20));
+                d.inheritances.add(inh);
+
+                Entity child = this.pick(d.entities);
+                d.relations.add(new Relation(new RelationEndpoint(child),
+                                             new RelationEndpoint(inh)));
+            }
+        }
+
+        // Relations between random endpoints.
+        for (RoutingAlgorithm alg : RoutingAlgorithm.values()) {
+            for (int i=0; i < this.relationCounts.get(alg); i++) {
+                Relation r = new Relation(this.makeEndpoint(d), this.makeEndpoint(d));
+                r.routingAlg = alg;
+                r.start.arrowStyle = this.pick(ArrowStyle.values());
+                r.end.arrowStyle = this.pick(ArrowStyle.values());
+                if (this.random.nextBoolean()) {
+                    r.label = "r"+d.relations.size();
+                }
+
+                Point s = r.start.getCenter();
+                Point t = r.end.getCenter();
+                int ncp = this.random.nextInt(this.maxControlPoints + 1);
+                for (int c=1; c <= ncp; c++) {
+                    // Spread along the straight line, with some jitter.
+                    r.controlPts.add(new Point(
+                        s.x + (t.x-s.x)*c/(ncp+1) + this.random.nextInt(41) - 20,
+                        s.y + (t.y-s.y)*c/(ncp+1) + this.random.nextInt(41) - 20));
+                }
+
+                if (this.random.nextInt(4) == 0) {
+                    r.lineWidth = 1 + this.random.nextInt(3);
+                }
+                if (this.random.nextInt(4) == 0) {
+                    int a = 2 + this.random.nextInt(8);
+                    int b = 2 + this.random.nextInt(8);
+                    r.dashStructure = Interner.internDashStructure(new int[] { a, b });
+                }
+                r.lineColor = this.pickColor(colorNames);
+                r.textColor = this.pickColor(colorNames);
+                d.relations.add(r);
+            }
+        }
+
+        d.selfCheck();
+        return d;
+    }
+
+    /** Make a relation endpoint that is usually an entity, sometimes
+      * an inheritance, and sometimes a free point. */
+    private RelationEndpoint makeEndpoint(Diagram d)
+    {
+        int r = this.random.nextInt(10);
+        if (r == 0 || d.entities.isEmpty()) {
+            return new RelationEndpoint(new Point(this.random.nextInt(d.windowSize.width),
+                                                  this.random.nextInt(d.windowSize.height)));
+        }
+        if (r == 1 && !d.inheritances.isEmpty()) {
+            return new RelationEndpoint(this.pick(d.inheritances));
+        }
+        return new RelationEndpoint(this.pick(d.entities));
+    }
+
+    /** Choose a color name from 'names', or occasionally an RGB spec. */
+    private String pickColor(ArrayList<String> names)
+    {
+        if (this.random.nextInt(10) == 0) {
+            return Diagram.colorToRGBSpec(new Color(this.random.nextInt(256),
+                                                    this.random.nextInt(256),
+                                                    this.random.nextInt(256)));
+        }
+        return this.pick(names);
+    }
+
+    private <T> T pick(T[] arr)
+    {
+        return arr[this.random.nextInt(arr.length)];
+    }
+
+    private <T> T pick(ArrayList<T> list)
+    {
+        return list.get(this.random.nextInt(list.size()));
+    }
+
+    // ---------- command line ----------
+    public static void main(String args[]) throws Exception
+    {
+        DiagramGenerator g = scaled(100);
+        String outName = null;
+
+        for (int i=0; i < args.length; i++) {
+            String a = args[i];
+            if (a.startsWith("-") && i+1 < args.length) {
+                int n = Integer.parseInt(args[++i]);
+                if (a.equals("-seed")) {
+                    g.seed = n;
+                }
+                else if (a.equals("-entities")) {
+                    g.setTotalEntities(n);
+                }
+                else if (a.equals("-relations")) {
+                    g.setTotalRelations(n);
+                }
+                else if (a.equals("-inheritances")) {
+                    g.inheritances = n;
+                }
+                else if (a.equals("-images")) {
+                    g.imageEntities = n;
+                }
+                else if (a.equals("-colors")) {
+                    g.customColors = n;
+                }
+                else {
+                    System.err.println("unknown option: "+a);
+                    System.exit(2);
+                }
+            }
+            else if (outName == null && !a.startsWith("-")) {
+                outName = a;
+            }
+            else {
+                System.err.println("usage: DiagramGenerator [options] out.ded");
+                System.exit(2);
+            }
+        }
+
+        if (outName == null) {
+            System.err.println("usage: DiagramGenerator [options] out.ded");
+            System.exit(2);
+        }
+
+        g.generate().saveToFile(outName);
+    }
+}
+
+// EOF
@@ -0,0 +1,659 @@
+// EditJournal.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import util.Util;
+
+/** Append-only record of the edits made to a diagram since it was
+  * last saved, so they can be recovered if the editor dies before
+  * the next save.
+  *
+  * The journal lives next to the diagram file, with 'fileSuffix'
+  * appended to its name.  It is a sequence of lines, each a JSON
+  * object.  The first is a header identifying the saved file the
+  * journal applies to, by length and modification time.  Each later
+  * line describes one command: its description, plus the difference
+  * between the diagram's JSON before and after the command, at the
+  * granularity of top-level attributes and individual elements of
+  * the 'entities', 'inheritances', and 'relations' arrays.  Elements
+  * refer to one another by array index, so an element whose own
+  * JSON is unchanged needs no record even if others moved around it.
+  *
+  * Computing the differences and writing them happens on a
+  * background thread.  Commands that arrive while a write is in
+  * progress are written together and forced to disk once.  A crash
+  * can leave a partial final line, which replay ignores.
+  *
+  * While a journal is being written, its writer holds a lock on it,
+  * so another editor opening the same diagram can tell the journal
+  * is live rather than left by a crash, and leave it alone.  Only
+  * one editor can write a given journal at a time.
+  *
+  * Replaying costs one parse of each recorded change, applied to the
+  * saved diagram's JSON, plus one conversion back into a Diagram, so
+  * it is proportional to the number and size of edits made since the
+  * save rather than to the number of elements in the diagram. */
+public class EditJournal {
+    // ---------- constants ----------
+    /** Appended to the diagram file name to get the journal name. */
+    public static final String fileSuffix = ".journal";
+
+    /** Value of the "type" attribute of the header line. */
+    public static final String jsonType = "Diagram Editor Journal";
+
+    /** Value of the "version" attribute of the header line. */
+    public static final int currentVersion = 1;
+
+    /** Names of the diagram JSON arrays that are compared element by
+      * element. */
+    private static final String[] elementArrays = {
+        "entities", "inheritances", "relations"
+    };
+
+    // ---------- types ----------
+    /** One command waiting to be written. */
+    private static class PendingRecord {
+        /** Description of the command, as in UndoHistory. */
+        public String command;
+
+        /** Diagram state after the command.  This must not be
+          * modified after it is passed to 'record'. */
+        public Diagram diagram;
+
+        public PendingRecord(String c, Diagram d)
+        {
+            this.command = c;
+            this.diagram = d;
+        }
+    }
+
+    /** Result of reading a journal with 'replay'. */
+    public static class Replay {
+        /** The saved diagram with all complete journal records applied. */
+        public Diagram diagram;
+
+        /** Command descriptions of the applied records, oldest first. */
+        public ArrayList<String> commands = new ArrayList<String>();
+    }
+
+    // ---------- data ----------
+    /** The journal file. */
+    private File journalFile;
+
+    /** The diagram file whose saved state the journal starts from. */
+    private File diagramFile;
+
+    /** Commands not yet taken by the writer thread. */
+    private LinkedBlockingQueue<PendingRecord> queue =
+        new LinkedBlockingQueue<PendingRecord>();
+
+    /** Thread that writes the records, or null before the first
+      * record and after 'close'. */
+    private Thread writerThread = null;
+
+    /** Description of the first error writing the journal, or null.
+      * After an error, nothing more is written. */
+    private volatile String error = null;
+
+    /** True if the writer should delete the journal when it stops.
+      * This is set before the request to stop is queued. */
+    private boolean deleteWhenStopped = false;
+
+    // The remaining fields are only used by the writer thread.
+
+    /** Open and locked journal file, or null if not yet opened. */
+    private FileChannel channel = null;
+
+    /** Top-level attributes of the last written state, other than the
+      * element arrays, as JSON strings. */
+    private JSONObject lastAttributes;
+
+    /** For each of 'elementArrays', the JSON strings of the elements
+      * of the last written state. */
+    private ArrayList<ArrayList<String>> lastElements =
+        new ArrayList<ArrayList<String>>();
+
+    // ---------- methods ----------
+    /** Prepare to journal changes to 'savedDiagram', which is the
+      * state just read from, or written to, 'diagramFileName'.  Any
+      * existing journal for that file is replaced when the first
+      * record is written.  Nothing happens on disk until then. */
+    public EditJournal(String diagramFileName, Diagram savedDiagram)
+    {
+        this.diagramFile = new File(diagramFileName);
+        this.journalFile = new File(journalFileName(diagramFileName));
+        this.setLastState(savedDiagram.toJSON());
+    }
+
+    /** Return the name of the journal for 'diagramFileName'. */
+    public static String journalFileName(String diagramFileName)
+    {
+        return diagramFileName + fileSuffix;
+    }
+
+    /** Return true if there is a journal for 'diagramFileName'. */
+    public static boolean exists(String diagramFileName)
+    {
+        return new File(journalFileName(diagramFileName)).exists();
+    }
+
+    /** Return true if the journal for 'diagramFileName' is being
+      * written by another editor, in this process or another one. */
+    public static boolean isInUse(String diagramFileName)
+    {
+        File f = new File(journalFileName(diagramFileName));
+        try {
+            FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE);
+            try {
+                return tryLock(ch) == null;
+            }
+            finally {
+                ch.close();     // Also releases the lock.
+            }
+        }
+        catch (IOException e) {
+            // Most likely it does not exist.  If it cannot be opened
+            // for some other reason, nobody can be writing it.
+            return false;
+        }
+    }
+
+    /** Delete the journal for 'diagramFileName', if any, unless it
+      * is in use (see 'isInUse').  Return true if there is no longer
+      * a journal. */
+    public static boolean delete(String diagramFileName)
+    {
+        File f = new File(journalFileName(diagramFileName));
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE);
+        }
+        catch (NoSuchFileException e) {
+            return true;
+        }
+        catch (IOException e) {
+            return f.delete();
+        }
+
+        try {
+            if (tryLock(ch) == null) {
+                return false;
+            }
+
+            // Delete it while locked, so nobody can start writing it
+            // in between.  Some systems do not allow deleting an open
+            // file; for them, try again below.
+            if (f.delete()) {
+                return true;
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+        finally {
+            try {
+                ch.close();
+            }
+            catch (IOException e) {}
+        }
+        return f.delete();
+    }
+
+    /** Try to lock all of 'ch' for writing.  Return null if someone
+      * else has a lock on it. */
+    private static FileLock tryLock(FileChannel ch)
+        throws IOException
+    {
+        try {
+            return ch.tryLock();
+        }
+        catch (OverlappingFileLockException e) {
+            // Another editor in this process has it.
+            return null;
+        }
+    }
+
+    /** Queue a record saying 'command' changed the diagram into
+      * 'diagram'.  The caller must not modify 'diagram' afterward;
+      * UndoHistory.getCurrentDiagram() satisfies that. */
+    public void record(String command, Diagram diagram)
+    {
+        if (this.error != null) {
+            return;
+        }
+
+        if (this.writerThread == null) {
+            this.writerThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    EditJournal.this.writerLoop();
+                }
+            }, "EditJournal writer");
+            this.writerThread.setDaemon(true);
+            this.writerThread.start();
+        }
+
+        this.queue.add(new PendingRecord(command, diagram));
+    }
+
+    /** Return a description of the first error encountered while
+      * writing, or null if there has been none. */
+    public String getError()
+    {
+        return this.error;
+    }
+
+    /** Stop journaling and delete the journal file, unless another
+      * editor is writing it.  This is called when the changes have
+      * been saved or deliberately abandoned. */
+    public void discard()
+    {
+        if (this.writerThread == null) {
+            // Nothing was written, but there may be an unusable
+            // journal left by an earlier session.
+            delete(this.diagramFile.getPath());
+            return;
+        }
+
+        // The writer deletes the file before it gives up the lock.
+        this.deleteWhenStopped = true;
+        this.close();
+    }
+
+    /** Write everything queued so far, then stop journaling, leaving
+      * the file in place.  The object cannot be used afterward. */
+    public void close()
+    {
+        Thread t = this.writerThread;
+        if (t == null) {
+            return;
+        }
+        this.writerThread = null;
+
+        // A record with a null diagram tells the writer to stop.
+        this.queue.add(new PendingRecord(null, null));
+        try {
+            t.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Body of the writer thread. */
+    private void writerLoop()
+    {
+        ArrayList<PendingRecord> batch = new ArrayList<PendingRecord>();
+        try {
+            while (true) {
+                // Wait for one record, then take whatever else has
+                // accumulated so they share one write and one force.
+                batch.clear();
+                batch.add(this.queue.take());
+                this.queue.drainTo(batch);
+
+                StringBuilder sb = new StringBuilder();
+                boolean stop = false;
+                for (PendingRecord r : batch) {
+                    if (r.diagram == null) {
+                        stop = true;
+                        break;
+                    }
+                    this.appendRecord(sb, r);
+                }
+
+                if (sb.length() > 0) {
+                    this.write(sb.toString());
+                }
+                if (stop) {
+                    break;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            // Treat as a request to stop.
+        }
+        catch (Exception e) {
+            this.error = "writing journal \""+this.journalFile+"\": "+
+                         Util.getExceptionMessage(e);
+        }
+        finally {
+            if (this.channel != null) {
+                // Delete it while it is still locked, if allowed, so
+                // that a journal another editor has just started is
+                // never deleted.
+                boolean deleted = this.deleteWhenStopped && this.journalFile.delete();
+                try {
+                    this.channel.close();
+                }
+                catch (IOException e) {}
+                this.channel = null;
+                if (this.deleteWhenStopped && !deleted) {
+                    this.journalFile.delete();
+                }
+            }
+        }
+    }
+
+    /** Write 's' to the end of the journal and wait for it to reach
+      * the disk, first creating the file with its header if needed. */
+    private void write(String s)
+        throws Exception
+    {
+        if (this.channel == null) {
+            FileChannel ch = FileChannel.open(this.journalFile.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+
+            // Only truncate it once it is known not to be another
+            // editor's live journal.
+            boolean locked = false;
+            try {
+                locked = (tryLock(ch) != null);
+            }
+            finally {
+                if (!locked) {
+                    ch.close();
+                }
+            }
+            if (!locked) {
+                throw new IOException("it is in use by another editor");
+            }
+            this.channel = ch;
+            this.channel.truncate(0);
+
+            JSONObject header = new JSONObject();
+            header.put("type", jsonType);
+            header.put("version", currentVersion);
+            header.put("baseLength", this.diagramFile.length());
+            header.put("baseModified", this.diagramFile.lastModified());
+            s = header.toString() + "\n" + s;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) {
+            this.channel.write(buf);
+        }
+
+        // Only the contents matter, not the file metadata.
+        this.channel.force(false);
+    }
+
+    /** Append to 'sb' the line describing 'r', and make its diagram
+      * the last written state. */
+    private void appendRecord(StringBuilder sb, PendingRecord r)
+        throws JSONException
+    {
+        JSONObject newState = r.diagram.toJSON();
+        JSONObject rec = new JSONObject();
+        rec.put("command", r.command);
+
+        // Top-level attributes.  A removed attribute is recorded as
+        // null.
+        JSONObject newAttributes = getAttributes(newState);
+        JSONObject changedAttributes = new JSONObject();
+        for (Iterator<?> it = newAttributes.keys(); it.hasNext(); ) {
+            String key = (String)it.next();
+            String value = newAttributes.getString(key);
+            if (!value.equals(this.lastAttributes.optString(key, null))) {
+                changedAttributes.put(key, newState.get(key));
+            }
+        }
+        for (Iterator<?> it = this.lastAttributes.keys(); it.hasNext(); ) {
+            String key = (String)it.next();
+            if (!newAttributes.has(key)) {
+                changedAttributes.put(key, JSONObject.NULL);
+            }
+        }
+        if (changedAttributes.length() > 0) {
+            rec.put("attributes", changedAttributes);
+        }
+        this.lastAttributes = newAttributes;
+
+        // Elements, recorded as the new length and the elements at
+        // indices whose contents differ.
+        for (int a=0; a < elementArrays.length; a++) {
+            JSONArray newArr = newState.getJSONArray(elementArrays[a]);
+            ArrayList<String> oldStrings = this.lastElements.get(a);
+            ArrayList<String> newStrings = new ArrayList<String>(newArr.length());
+
+            JSONObject changed = new JSONObject();
+            for (int i=0; i < newArr.length(); i++) {
+                String s = newArr.get(i).toString();
+                newStrings.add(s);
+                if (i >= oldStrings.size() || !s.equals(oldStrings.get(i))) {
+                    changed.put(String.valueOf(i), newArr.get(i));
+                }
+            }
+
+            if (changed.length() > 0 || newStrings.size() != oldStrings.size()) {
+                JSONObject delta = new JSONObject();
+                delta.put("length", newStrings.size());
+                delta.put("changed", changed);
+                rec.put(elementArrays[a], delta);
+            }
+            this.lastElements.set(a, newStrings);
+        }
+
+        sb.append(rec.toString());
+        sb.append('\n');
+    }
+
+    /** Initialize the last written state from diagram JSON 'state'. */
+    private void setLastState(JSONObject state)
+    {
+        this.lastAttributes = getAttributes(state);
+        this.lastElements.clear();
+        for (String name : elementArrays) {
+            ArrayList<String> strings = new ArrayList<String>();
+            JSONArray arr = state.optJSONArray(name);
+            if (arr != null) {
+                for (int i=0; i < arr.length(); i++) {
+                    strings.add(arr.opt(i).toString());
+                }
+            }
+            this.lastElements.add(strings);
+        }
+    }
+
+    /** Return a map from each top-level attribute of diagram JSON
+      * 'state', other than the element arrays, to its JSON string. */
+    private static JSONObject getAttributes(JSONObject state)
+    {
+        JSONObject ret = new JSONObject();
+        try {
+            for (Iterator<?> it = state.keys(); it.hasNext(); ) {
+                String key = (String)it.next();
+                if (!isElementArray(key)) {
+                    ret.put(key, JSONObject.valueToString(state.get(key)));
+                }
+            }
+        }
+        catch (JSONException e) { assert(false); }
+        return ret;
+    }
+
+    private static boolean isElementArray(String key)
+    {
+        for (String name : elementArrays) {
+            if (name.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---------------------- replay ----------------------
+    /** Read the journal for 'diagramFileName' and apply it to
+      * 'savedDiagram', which was just read from that file.  Return
+      * null if there is no journal.  Throw if the journal cannot be
+      * read or does not belong to the file as it is now. */
+    public static Replay replay(String diagramFileName, Diagram savedDiagram)
+        throws Exception
+    {
+        File journalFile = new File(journalFileName(diagramFileName));
+        if (!journalFile.exists()) {
+            return null;
+        }
+
+        FileInputStream fis = new FileInputStream(journalFile);
+        try {
+            Reader r = new BufferedReader(new InputStreamReader(fis, StandardCharsets.UTF_8));
+            try {
+                return replay(r, new File(diagramFileName), savedDiagram);
+            }
+            finally {
+                r.close();
+                fis = null;
+            }
+        }
+        finally {
+            if (fis != null) {
+                fis.close();
+            }
+        }
+    }
+
+    /** Apply the journal in 'r' to 'savedDiagram', read from
+      * 'diagramFile'. */
+    private static Replay replay(Reader r, File diagramFile, Diagram savedDiagram)
+        throws Exception
+    {
+        ArrayList<String> lines = readCompleteLines(r);
+        if (lines.isEmpty()) {
+            throw new JSONException("the journal has no header");
+        }
+
+        JSONObject header = new JSONObject(lines.get(0));
+        if (!jsonType.equals(header.optString("type"))) {
+            throw new JSONException("unexpected journal type: \""+
+                                    header.optString("type")+"\"");
+        }
+        if (header.getInt("version") > currentVersion) {
+            throw new JSONException("the journal has version "+
+                header.getInt("version")+" but the largest version this "+
+                "program can read is "+currentVersion);
+        }
+        if (header.getLong("baseLength") != diagramFile.length() ||
+            header.getLong("baseModified") != diagramFile.lastModified())
+        {
+            throw new JSONException("the journal was written against a "+
+                "different version of \""+diagramFile+"\" than the one "+
+                "on disk, so its changes cannot be applied");
+        }
+
+        Replay ret = new Replay();
+        JSONObject state = savedDiagram.toJSON();
+        for (int n=1; n < lines.size(); n++) {
+            JSONObject rec;
+            try {
+                rec = new JSONObject(lines.get(n));
+            }
+            catch (JSONException e) {
+                // Only the last line can be damaged by a crash while
+                // writing, and it would then lack its newline.  Stop at
+                // anything unreadable regardless, keeping the records
+                // before it.
+                break;
+            }
+            applyRecord(state, rec);
+            ret.commands.add(rec.getString("command"));
+        }
+
+        ret.diagram = new Diagram(state);
+        return ret;
+    }
+
+    /** Return the lines of 'r' that end with a newline. */
+    private static ArrayList<String> readCompleteLines(Reader r)
+        throws IOException
+    {
+        ArrayList<String> ret = new ArrayList<String>();
+        StringBuilder line = new StringBuilder();
+        char[] buf = new char[8192];
+        int len;
+        while ((len = r.read(buf)) > 0) {
+            for (int i=0; i < len; i++) {
+                if (buf[i] == '\n') {
+                    ret.add(line.toString());
+                    line.setLength(0);
+                }
+                else {
+                    line.append(buf[i]);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /** Modify diagram JSON 'state' as described by record 'rec'. */
+    private static void applyRecord(JSONObject state, JSONObject rec)
+        throws JSONException
+    {
+        JSONObject attributes = rec.optJSONObject("attributes");
+        if (attributes != null) {
+            for (Iterator<?> it = attributes.keys(); it.hasNext(); ) {
+                String key = (String)it.next();
+                Object value = attributes.get(key);
+                if (value == JSONObject.NULL) {
+                    state.remove(key);
+                }
+                else {
+                    state.put(key, value);
+                }
+            }
+        }
+
+        for (String name : elementArrays) {
+            JSONObject delta = rec.optJSONObject(name);
+            if (delta == null) {
+                continue;
+            }
+
+            JSONArray arr = state.optJSONArray(name);
+            if (arr == null) {
+                arr = new JSONArray();
+                state.put(name, arr);
+            }
+
+            int length = delta.getInt("length");
+            while (arr.length() > length) {
+                arr.remove(arr.length()-1);
+            }
+
+            // Every index at or beyond the old length is among the
+            // changed ones, so this fills the array in order.
+            JSONObject changed = delta.getJSONObject("changed");
+            for (Iterator<?> it = changed.keys(); it.hasNext(); ) {
+                String key = (String)it.next();
+                arr.put(Integer.parseInt(key), changed.get(key));
+            }
+        }
+    }
+}
+
+// EOF
@@ -121,7 +121,7 @@ public class Entity implements JSONable {
     /** Set 'fillColor'.  For the moment, that is all. */
     public void setFillColor(String colorName)
     {
-        this.fillColor = colorName;
+        this.fillColor = Interner.intern(colorName);
     }
 
     /** Set 'shape'.  Adjust 'shapeParams' to match if needed. */
@@ -303,18 +303,18 @@ public class Entity implements JSONable {
         }
 
         if (ver >= 5) {
-            this.fillColor = o.optString("fillColor", defaultFillColor);
+            this.fillColor = Interner.intern(o.optString("fillColor", defaultFillColor));
         }
 
-        this.lineColor = o.optString("lineColor", defaultLineColor);
-        this.textColor = o.optString("textColor", defaultTextColor);
+        this.lineColor = Interner.intern(o.optString("lineColor", defaultLineColor));
+        this.textColor = Interner.intern(o.optString("textColor", defaultTextColor));
 
         if (ver >= 12) {
             this.anchorName = o.optString("anchorName", "");
         }
 
         if (ver >= 7) {
-            this.imageFileName = o.optString("imageFileName", "");
+            this.imageFileName = Interner.intern(o.optString("imageFileName", ""));
         }
 
         if (ver >= 8 && o.has("imageFillStyle")) {
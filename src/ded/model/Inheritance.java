@@ -6,6 +6,7 @@ package ded.model;
 import java.awt.Point;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 
 import org.json.JSONException;
@@ -49,7 +50,14 @@ public class Inheritance {
 
     public void globalSelfCheck(Diagram d)
     {
-        assert(d.entities.contains(this.parent));
+        this.globalSelfCheck(d.entities);
+    }
+
+    /** Check that the parent is a member of 'entities', which may be a
+      * set for speed. */
+    public void globalSelfCheck(Collection<Entity> entities)
+    {
+        assert(entities.contains(this.parent));
     }
 
     // ------------------ data object boilerplate ----------------
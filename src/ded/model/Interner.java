@@ -0,0 +1,90 @@
+// Interner.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Pool of shared instances of the small values that many diagram
+  * elements have in common, such as color names and dash structures.
+  *
+  * Diagrams are deep-copied for every undo history entry, so a value
+  * that is freshly allocated per element is multiplied by both the
+  * number of elements and the length of the history.  Readers and
+  * editors pass such values through here so that all elements with
+  * the same style refer to one instance, which copies then share.
+  *
+  * Only values drawn from a small vocabulary should be interned;
+  * entity names and attributes are not.  The pool is never emptied,
+  * and can be used from multiple threads. */
+public class Interner {
+    // ---------- types ----------
+    /** Wrapper that gives an int array value semantics as a map key. */
+    private static class DashKey {
+        private int[] lengths;
+
+        public DashKey(int[] lengths)
+        {
+            this.lengths = lengths;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof DashKey &&
+                   Arrays.equals(this.lengths, ((DashKey)obj).lengths);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode(this.lengths);
+        }
+    }
+
+    // ---------- data ----------
+    /** Map from each interned string to itself. */
+    private static ConcurrentHashMap<String, String> strings =
+        new ConcurrentHashMap<String, String>();
+
+    /** Map from each interned dash structure to its shared array. */
+    private static ConcurrentHashMap<DashKey, int[]> dashStructures =
+        new ConcurrentHashMap<DashKey, int[]>();
+
+    /** The dash structure of a solid line. */
+    public static final int[] solidDashStructure = new int[0];
+
+    // ---------- methods ----------
+    /** Return the shared instance equal to 's', which may be null. */
+    public static String intern(String s)
+    {
+        if (s == null) {
+            return null;
+        }
+        String ret = strings.putIfAbsent(s, s);
+        return ret == null? s : ret;
+    }
+
+    /** Return a shared array equal to 'ds', which has the meaning of
+      * Relation.dashStructure.  The caller must not modify the result. */
+    public static int[] internDashStructure(int[] ds)
+    {
+        if (ds.length == 0) {
+            return solidDashStructure;
+        }
+
+        int[] ret = dashStructures.get(new DashKey(ds));
+        if (ret == null) {
+            // Store a copy, since the caller's array may change.
+            int[] copy = ds.clone();
+            ret = dashStructures.putIfAbsent(new DashKey(copy), copy);
+            if (ret == null) {
+                ret = copy;
+            }
+        }
+        return ret;
+    }
+}
+
+// EOF
@@ -0,0 +1,244 @@
+// ModelBenchmarks.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.nio.ByteBuffer;
+
+import java.util.ArrayList;
+
+import util.Benchmark;
+
+/** Benchmarks for the Diagram model and its serialization paths.
+  *
+  * Usage:
+  *
+  *   java -cp bin ded.model.ModelBenchmarks [options] [files...]
+  *
+  * Each file (.ded or .er) is loaded and every applicable operation
+  * is measured on it.  Options:
+  *
+  *   -size N        Also measure a synthetic diagram with N entities,
+  *                  made by DiagramGenerator.scaled.  May be repeated.
+  *   -warmup N      Warmup iterations per benchmark.
+  *   -iterations N  Measurement iterations per benchmark.
+  *   -time MS       Duration of each iteration.
+  *
+  * With no files and no -size options, synthetic diagrams of a few
+  * sizes are measured. */
+public class ModelBenchmarks {
+    /** Default synthetic diagram sizes. */
+    private static final int[] defaultSizes = { 10, 100, 1000 };
+
+    public static void main(String args[]) throws Exception
+    {
+        Benchmark.Config config = new Benchmark.Config();
+        ArrayList<Integer> sizes = new ArrayList<Integer>();
+        ArrayList<String> files = new ArrayList<String>();
+
+        for (int i=0; i < args.length; ) {
+            int next = config.parseOption(args, i);
+            if (next != i) {
+                i = next;
+            }
+            else if (args[i].equals("-size") && i+1 < args.length) {
+                sizes.add(Integer.parseInt(args[i+1]));
+                i += 2;
+            }
+            else if (args[i].startsWith("-")) {
+                System.err.println("unknown option: "+args[i]);
+                System.exit(2);
+            }
+            else {
+                files.add(args[i]);
+                i++;
+            }
+        }
+
+        if (sizes.isEmpty() && files.isEmpty()) {
+            for (int n : defaultSizes) {
+                sizes.add(n);
+            }
+        }
+
+        ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (String fname : files) {
+            Diagram d = Diagram.readFromFileAutodetect(fname);
+            String label = new File(fname).getName();
+            addDiagramBenchmarks(benchmarks, label, d);
+            if (fname.endsWith(".er")) {
+                benchmarks.add(makeERBenchmark(label, fname));
+            }
+        }
+        for (int n : sizes) {
+            addDiagramBenchmarks(benchmarks, "synthetic-"+n,
+                                 DiagramGenerator.scaled(n).generate());
+        }
+
+        Benchmark.runAll(benchmarks, config, System.out);
+    }
+
+    /** Add to 'benchmarks' all of the measurements that apply to
+      * any diagram.  'label' identifies 'd' in the report. */
+    private static void addDiagramBenchmarks(
+        ArrayList<Benchmark> benchmarks,
+        String label,
+        final Diagram d)
+        throws Exception
+    {
+        // A second, equal but distinct, diagram for 'equals'.
+        final Diagram copy = d.deepCopy();
+
+        // A filter that keeps every other entity, which is roughly
+        // what copying a selection to the clipboard does.
+        final Diagram.ElementFilter everyOther = new Diagram.ElementFilter() {
+            private int n = 0;
+
+            @Override
+            public boolean testEntity(Entity e)
+            {
+                return (this.n++ & 1) == 0;
+            }
+        };
+
+        benchmarks.add(new Benchmark(label+" toJSON") {
+            public Object run()
+            {
+                return d.toJSON();
+            }
+        });
+
+        benchmarks.add(new Benchmark(label+" toJSONString") {
+            public Object run()
+            {
+                return d.toJSONString();
+            }
+        });
+
+        benchmarks.add(new Benchmark(label+" saveToFile") {
+            private File tmp;
+
+            @Override
+            public void setup() throws Exception
+            {
+                this.tmp = File.createTempFile("ded-bench", ".ded");
+            }
+
+            public Object run() throws Exception
+            {
+                d.saveToFile(this.tmp.getPath());
+                return null;
+            }
+
+            @Override
+            public void teardown()
+            {
+                this.tmp.delete();
+            }
+        });
+
+        benchmarks.add(new Benchmark(label+" readFromFile") {
+            private File tmp;
+
+            @Override
+            public void setup() throws Exception
+            {
+                this.tmp = File.createTempFile("ded-bench", ".ded");
+                d.saveToFile(this.tmp.getPath());
+            }
+
+            public Object run() throws Exception
+            {
+                return Diagram.readFromFile(this.tmp.getPath());
+            }
+
+            @Override
+            public void teardown()
+            {
+                this.tmp.delete();
+            }
+        });
+
+        benchmarks.add(new Benchmark(label+" deepCopy") {
+            public Object run()
+            {
+                return d.deepCopy();
+            }
+        });
+
+        benchmarks.add(new Benchmark(label+" filterCopy") {
+            public Object run()
+            {
+                return new Diagram(d, everyOther);
+            }
+        });
+
+        benchmarks.add(new Benchmark(label+" selfCheck") {
+            public Object run()
+            {
+                d.selfCheck();
+                return null;
+            }
+        });
+
+        benchmarks.add(new Benchmark(label+" equals") {
+            public Object run()
+            {
+                return d.equals(copy)? d : null;
+            }
+        });
+
+        benchmarks.add(new Benchmark(label+" hashCode") {
+            public Object run()
+            {
+                Benchmark.sink += d.hashCode();
+                return null;
+            }
+        });
+    }
+
+    /** Make a benchmark of 'readFromERBuffer' on the contents of
+      * 'fname', which is read into memory first so the measurement
+      * excludes the file system. */
+    private static Benchmark makeERBenchmark(String label, final String fname)
+        throws IOException
+    {
+        final byte[] contents = readFileBytes(fname);
+        return new Benchmark(label+" readFromERBuffer") {
+            public Object run() throws Exception
+            {
+                return Diagram.readFromERBuffer(ByteBuffer.wrap(contents));
+            }
+        };
+    }
+
+    /** Read all of 'fname' into a byte array. */
+    private static byte[] readFileBytes(String fname)
+        throws IOException
+    {
+        File f = new File(fname);
+        byte[] ret = new byte[(int)f.length()];
+        InputStream is = new FileInputStream(f);
+        try {
+            int len = 0;
+            while (len < ret.length) {
+                int n = is.read(ret, len, ret.length - len);
+                if (n < 0) {
+                    throw new IOException("unexpected EOF reading "+fname);
+                }
+                len += n;
+            }
+        }
+        finally {
+            is.close();
+        }
+        return ret;
+    }
+}
+
+// EOF
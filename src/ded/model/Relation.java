@@ -3,9 +3,10 @@
 
 package ded.model;
 
-import java.awt.Point;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 
 import org.json.JSONArray;
@@ -16,6 +17,7 @@ import util.FlattenInputStream;
 import util.Util;
 import util.XParse;
 import util.awt.AWTJSONUtil;
+import util.awt.IntPointList;
 
 /** Arrow, sometimes between Entities (boxes). */
 public class Relation {
@@ -35,7 +37,7 @@ public class Relation {
     public RelationEndpoint start, end;
 
     /** Intermediate control points, if any. */
-    public ArrayList<Point> controlPts = new ArrayList<Point>();
+    public IntPointList controlPts = new IntPointList();
 
     /** Routing algorithm for displaying relation onscreen. */
     public RoutingAlgorithm routingAlg = defaultRoutingAlgorithm;
@@ -59,8 +61,11 @@ public class Relation {
       * segments, starting with an opaque segment.  All elements must
       * be non-negative, and at least one must be positive.  Once
       * the sequence is exhausted, it repeats, starting again with
-      * an opaque segment. */
-    public ArrayList<Integer> dashStructure = new ArrayList<Integer>();
+      * an opaque segment.
+      *
+      * The array is shared among relations and must not be modified;
+      * assign an array obtained from Interner.internDashStructure. */
+    public int[] dashStructure = Interner.solidDashStructure;
 
     // -------------------- methods ----------------------
     public Relation(RelationEndpoint start, RelationEndpoint end)
@@ -75,16 +80,13 @@ public class Relation {
         this.start = start;
         this.end = end;
 
-        for (Point pt : obj.controlPts) {
-            this.controlPts.add(new Point(pt));
-        }
-
+        this.controlPts = new IntPointList(obj.controlPts);
         this.routingAlg = obj.routingAlg;
         this.label = obj.label;
         this.lineWidth = obj.lineWidth;
         this.lineColor = obj.lineColor;
         this.textColor = obj.textColor;
-        this.dashStructure = new ArrayList<Integer>(obj.dashStructure);
+        this.dashStructure = obj.dashStructure;
     }
 
     /** True if either endpoint is referentially equal to 'e'. */
@@ -118,12 +120,20 @@ public class Relation {
 
     public void globalSelfCheck(Diagram d)
     {
-        this.start.globalSelfCheck(d);
-        this.end.globalSelfCheck(d);
+        this.globalSelfCheck(d.entities, d.inheritances);
+    }
+
+    /** Check that the endpoints refer to members of 'entities' and
+      * 'inheritances', which may be sets for speed. */
+    public void globalSelfCheck(Collection<Entity> entities,
+                                Collection<Inheritance> inheritances)
+    {
+        this.start.globalSelfCheck(entities, inheritances);
+        this.end.globalSelfCheck(entities, inheritances);
 
-        if (!this.dashStructure.isEmpty()) {
+        if (this.dashStructure.length > 0) {
             int numPositive = 0;
-            for (Integer i : this.dashStructure) {
+            for (int i : this.dashStructure) {
                 assert(i >= 0);
                 if (i > 0) {
                     numPositive++;
@@ -150,7 +160,7 @@ public class Relation {
                    Util.nullableEquals(this.lineWidth, r.lineWidth) &&
                    this.lineColor.equals(r.lineColor) &&
                    this.textColor.equals(r.textColor) &&
-                   this.dashStructure.equals(r.dashStructure);
+                   Arrays.equals(this.dashStructure, r.dashStructure);
         }
         return false;
     }
@@ -161,13 +171,13 @@ public class Relation {
         int h = 1;
         h = h*31 + this.start.hashCode();
         h = h*31 + this.end.hashCode();
-        h = h*31 + Util.collectionHashCode(this.controlPts);
+        h = h*31 + this.controlPts.hashCode();
         h = h*31 + this.routingAlg.hashCode();
         h = h*31 + this.label.hashCode();
         h = h*31 + Util.nullableHashCode(this.lineWidth);
         h = h*31 + this.lineColor.hashCode();
         h = h*31 + this.textColor.hashCode();
-        h = h*31 + Util.collectionHashCode(this.dashStructure);
+        h = h*31 + Arrays.hashCode(this.dashStructure);
         return h;
     }
 
@@ -184,8 +194,8 @@ public class Relation {
 
             if (!this.controlPts.isEmpty()) {
                 JSONArray pts = new JSONArray();
-                for (Point p : this.controlPts) {
-                    pts.put(AWTJSONUtil.pointToJSON(p));
+                for (int i=0; i < this.controlPts.size(); i++) {
+                    pts.put(AWTJSONUtil.pointToJSON(this.controlPts.get(i)));
                 }
                 o.put("controlPts", pts);
             }
@@ -206,9 +216,9 @@ public class Relation {
                 o.put("lineColor", this.lineColor);
             }
 
-            if (!this.dashStructure.isEmpty()) {
+            if (this.dashStructure.length > 0) {
                 JSONArray lengths = new JSONArray();
-                for (Integer i : this.dashStructure) {
+                for (int i : this.dashStructure) {
                     lengths.put(i);
                 }
                 o.put("dashStructure", lengths);
@@ -258,18 +268,20 @@ public class Relation {
         }
 
         if (o.has("lineColor")) {
-            this.lineColor = o.getString("lineColor");
+            this.lineColor = Interner.intern(o.getString("lineColor"));
         }
 
         if (o.has("dashStructure")) {
             JSONArray lengths = o.getJSONArray("dashStructure");
-            for (int i=0; i < lengths.length(); i++) {
-                this.dashStructure.add(lengths.getInt(i));
+            int[] ds = new int[lengths.length()];
+            for (int i=0; i < ds.length; i++) {
+                ds[i] = lengths.getInt(i);
             }
+            this.dashStructure = Interner.internDashStructure(ds);
         }
 
         if (o.has("textColor")) {
-            this.textColor = o.getString("textColor");
+            this.textColor = Interner.intern(o.getString("textColor"));
         }
     }
 
@@ -6,6 +6,7 @@ package ded.model;
 import java.awt.Point;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 
 import org.json.JSONException;
@@ -131,6 +132,14 @@ public class RelationEndpoint {
     }
 
     public void globalSelfCheck(Diagram d)
+    {
+        this.globalSelfCheck(d.entities, d.inheritances);
+    }
+
+    /** Check that this refers to a member of 'entities' or
+      * 'inheritances', which may be sets for speed. */
+    public void globalSelfCheck(Collection<Entity> entities,
+                                Collection<Inheritance> inheritances)
     {
         assert((this.entity==null?0:1) +
                (this.inheritance==null?0:1) +
@@ -138,10 +147,10 @@ public class RelationEndpoint {
                    == 1);
 
         if (this.isEntity()) {
-            assert(d.entities.contains(this.entity));
+            assert(entities.contains(this.entity));
         }
         if (this.isInheritance()) {
-            assert(d.inheritances.contains(this.inheritance));
+            assert(inheritances.contains(this.inheritance));
         }
     }
 
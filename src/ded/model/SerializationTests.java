@@ -6,6 +6,13 @@ package ded.model;
 import java.awt.Dimension;
 import java.awt.Point;
 
+import java.io.File;
+import java.io.FileOutputStream;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
@@ -19,6 +26,8 @@ public class SerializationTests {
         // Run unit tests when run w/o arguments.
         if (args.length == 0) {
             t.test1();
+            t.testGenerated();
+            t.testEditJournal();
         }
 
         // Parse inputs specified on command line.
@@ -102,12 +111,119 @@ public class SerializationTests {
         assert(ser3.equals(serialized));
     }
 
+    /** Round-trip some synthetic diagrams. */
+    public void testGenerated() throws Exception
+    {
+        for (int n : new int[] { 0, 1, 13, 200 }) {
+            for (long seed = 1; seed <= 3; seed++) {
+                DiagramGenerator g = DiagramGenerator.scaled(n);
+                g.seed = seed;
+                Diagram d = g.generate();
+
+                // The same settings must produce the same diagram.
+                assert(d.equals(g.generate()));
+
+                testRoundTrip(d);
+            }
+        }
+    }
+
+    /** Record some edits in a journal and check that replaying it
+      * reproduces them. */
+    public void testEditJournal() throws Exception
+    {
+        File dir = File.createTempFile("ded-journal-test", "");
+        dir.delete();
+        dir.mkdir();
+        String fname = new File(dir, "j.ded").getPath();
+        try {
+            Diagram d = DiagramGenerator.scaled(50).generate();
+            d.saveToFile(fname);
+            EditJournal journal = new EditJournal(fname, d);
+
+            // Move an entity.
+            d = d.deepCopy();
+            d.entities.get(3).loc.translate(10, 20);
+            journal.record("move", d);
+
+            // Delete a relation, which shifts the ones after it.
+            d = d.deepCopy();
+            d.relations.remove(0);
+            journal.record("delete", d);
+
+            // Change a top-level attribute and add an entity.
+            d = d.deepCopy();
+            d.backgroundColor = "Black";
+            Entity e = new Entity();
+            e.name = "added";
+            d.entities.add(e);
+            journal.record("add", d);
+            journal.close();
+
+            EditJournal.Replay replay = EditJournal.replay(fname, Diagram.readFromFile(fname));
+            assert(replay.commands.size() == 3);
+            assert(replay.commands.get(2).equals("add"));
+            assert(replay.diagram.equals(d));
+
+            // A partial record at the end, as left by a crash, is ignored.
+            FileOutputStream fos =
+                new FileOutputStream(EditJournal.journalFileName(fname), true /*append*/);
+            fos.write("{\"command\":\"trunc".getBytes("UTF-8"));
+            fos.close();
+            replay = EditJournal.replay(fname, Diagram.readFromFile(fname));
+            assert(replay.commands.size() == 3);
+            assert(replay.diagram.equals(d));
+
+            // While another editor has the journal locked, it is
+            // neither deleted nor written over.
+            assert(!EditJournal.isInUse(fname));
+            FileChannel ch = FileChannel.open(
+                Paths.get(EditJournal.journalFileName(fname)), StandardOpenOption.WRITE);
+            try {
+                ch.lock();
+                assert(EditJournal.isInUse(fname));
+                assert(!EditJournal.delete(fname));
+                EditJournal other = new EditJournal(fname, d);
+                other.record("other", d);
+                other.discard();
+                assert(other.getError() != null);
+            }
+            finally {
+                ch.close();
+            }
+            replay = EditJournal.replay(fname, Diagram.readFromFile(fname));
+            assert(replay.commands.size() == 3);
+
+            // The journal does not apply once the file changes.
+            new File(fname).setLastModified(new File(fname).lastModified() - 10000);
+            boolean threw = false;
+            try {
+                EditJournal.replay(fname, Diagram.readFromFile(fname));
+            }
+            catch (Exception ex) {
+                threw = true;
+            }
+            assert(threw);
+        }
+        finally {
+            EditJournal.delete(fname);
+            new File(fname).delete();
+            dir.delete();
+        }
+    }
+
     private static void testParseFile(String fname) throws Exception
     {
         System.out.println("testing: "+fname);
 
         // Parse the file, checking that we can.
         Diagram d = Diagram.readFromFileAutodetect(fname);
+        testRoundTrip(d);
+    }
+
+    /** Check that 'd' survives serialization and copying intact. */
+    private static void testRoundTrip(Diagram d) throws Exception
+    {
         d.selfCheck();
 
         // Put it through a serialization cycle.
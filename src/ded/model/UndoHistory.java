@@ -10,23 +10,24 @@ import util.StringUtil;
 /** Maintain a history of diagram changes to support undo and redo. */
 public class UndoHistory {
     // ---- types ----
-    /** One diagram state, with links to history and (redo) future. */
-    private static class HistoryEntry {
+    /** One diagram state, with links to history and (redo) future.
+      * Outside this class, it only serves to identify a state. */
+    public static class HistoryEntry {
         // ---- data ----
         /** The state of the diagram at this point in the history.
           * Each Diagram is a deep copy; there is no sharing among
           * entries or with the Diagram being actively edited. */
-        public Diagram diagram;
+        private Diagram diagram;
 
         /** The state from which a user issued a top-level command
           * to obtain this state.  It may be null, meaning we do not
           * know what came before (because the editor was just started,
           * or we chose to truncate the history for space reasons). */
-        public HistoryEntry parent;
+        private HistoryEntry parent;
 
         /** Localized command string describing how 'diagram' was
           * obtained from 'parent'. */
-        public String commandDescription;
+        private String commandDescription;
 
         /** Redo futures, in the order they were created or resumed.  It might
           * be empty if this is the last entry.  Otherwise, the first
@@ -36,17 +37,89 @@ public class UndoHistory {
           * the user then reverts and resumes an older future, that
           * older future is moved to the end, with other futures
           * sliding back one spot to maintain contiguity. */
-        public ArrayList<HistoryEntry> futures = new ArrayList<HistoryEntry>();
+        private ArrayList<HistoryEntry> futures = new ArrayList<HistoryEntry>();
+
+        // The remaining fields summarize 'diagram' and are computed
+        // once, when the entry is made, so that describing the history
+        // does not need to look inside every diagram again.
+
+        /** Number of entities, inheritances and relations in 'diagram'. */
+        private int numEntities, numInheritances, numRelations;
+
+        /** True if 'diagram' has a different 'windowSize' than the
+          * diagram of the entry's original parent. */
+        private boolean resized;
+
+        /** Rough number of bytes of heap used by 'diagram'.  See
+          * 'estimateBytes'. */
+        private long estimatedBytes;
 
         // ---- methods ----
-        public HistoryEntry(Diagram d, HistoryEntry p, String c)
+        private HistoryEntry(Diagram d, HistoryEntry p, String c)
         {
             this.diagram = d;
             this.parent = p;
             this.commandDescription = c;
+
+            this.numEntities = d.entities.size();
+            this.numInheritances = d.inheritances.size();
+            this.numRelations = d.relations.size();
+            this.resized = (p != null && !d.windowSize.equals(p.diagram.windowSize));
+            this.estimatedBytes = estimateBytes(d);
+        }
+
+        /** Return the number of states this entry contributes to the
+          * branch count: one for each future beyond the first. */
+        private int numAlternates()
+        {
+            return Math.max(0, this.futures.size() - 1);
         }
     }
 
+    /** One line of the printed form of the history; see
+      * 'getHistoryRows'. */
+    public static class HistoryRow {
+        /** Nesting depth, which increases inside alternate futures. */
+        public int indent;
+
+        /** The state this row describes, or null if the row introduces
+          * an alternate future. */
+        public HistoryEntry entry;
+
+        /** Description of 'entry' or of the alternate future, not
+          * including indentation or the current state marker. */
+        public String text;
+
+        public HistoryRow(int indent, HistoryEntry entry, String text)
+        {
+            this.indent = indent;
+            this.entry = entry;
+            this.text = text;
+        }
+    }
+
+    /** Receives notice of changes to the history, so a display of it
+      * can be updated without reprinting the whole thing.  Each method
+      * is called after the change is made. */
+    public static interface Listener {
+        /** 'entry' was created by 'recordDiagramChange' and is now the
+          * current state.  Its parent was the previous current state,
+          * and had no other futures, so in the printed history, 'entry'
+          * is a new last row, at the same indentation as its parent. */
+        public void entryAdded(HistoryEntry entry);
+
+        /** The current state changed from 'from' to 'to', by undo or
+          * redo, without any change to the printed rows. */
+        public void currentChanged(HistoryEntry from, HistoryEntry to);
+
+        /** The history before 'newRoot' was discarded to respect the
+          * size limit, which removes the rows before it. */
+        public void entriesDiscarded(HistoryEntry newRoot);
+
+        /** Any other change.  The whole history should be reread. */
+        public void historyRestructured();
+    }
+
     // ---- data ----
     /** When true, print diagnostics to stdout. */
     private static final boolean debug = false;
@@ -58,6 +131,25 @@ public class UndoHistory {
     /** Interface to get the history size limit. */
     private UndoHistoryLimit undoHistoryLimit;
 
+    /** Object to notify of changes, or null. */
+    private Listener listener = null;
+
+    // The following totals are maintained as the history changes so
+    // they can be read in constant time.
+
+    /** Number of entries in the history. */
+    private int numEntries;
+
+    /** Number of times 'undo' could be called in a row. */
+    private int undoDepth = 0;
+
+    /** Number of alternate futures, i.e., futures that are not the
+      * first of their parent. */
+    private int numBranches = 0;
+
+    /** Sum of 'estimatedBytes' over all entries. */
+    private long estimatedBytes;
+
     // ---- methods ----
     /** Initialize a new undo history.  This will make its own deep
       * copy of 'initDiagram'. */
@@ -65,6 +157,8 @@ public class UndoHistory {
     {
         this.current = new HistoryEntry(initDiagram.deepCopy(), null, initCommandDesc);
         this.undoHistoryLimit = uhl;
+        this.numEntries = 1;
+        this.estimatedBytes = this.current.estimatedBytes;
 
         if (debug) {
             System.out.println("constructor: "+initCommandDesc);
@@ -72,28 +166,60 @@ public class UndoHistory {
         }
     }
 
+    /** Set the object to notify of changes.  It can be null. */
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
     /** Record a change to the diagram (*not* made via undo or redo).
       * This method makes a deep copy of 'newDiagram'. */
     public void recordDiagramChange(Diagram newDiagram, String commandDesc)
     {
         HistoryEntry newEntry =
             new HistoryEntry(newDiagram.deepCopy(), this.current, commandDesc);
+
+        // If there were already futures, the one that had been printed
+        // as the main line becomes an alternate, indented further.
+        boolean restructured = !this.current.futures.isEmpty();
+        if (restructured) {
+            this.numBranches++;
+        }
+
         this.current.futures.add(newEntry);
         this.current = newEntry;
+        this.numEntries++;
+        this.undoDepth++;
+        this.estimatedBytes += newEntry.estimatedBytes;
+        if (this.listener != null) {
+            if (restructured) {
+                this.listener.historyRestructured();
+            }
+            else {
+                this.listener.entryAdded(newEntry);
+            }
+        }
 
         // Apply the history limit, which restricts the number of states
         // on the path from current to oldest ancestor.
         int limit = this.undoHistoryLimit.getUndoHistoryLimit();
         if (limit > 0) {
             HistoryEntry ancestor = newEntry;
+            int depth = 0;
             limit--;     // Count the current state against the limit.
             while (limit > 0 && ancestor != null) {
                 ancestor = ancestor.parent;
+                depth++;
                 limit--;
             }
-            if (ancestor != null) {
+            if (ancestor != null && ancestor.parent != null) {
                 // We hit the limit.  Discard any history before 'ancestor'.
+                this.forgetAncestors(ancestor);
                 ancestor.parent = null;
+                this.undoDepth = depth;
+                if (this.listener != null) {
+                    this.listener.entriesDiscarded(ancestor);
+                }
             }
         }
 
@@ -152,7 +278,12 @@ public class UndoHistory {
     {
         assert(this.canUndo());
         Diagram ret = this.current.parent.diagram.deepCopy();
+        HistoryEntry prev = this.current;
         this.current = this.current.parent;
+        this.undoDepth--;
+        if (this.listener != null) {
+            this.listener.currentChanged(prev, this.current);
+        }
 
         if (debug) {
             System.out.println("UNDO");
@@ -171,14 +302,26 @@ public class UndoHistory {
         HistoryEntry resumed = this.current.futures.get(which);
         assert(resumed.parent == this.current);
 
+        HistoryEntry prev = this.current;
+        boolean restructured = false;
         if (which != this.numRedos()-1) {
             // We are resuming a future that is not the most recent.
             // Move it to the end.
             this.current.futures.remove(which);
             this.current.futures.add(resumed);
+            restructured = true;
         }
 
         this.current = resumed;
+        this.undoDepth++;
+        if (this.listener != null) {
+            if (restructured) {
+                this.listener.historyRestructured();
+            }
+            else {
+                this.listener.currentChanged(prev, this.current);
+            }
+        }
 
         if (debug) {
             System.out.println("REDO");
@@ -194,11 +337,128 @@ public class UndoHistory {
         return redo(this.current.futures.size()-1);
     }
 
+    /** Subtract from the totals everything that will be discarded
+      * when 'newRoot' becomes the root: its ancestors, and their
+      * futures other than the path to 'newRoot'.  This visits each
+      * discarded entry once, so its cost is proportional to the
+      * number of entries that were added to cause it. */
+    private void forgetAncestors(HistoryEntry newRoot)
+    {
+        ArrayList<HistoryEntry> toForget = new ArrayList<HistoryEntry>();
+        HistoryEntry kept = newRoot;
+        for (HistoryEntry a = newRoot.parent; a != null; kept = a, a = a.parent) {
+            this.forgetEntry(a);
+            for (HistoryEntry f : a.futures) {
+                if (f != kept) {
+                    toForget.add(f);
+                }
+            }
+        }
+
+        // Use an explicit stack rather than recursion, since futures
+        // can be long chains.
+        while (!toForget.isEmpty()) {
+            HistoryEntry e = toForget.remove(toForget.size()-1);
+            this.forgetEntry(e);
+            toForget.addAll(e.futures);
+        }
+    }
+
+    /** Subtract 'e' from the totals. */
+    private void forgetEntry(HistoryEntry e)
+    {
+        this.numEntries--;
+        this.numBranches -= e.numAlternates();
+        this.estimatedBytes -= e.estimatedBytes;
+    }
+
+    /** Return the number of states in the history. */
+    public int getNumEntries()
+    {
+        return this.numEntries;
+    }
+
+    /** Return the number of states before the current one, which is
+      * how many times 'undo' can be called in a row. */
+    public int getUndoDepth()
+    {
+        return this.undoDepth;
+    }
+
+    /** Return the number of alternate futures: each time a command is
+      * issued from a state that already had a future, this grows. */
+    public int getNumBranches()
+    {
+        return this.numBranches;
+    }
+
+    /** Return the approximate number of bytes of heap used by the
+      * diagrams stored in the history. */
+    public long getEstimatedBytes()
+    {
+        return this.estimatedBytes;
+    }
+
+    /** Return a one-line summary of the size of the history. */
+    public String describeSize()
+    {
+        return this.numEntries+" states, undo depth "+this.undoDepth+
+               ", "+this.numBranches+" branches, about "+
+               ((this.estimatedBytes + 1023) / 1024)+" KB";
+    }
+
+    /** Return a rough estimate of the bytes of heap used by 'd', not
+      * counting strings, which deep copies share.  The sizes are those
+      * of the objects each element is made of, on a 64-bit JVM with
+      * compressed pointers. */
+    private static long estimateBytes(Diagram d)
+    {
+        // Diagram object, its Dimension, and its three lists.
+        long ret = 200;
+
+        // Entity object, Point, Dimension and EnumSet, plus the list slot.
+        ret += 160L * d.entities.size();
+
+        // Inheritance object and Point, plus the list slot.
+        ret += 56L * d.inheritances.size();
+
+        // Relation object, two endpoints and their Points, and the
+        // control point list with 8 bytes per point, plus the list slot.
+        for (Relation r : d.relations) {
+            ret += 200 + 8L * r.controlPts.size();
+        }
+
+        return ret;
+    }
+
+    /** Return the state that is current. */
+    public HistoryEntry getCurrentEntry()
+    {
+        return this.current;
+    }
+
     /** Return a debug string that describes the currently stored history. */
     public String dumpHistoryStructure()
     {
+        ArrayList<HistoryRow> rows = this.getHistoryRows();
+        if (rows == null) {
+            return "History parent chain has a cycle!";
+        }
+
         StringBuilder sb = new StringBuilder();
+        for (HistoryRow row : rows) {
+            sb.append(StringUtil.indent(row.indent));
+            sb.append(this.getRowPrefix(row));
+            sb.append(row.text);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
 
+    /** Return the rows of the printed form of the history, oldest
+      * first.  Return null if the history is corrupt. */
+    public ArrayList<HistoryRow> getHistoryRows()
+    {
         // First, find the root of the history.
         HistoryEntry root = this.current;
         {
@@ -213,33 +473,38 @@ public class UndoHistory {
                     root = root.parent;
                     if (root == slower) {
                         assert(false);
-                        return "History parent chain has a cycle!";
+                        return null;
                     }
                 }
             }
         }
 
-        // Now walk the history forward, printing it to 'sb'.
-        this.printHistory(sb, 0 /*indent*/, root);
-
-        return sb.toString();
+        // Now walk the history forward, collecting rows.
+        ArrayList<HistoryRow> rows = new ArrayList<HistoryRow>();
+        this.addHistoryRows(rows, 0 /*indent*/, root);
+        return rows;
     }
 
-    /** Print the history starting from 'entry'. */
-    private void printHistory(StringBuilder sb, int indent, HistoryEntry entry)
+    /** Return the marker to print before 'row', after its indentation. */
+    public String getRowPrefix(HistoryRow row)
     {
-        // First print 'entry' itself.
-        sb.append(StringUtil.indent(indent));
-        if (entry == this.current) {
-            sb.append("* ");
+        if (row.entry == null) {
+            return "";
+        }
+        else if (row.entry == this.current) {
+            return "* ";
         }
         else {
-            sb.append("- ");
+            return "- ";
         }
+    }
+
+    /** Return the text of the row describing 'entry'. */
+    public static String describeEntry(HistoryEntry entry)
+    {
+        StringBuilder sb = new StringBuilder();
         sb.append(entry.commandDescription);
-        if (entry.parent != null &&
-            !entry.diagram.windowSize.equals(entry.parent.diagram.windowSize))
-        {
+        if (entry.resized) {
             // Changes in diagram size are not recorded as separate
             // actions due to technical limitations in the editor's
             // ability to track a complete resize action (as opposed
@@ -250,29 +515,40 @@ public class UndoHistory {
             int h = entry.diagram.windowSize.height;
             sb.append(" and resize to ("+w+","+h+")");
         }
-        sb.append(": (e="+entry.diagram.entities.size()+
-                  ", i="+entry.diagram.inheritances.size()+
-                  ", r="+entry.diagram.relations.size()+")\n");
+        sb.append(": (e="+entry.numEntities+
+                  ", i="+entry.numInheritances+
+                  ", r="+entry.numRelations+")");
+        return sb.toString();
+    }
 
-        // Stop if there are no futures beyond this.
-        if (entry.futures.isEmpty()) {
-            return;
-        }
+    /** Add the rows for the history starting from 'entry'. */
+    private void addHistoryRows(ArrayList<HistoryRow> rows, int indent, HistoryEntry entry)
+    {
+        // The main line of futures is followed with a loop rather than
+        // recursion, since it can be very long when there is no limit.
+        while (true) {
+            // First add 'entry' itself.
+            rows.add(new HistoryRow(indent, entry, describeEntry(entry)));
+
+            // Stop if there are no futures beyond this.
+            if (entry.futures.isEmpty()) {
+                return;
+            }
 
-        // If there are multiple futures, print the ones that are not
-        // the most recently resumed first.
-        for (int i=0; i < entry.futures.size()-1; i++) {
-            sb.append(StringUtil.indent(indent+1));
-            sb.append("> alternate future "+(i+1)+":\n");
-            this.printHistory(sb, indent+2, entry.futures.get(i));
-        }
+            // If there are multiple futures, add the ones that are not
+            // the most recently resumed first.
+            for (int i=0; i < entry.futures.size()-1; i++) {
+                rows.add(new HistoryRow(indent+1, null, "> alternate future "+(i+1)+":"));
+                this.addHistoryRows(rows, indent+2, entry.futures.get(i));
+            }
 
-        // Then print the main future last, at the same indentation as
-        // its parent.
-        //
-        // Note: Although I have cycle detection for going back in
-        // history, there is currently no cycle detection going forward.
-        this.printHistory(sb, indent, entry.futures.get(entry.futures.size()-1));
+            // Then add the main future last, at the same indentation as
+            // its parent.
+            //
+            // Note: Although I have cycle detection for going back in
+            // history, there is currently no cycle detection going forward.
+            entry = entry.futures.get(entry.futures.size()-1);
+        }
     }
 }
 
@@ -61,10 +61,21 @@ public abstract class Controller {
     }
 
     /** Draw a representation of the controller and the thing it is
-      * controlling. */
-    public void paint(Graphics g)
+      * controlling, as 'rc' specifies.  This must not change any state,
+      * since it may be used to render an image while the user edits. */
+    public void paint(Graphics g, RenderContext rc)
     {}
 
+    /** Return a rectangle containing everything 'paint' and
+      * 'paintSelectionBackground' draw, or null if that is not known,
+      * in which case the controller is always painted.  This lets
+      * the diagram skip controllers outside the region being painted,
+      * so it should be much cheaper than painting. */
+    public Rectangle getPaintBounds()
+    {
+        return null;
+    }
+
     /** Paint 'getBounds' with a solid color. */
     protected void paintBounds(Graphics g0, Color c)
     {
@@ -89,10 +100,11 @@ public abstract class Controller {
         return this.selState != SelectionState.SS_UNSELECTED;
     }
 
-    /** Set 'selState'. */
+    /** Set 'selState', and tell the diagram controller. */
     public void setSelected(SelectionState ss)
     {
         this.selState = ss;
+        this.diagramController.selectionChanged(this);
     }
 
     /** Return a set of polygons describing this controller's click boundary. */
@@ -179,7 +191,10 @@ public abstract class Controller {
 
         this.addToRightClickMenu(menu, ev);
 
-        menu.show(this.diagramController, ev.getPoint().x, ev.getPoint().y);
+        // The event is in diagram coordinates, but the menu
+        // location is relative to the component.
+        Point menuLoc = this.diagramController.diagramToView(ev.getPoint());
+        menu.show(this.diagramController, menuLoc.x, menuLoc.y);
     }
 
     /** Add more items to the right click menu if desired.  'ev' is the
@@ -226,6 +241,16 @@ public abstract class Controller {
     public void dragTo(Point p)
     {}
 
+    /** Move the 'getLoc()' point by ('dx','dy').  This is how a
+      * selection is dragged, once per mouse step for every selected
+      * controller, so controllers that can should override it to move
+      * their geometry in place.  The default calls 'dragTo'. */
+    public void dragBy(int dx, int dy)
+    {
+        Point p = this.getLoc();
+        this.dragTo(new Point(p.x + dx, p.y + dy));
+    }
+
     /** Edit the attributes of the controlled element using a dialog box,
       * or show an error dialog if that is not possible. */
     public void edit()
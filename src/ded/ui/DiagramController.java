@@ -7,18 +7,20 @@ import java.awt.AWTEvent;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Cursor;
+import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GraphicsConfiguration;
 import java.awt.GraphicsDevice;
 import java.awt.GraphicsEnvironment;
 import java.awt.Image;
 import java.awt.KeyboardFocusManager;
 import java.awt.Point;
+import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.DataFlavor;
-import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
 import java.awt.event.ActionEvent;
 import java.awt.event.ComponentEvent;
@@ -30,16 +32,25 @@ import java.awt.event.KeyListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 
 import java.lang.reflect.Field;
 
+import java.nio.charset.StandardCharsets;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -47,7 +58,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.imageio.ImageIO;
 import javax.swing.AbstractAction;
@@ -55,7 +68,12 @@ import javax.swing.JFileChooser;
 import javax.swing.JMenu;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JViewport;
+import javax.swing.Scrollable;
+import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import org.json.JSONException;
@@ -63,16 +81,23 @@ import org.json.JSONException;
 import util.IdentityHashSet;
 import util.ImageFileUtil;
 import util.Util;
+import util.awt.BandedImage;
 import util.awt.BitmapFont;
 import util.awt.GeomUtil;
+import util.awt.Mipmap;
+import util.awt.ResourceImageCache;
 import util.swing.SwingUtil;
 
 import ded.Ded;
 import ded.model.ArrowStyle;
+import ded.model.Autosaver;
 import ded.model.Diagram;
+import ded.model.DiagramFile;
+import ded.model.EditJournal;
 import ded.model.Entity;
 import ded.model.EntityShape;
 import ded.model.Inheritance;
+import ded.model.Interner;
 import ded.model.Relation;
 import ded.model.RelationEndpoint;
 import ded.model.TextAlign;
@@ -84,8 +109,9 @@ import static util.StringUtil.localize;
 
 /** Widget to display and edit a diagram. */
 public class DiagramController extends JPanel
-    implements MouseListener, MouseMotionListener, KeyListener,
-               ComponentListener, FocusListener, UndoHistoryLimit
+    implements MouseListener, MouseMotionListener, MouseWheelListener,
+               KeyListener, ComponentListener, FocusListener,
+               Scrollable, UndoHistoryLimit
 {
     // ------------- constants ---------------
     private static final long serialVersionUID = 1266678840598864303L;
@@ -93,6 +119,10 @@ public class DiagramController extends JPanel
     /** Pixels from left/top edge to draw the file name label. */
     public static final int fileNameLabelMargin = 2;
 
+    /** Keyword of the PNG text chunk in which 'renderToPNGFile' records
+      * the 'getRenderHash' of what it rendered. */
+    public static final String renderHashKeyword = "DedRenderHash";
+
     private static final String helpMessage =
         "H or F1 - This message\n"+
         "Q - Quit\n"+
@@ -110,6 +140,9 @@ public class DiagramController extends JPanel
         "Ctrl+Left click - multiselect\n"+
         "Left click+drag - multiselect rectangle\n"+
         "Right click - action menu for selection(s)\n"+
+        "Mouse wheel - pan up/down; with Shift, left/right\n"+
+        "Middle click+drag - pan\n"+
+        "Ctrl+wheel, Ctrl+=, Ctrl+- - zoom in/out; Ctrl+0 - actual size\n"+
         "\n"+
         "When entity selected, F/B to move to front/back.\n"+
         "When relation selected, H/V/D to change routing,\n"+
@@ -134,6 +167,34 @@ public class DiagramController extends JPanel
     /** Granularity of drag/move snap action. */
     public static final int SNAP_DIST = 5;
 
+    /** Number of zoom levels per doubling of the magnification. */
+    public static final int zoomLevelsPerDoubling = 4;
+
+    /** Smallest zoom level, showing the diagram at 1/32 size. */
+    public static final int minZoomLevel = -5 * zoomLevelsPerDoubling;
+
+    /** Largest zoom level, showing the diagram at 8x size. */
+    public static final int maxZoomLevel = 3 * zoomLevelsPerDoubling;
+
+    /** When painting at a scale below this, controllers omit text and
+      * fine detail, which is both illegible and slow to draw there. */
+    public static final double lowDetailScale = 0.5;
+
+    /** Pixels to pan for each notch of the mouse wheel. */
+    public static final int wheelPanDistance = 40;
+
+    /** Exported images with more pixels than this are painted in bands
+      * on several threads as they are encoded, rather than all at once
+      * into one image.  See 'makeBandedExportImage'. */
+    public static long bandedExportThreshold = 16L << 20;
+
+    /** Approximate number of pixels in each band of such an export. */
+    public static int exportBandPixels = 4 << 20;
+
+    /** Contents of the build's version resource, or null if it has not
+      * been read yet.  See 'getBuildVersion'. */
+    private static String buildVersion = null;
+
     // ------------- private types ---------------
     /** Primary "mode" of the editing interface, indicating what happens
       * when the left mouse button is clicked or released. */
@@ -161,9 +222,21 @@ public class DiagramController extends JPanel
     }
 
     // ------------- instance data ---------------
-    /** Parent diagram editor window. */
+    /** Parent diagram editor window.  This is null when the
+      * controller is used headless, just to render diagrams. */
     private Ded dedWindow;
 
+    /** Font used for all text in the diagram area. */
+    private BitmapFont diagramFont;
+
+    /** Cache of images loaded from the application resources. */
+    private ResourceImageCache resourceImageCache;
+
+    /** Strokes used by controllers to paint lines.  Like the color
+      * cache in Diagram, this keeps paint from building new objects
+      * for every element on every frame. */
+    public StrokeCache strokeCache = new StrokeCache();
+
     /** The diagram we are editing. */
     public Diagram diagram;
 
@@ -173,6 +246,11 @@ public class DiagramController extends JPanel
       * really what I want. */
     private ArrayList<Controller> controllers;
 
+    /** The members of 'controllers' that are selected.  'Controller.setSelected'
+      * keeps this up to date through 'selectionChanged', so queries about
+      * the selection do not have to look at every controller. */
+    private IdentityHashSet<Controller> selection = new IdentityHashSet<Controller>();
+
     /** Current primary editing mode. */
     private Mode mode;
 
@@ -194,11 +272,48 @@ public class DiagramController extends JPanel
       * to the Controller's original getLoc(). */
     private Point dragOffset;
 
-    /** If CFM_DRAGGING, the localized command description of the effect
-      * of the drag if the mouse were to be released now.  This is
-      * initially null, meaning that no drag movement has occurred
-      * (for example, a simple click to select). */
-    private String dragCommandDescription;
+    /** If CFM_DRAGGING, true once the drag has moved something.  It
+      * stays false for a simple click to select. */
+    private boolean dragMoved;
+
+    /** If CFM_DRAGGING, where the dragged controller's 'getLoc()' was
+      * most recently moved to. */
+    private Point dragDest = new Point();
+
+    /** If CFM_DRAGGING and the dragged controller is selected, the
+      * selected controllers, which all move together.  The selection
+      * cannot change during a drag, so this is computed once.  When
+      * dragging a handle, this is null. */
+    private ArrayList<Controller> dragSelection;
+
+    /** If 'dragSelection' is not null, the controllers whose painted
+      * appearance can change as it moves: the selection itself, the
+      * relations and inheritances attached to it, and any handles.
+      * Each drag step repaints only the region they cover before and
+      * after the step.  Null if some of them do not know their paint
+      * bounds, in which case each step repaints everything. */
+    private ArrayList<Controller> dragDamageControllers;
+
+    /** Most recent mouse location during a drag, in diagram coordinates,
+      * that has not yet been applied by 'applyPendingDrag'.  Mouse
+      * events that arrive before it runs just update this, so a burst
+      * of them costs one model update and one repaint. */
+    private Point pendingDragPoint = new Point();
+
+    /** True if snapping applies to 'pendingDragPoint'. */
+    private boolean pendingDragSnap;
+
+    /** True if 'pendingDragPoint' was set by a mouse event of the
+      * current drag and has not been applied yet.  A click without
+      * motion never sets it, so it moves nothing. */
+    private boolean dragEventPending = false;
+
+    /** True if 'applyPendingDrag' has been scheduled and not yet run. */
+    private boolean dragUpdateScheduled = false;
+
+    /** Incremented by 'beginDragging', so an 'applyPendingDrag' that
+      * was scheduled during an earlier drag can tell it is stale. */
+    private int dragGeneration = 0;
 
     /** Most recently used file name, or "" if there is none. */
     private String fileName;
@@ -219,16 +334,59 @@ public class DiagramController extends JPanel
       * mapped to null, meaning we failed to load the image. */
     private HashMap<String, Image> imageCache;
 
+    /** Map from image file name to reduced-size copies of the image
+      * in 'imageCache', for drawing when zoomed out. */
+    private HashMap<String, Mipmap> mipmapCache = new HashMap<String, Mipmap>();
+
+    /** Current zoom level.  The diagram is shown magnified by a
+      * factor of 2^(zoomLevel/zoomLevelsPerDoubling). */
+    private int zoomLevel = 0;
+
+    /** The viewport we are displayed in, if any, once we have been
+      * added to it.  Without one, there is no scrolling, and the
+      * component is simply the size of the zoomed diagram. */
+    private JViewport viewport = null;
+
+    /** Size of 'viewport' the last time it was resized. */
+    private Dimension lastViewportSize = new Dimension(0, 0);
+
+    /** Image into which to render when 'tripleBufferMode' is not 0.
+      * It is reused across frames, and only reallocated when a paint
+      * needs a larger area or a different kind of image. */
+    private BufferedImage tripleBuffer = null;
+
+    /** While the middle button is held to pan, the last mouse
+      * location in screen coordinates, which unlike component
+      * coordinates do not move as we scroll; otherwise null. */
+    private Point panDragLast = null;
+
     /** Accumulated log messages. */
     private StringBuilder logMessages;
 
     /** Undo/redo history. */
     private UndoHistory undoHistory;
 
+    /** Journal of changes since the diagram was loaded from, or saved
+      * to, 'fileName', or null if there is no such file. */
+    private EditJournal editJournal = null;
+
+    /** Periodic saver of the diagram next to 'fileName', or null if
+      * there is no such file or autosave is disabled. */
+    private Autosaver autosaver = null;
+
+    /** Seconds of unsaved changes after which to autosave, from
+      * the DED_AUTOSAVE_SECONDS environment variable. */
+    private int autosaveSeconds = 60;
+
+    /** Number of commands after which to autosave, from the
+      * DED_AUTOSAVE_COMMANDS environment variable. */
+    private int autosaveCommands = 50;
+
     /** Maximum length of the undo history. */
     private int undoHistoryLimit = 100;
 
-    /** Window for directly displaying the undo history. */
+    /** Window for directly displaying the undo history.  Null when
+      * 'dedWindow' is. */
     private UndoHistoryWindow undoHistoryWindow;
 
     /** When not 0, we use a "triple buffer" render technique to
@@ -242,7 +400,8 @@ public class DiagramController extends JPanel
     private int tripleBufferMode = 0;
 
     /** When true, we render frames as fast as possible and measure
-      * the resulting frames per second. */
+      * the resulting frames per second.  For repeatable numbers, use
+      * RenderBenchmark instead, which does not need a display. */
     private boolean fpsMeasurementMode = false;
 
     /** Number of frames rendered since entering FPS mode. */
@@ -254,6 +413,12 @@ public class DiagramController extends JPanel
     /** Last FPS measurement. */
     private String fpsMeasurement = null;
 
+    /** Timing instrumentation. */
+    private PerfMonitor perfMonitor = new PerfMonitor();
+
+    /** Window showing 'perfMonitor' data, created on first use. */
+    private PerformanceWindow performanceWindow;
+
     /** Number of FPS samples reported.  This is useful because
       * the effects of the JIT mean the number naturally climbs
       * over time, so I need to know about how long I have been
@@ -263,10 +428,28 @@ public class DiagramController extends JPanel
 
     // ------------- public methods ---------------
     public DiagramController(Ded dedWindow)
+    {
+        this(dedWindow, dedWindow.diagramBitmapFont, dedWindow.resourceImageCache);
+    }
+
+    /** Make a controller that is not part of any window.  It can
+      * hold and render a diagram, but not interact with a user,
+      * which means it can be used when java.awt.headless is true. */
+    public DiagramController(BitmapFont diagramFont, ResourceImageCache resourceImageCache)
+    {
+        this(null, diagramFont, resourceImageCache);
+    }
+
+    private DiagramController(
+        Ded dedWindow,
+        BitmapFont diagramFont,
+        ResourceImageCache resourceImageCache)
     {
         this.setBackground(Color.WHITE);
 
         this.dedWindow = dedWindow;
+        this.diagramFont = diagramFont;
+        this.resourceImageCache = resourceImageCache;
         this.diagram = new Diagram();
         this.controllers = new ArrayList<Controller>();
         this.mode = Mode.DCM_SELECT;
@@ -281,24 +464,22 @@ public class DiagramController extends JPanel
 
         this.undoHistory = new UndoHistory(this.diagram,
             fmt("Created empty diagram"), this);
-        this.undoHistoryWindow = new UndoHistoryWindow(this);
-
-        String tbm = System.getenv("DED_TRIPLE_BUFFER");
-        if (tbm != null) {
-            try {
-                this.tripleBufferMode = Integer.valueOf(tbm);
-            }
-            catch (NumberFormatException e) {
-                this.log("invalid DED_TRIPLE_BUFFER value \""+tbm+
-                         "\": "+Util.getExceptionMessage(e));
-            }
+        if (this.dedWindow != null) {
+            this.undoHistoryWindow = new UndoHistoryWindow(this);
         }
-        this.log("DED_TRIPLE_BUFFER: "+this.tripleBufferMode);
+
+        this.tripleBufferMode = this.getIntEnvironmentVariable(
+            "DED_TRIPLE_BUFFER", this.tripleBufferMode);
+
+        this.autosaveSeconds = this.getIntEnvironmentVariable(
+            "DED_AUTOSAVE_SECONDS", this.autosaveSeconds);
+        this.autosaveCommands = this.getIntEnvironmentVariable(
+            "DED_AUTOSAVE_COMMANDS", this.autosaveCommands);
 
         this.addMouseListener(this);
         this.addMouseMotionListener(this);
+        this.addMouseWheelListener(this);
         this.addKeyListener(this);
-        this.addComponentListener(this);
         this.addFocusListener(this);
 
         this.setFocusable(true);
@@ -307,6 +488,25 @@ public class DiagramController extends JPanel
         this.setFocusTraversalKeysEnabled(false);
     }
 
+    /** Return the value of environment variable 'name' as an integer,
+      * or 'defaultValue' if it is unset or invalid, logging the result. */
+    private int getIntEnvironmentVariable(String name, int defaultValue)
+    {
+        int ret = defaultValue;
+        String value = System.getenv(name);
+        if (value != null) {
+            try {
+                ret = Integer.valueOf(value);
+            }
+            catch (NumberFormatException e) {
+                this.log("invalid "+name+" value \""+value+
+                         "\": "+Util.getExceptionMessage(e));
+            }
+        }
+        this.log(name+": "+ret);
+        return ret;
+    }
+
     public Diagram getDiagram()
     {
         return this.diagram;
@@ -315,11 +515,32 @@ public class DiagramController extends JPanel
     /** Font to use for all text in the diagram area. */
     public BitmapFont getDiagramFont()
     {
-        return this.dedWindow.diagramBitmapFont;
+        return this.diagramFont;
     }
 
     @Override
     public void paint(Graphics g)
+    {
+        PerfMonitor.PaintEvent ev = new PerfMonitor.PaintEvent();
+        ev.begin();
+        long start = System.nanoTime();
+
+        this.timedPaint(g);
+
+        ev.width = this.getWidth();
+        ev.height = this.getHeight();
+        ev.controllers = this.controllers.size();
+        ev.commit();
+        this.perfMonitor.recordSince(PerfMonitor.OP_PAINT, start);
+
+        if (this.fpsMeasurementMode) {
+            // Immediately trigger another paint cycle.
+            this.repaint();
+        }
+    }
+
+    /** Body of 'paint', minus the instrumentation. */
+    private void timedPaint(Graphics g)
     {
         // Swing JPanel is double buffered already, but that is not
         // sufficient to avoid rendering bugs on Apple computers
@@ -331,94 +552,120 @@ public class DiagramController extends JPanel
             // initial association with the display, whatever hacks Apple
             // has added should not kick in, and I get unscaled pixel
             // rendering.
-            BufferedImage bi;
-
-            if (this.tripleBufferMode == -1) {
-                // This is not right because we might be drawing on a
-                // different screen than the "default" screen.  Also, I
-                // am worried that a "compatible" image might be one
-                // subject to the scaling effects I'm trying to avoid.
-                GraphicsDevice gd =
-                    GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
-                GraphicsConfiguration gc = gd.getDefaultConfiguration();
-                bi = gc.createCompatibleImage(this.getWidth(), this.getHeight());
+            //
+            // Only the area being repainted is rendered, normally the
+            // visible part of the viewport or less.
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, this.getWidth(), this.getHeight());
             }
-            else {
-                // This is not ideal because the color representation
-                // for this hidden image may not match that of the display,
-                // necessitating a conversion during 'drawImage'.
-                try {
-                    bi = new BufferedImage(this.getWidth(), this.getHeight(),
-                                           this.tripleBufferMode);
-                }
-                catch (IllegalArgumentException e) {
-                    // This would happen if 'tripleBufferMode' were invalid.
-                    if (this.tripleBufferMode == BufferedImage.TYPE_INT_ARGB) {
-                        // I don't know how this could happen.  Re-throw.
-                        this.log("creating a BufferedImage with TYPE_INT_ARGB failed: "+Util.getExceptionMessage(e));
-                        this.log("re-throwing exception...");
-                        throw e;
-                    }
-                    else {
-                        // Change it to something known to be valid and try again.
-                        this.log("creating a BufferedImage with imageType "+this.tripleBufferMode+
-                                 " failed: "+Util.getExceptionMessage(e));
-                        this.log("switching type to TYPE_INT_ARGB and re-trying...");
-                        this.tripleBufferMode = BufferedImage.TYPE_INT_ARGB;
-                        this.paint(g);
-                        return;
-                    }
-                }
+            if (clip.isEmpty()) {
+                return;
             }
-            Graphics g2 = bi.createGraphics();
+
+            BufferedImage bi = this.getTripleBuffer(clip.width, clip.height);
+            if (bi == null) {
+                // 'tripleBufferMode' was invalid and has been changed.
+                this.timedPaint(g);
+                return;
+            }
+
+            Graphics2D g2 = bi.createGraphics();
+            g2.setClip(0, 0, clip.width, clip.height);
+            g2.translate(-clip.x, -clip.y);
             this.innerPaint(g2);
             g2.dispose();
 
-            g.drawImage(bi, 0, 0, null /*imageObserver*/);
+            g.drawImage(bi, clip.x, clip.y, clip.x + clip.width, clip.y + clip.height,
+                        0, 0, clip.width, clip.height, null /*imageObserver*/);
         }
         else {
             this.innerPaint(g);
         }
+    }
 
-        if (this.fpsMeasurementMode) {
-            // Immediately trigger another paint cycle.
-            this.repaint();
+    /** Return 'tripleBuffer', first reallocating it if it is smaller
+      * than 'w' x 'h'.  Return null if 'tripleBufferMode' turns out to
+      * be invalid, after changing it to something valid. */
+    private BufferedImage getTripleBuffer(int w, int h)
+    {
+        BufferedImage bi = this.tripleBuffer;
+        if (bi != null && bi.getWidth() >= w && bi.getHeight() >= h) {
+            return bi;
+        }
+
+        // Round up so that small changes in the repaint area, as
+        // when the window is resized, do not reallocate every time.
+        w = (w + 63) & ~63;
+        h = (h + 63) & ~63;
+
+        if (this.tripleBufferMode == -1) {
+            // This is not right because we might be drawing on a
+            // different screen than the "default" screen.  Also, I
+            // am worried that a "compatible" image might be one
+            // subject to the scaling effects I'm trying to avoid.
+            GraphicsDevice gd =
+                GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+            GraphicsConfiguration gc = gd.getDefaultConfiguration();
+            bi = gc.createCompatibleImage(w, h);
         }
+        else {
+            // This is not ideal because the color representation
+            // for this hidden image may not match that of the display,
+            // necessitating a conversion during 'drawImage'.
+            try {
+                bi = new BufferedImage(w, h, this.tripleBufferMode);
+            }
+            catch (IllegalArgumentException e) {
+                // This would happen if 'tripleBufferMode' were invalid.
+                if (this.tripleBufferMode == BufferedImage.TYPE_INT_ARGB) {
+                    // I don't know how this could happen.  Re-throw.
+                    this.log("creating a BufferedImage with TYPE_INT_ARGB failed: "+Util.getExceptionMessage(e));
+                    this.log("re-throwing exception...");
+                    throw e;
+                }
+                else {
+                    // Change it to something known to be valid.
+                    this.log("creating a BufferedImage with imageType "+this.tripleBufferMode+
+                             " failed: "+Util.getExceptionMessage(e));
+                    this.log("switching type to TYPE_INT_ARGB and re-trying...");
+                    this.tripleBufferMode = BufferedImage.TYPE_INT_ARGB;
+                    return null;
+                }
+            }
+        }
+
+        this.tripleBuffer = bi;
+        return bi;
     }
 
     /** The core of the paint routine, after we decide whether to interpose
-      * another buffer. */
-    private void innerPaint(Graphics g)
+      * another buffer.  This has package access for RenderBenchmark. */
+    void innerPaint(Graphics g)
     {
         super.paint(g);
 
-        // Filename label.
-        if (this.diagram.drawFileName && !this.fileName.isEmpty()) {
-            String name = new File(this.fileName).getName();
-
-            BitmapFont font = this.getDiagramFont();
-            int x = fileNameLabelMargin;
-            int y = fileNameLabelMargin + font.getAscent();
-            font.drawString(g, name, x, y);
-            y += font.getUnderlineOffset() + 1 /*...*/;
-            g.drawLine(x, y, x + font.stringWidth(name), y);
+        // The diagram itself, zoomed.  Make sure there is a clip so
+        // 'paintDiagram' can skip what is outside it.
+        double zoom = this.getZoom();
+        Graphics2D g2 = (Graphics2D)g.create();
+        if (g2.getClip() == null) {
+            g2.setClip(0, 0, this.getWidth(), this.getHeight());
         }
+        g2.scale(zoom, zoom);
+        this.paintDiagram(g2, RenderContext.forView(zoom));
+        g2.dispose();
 
-        // Controllers.
-        for (Controller c : this.controllers) {
-            if (c.isSelected()) {
-                c.paintSelectionBackground(g);
-            }
-            c.paint(g);
-        }
+        // Everything after this is drawn in view coordinates, at the
+        // bottom of the visible area.  'viewportChanged' arranges to
+        // repaint them when scrolling.
+        Rectangle visible = this.getVisibleRect();
+        int bottomY = visible.y + visible.height - 4;
 
         // Description of current mode.
         String modeDescription = this.mode.description;
-
-        // Lasso rectangle.
         if (this.mode == Mode.DCM_RECT_LASSO) {
             Rectangle r = this.getLassoRect();
-            g.drawRect(r.x, r.y, r.width, r.height);
             modeDescription += " from ("+r.x+","+r.y+
                                ") to ("+(r.x+r.width)+","+(r.y+r.height)+
                                ") which is "+r.width+"x"+r.height;
@@ -428,12 +675,12 @@ public class DiagramController extends JPanel
         if (debugFocus) {
             KeyboardFocusManager kfm = KeyboardFocusManager.getCurrentKeyboardFocusManager();
             Component fo = kfm.getFocusOwner();
-            g.drawString("Focus: "+fo, 3, this.getHeight() - 22);
+            g.drawString("Focus: "+fo, visible.x + 3, bottomY - 18);
         }
 
         // Mode label.
         if (this.mode != Mode.DCM_SELECT) {
-            g.drawString("Mode: " + modeDescription, 3, this.getHeight()-4);
+            g.drawString("Mode: " + modeDescription, visible.x + 3, bottomY);
         }
         else if (this.fpsMeasurementMode) {
             this.fpsFrameCount++;
@@ -451,23 +698,275 @@ public class DiagramController extends JPanel
                 this.fpsFrameCount = 0;
             }
             g.drawString(this.fpsMeasurement + " (Ctrl+G to stop)",
-                         3, this.getHeight()-4);
+                         visible.x + 3, bottomY);
+        }
+    }
+
+    /** Paint the diagram elements to 'g', which has been set up to
+      * use diagram coordinates, as 'rc' specifies. */
+    private void paintDiagram(Graphics g, RenderContext rc)
+    {
+        // Filename label.
+        if (this.diagram.drawFileName && !this.fileName.isEmpty()) {
+            String name = new File(this.fileName).getName();
+
+            BitmapFont font = this.getDiagramFont();
+            int x = fileNameLabelMargin;
+            int y = fileNameLabelMargin + font.getAscent();
+            font.drawString(g, name, x, y);
+            y += font.getUnderlineOffset() + 1 /*...*/;
+            g.drawLine(x, y, x + font.stringWidth(name), y);
+        }
+
+        // Controllers, skipping those entirely outside the area being
+        // painted, which for a large diagram is most of them.
+        Rectangle clip = g.getClipBounds();
+        for (Controller c : this.controllers) {
+            if (clip != null) {
+                Rectangle bounds = c.getPaintBounds();
+                if (bounds != null && !bounds.intersects(clip)) {
+                    continue;
+                }
+            }
+            if (rc.showSelected(c)) {
+                c.paintSelectionBackground(g);
+            }
+            c.paint(g, rc);
+        }
+
+        // Lasso rectangle.
+        if (this.mode == Mode.DCM_RECT_LASSO && !rc.exportMode) {
+            Rectangle r = this.getLassoRect();
+            g.drawRect(r.x, r.y, r.width, r.height);
+        }
+    }
+
+    // ------------- zoom and pan ---------------
+    /** Return the current magnification of the view. */
+    public double getZoom()
+    {
+        return Math.pow(2, (double)this.zoomLevel / zoomLevelsPerDoubling);
+    }
+
+    public int getZoomLevel()
+    {
+        return this.zoomLevel;
+    }
+
+    /** Change the zoom level to 'level', clamped to the allowed range,
+      * scrolling so the diagram point under 'viewAnchor', in component
+      * coordinates, stays where it is on the screen. */
+    public void setZoomLevel(int level, Point viewAnchor)
+    {
+        level = Math.max(minZoomLevel, Math.min(maxZoomLevel, level));
+        if (level == this.zoomLevel) {
+            return;
+        }
+
+        double oldZoom = this.getZoom();
+        double dx = viewAnchor.x / oldZoom;
+        double dy = viewAnchor.y / oldZoom;
+        Point oldPos = this.getViewPosition();
+
+        this.zoomLevel = level;
+        this.updateCanvasSize();
+
+        double zoom = this.getZoom();
+        this.setViewPosition(new Point(
+            (int)Math.round(dx*zoom) - (viewAnchor.x - oldPos.x),
+            (int)Math.round(dy*zoom) - (viewAnchor.y - oldPos.y)));
+        this.updateWindowTitle();
+        this.repaint();
+    }
+
+    /** Zoom in or out by 'delta' levels about the center of the view. */
+    public void zoomBy(int delta)
+    {
+        Rectangle visible = this.getVisibleRect();
+        this.setZoomLevel(this.zoomLevel + delta,
+            new Point(visible.x + visible.width/2, visible.y + visible.height/2));
+    }
+
+    /** Return to 100% zoom, keeping the center of the view in place. */
+    public void resetZoom()
+    {
+        this.zoomBy(-this.zoomLevel);
+    }
+
+    /** Choose the largest zoom, no more than 100%, at which all the
+      * diagram elements fit in the view, and center them. */
+    public void zoomToFit()
+    {
+        Rectangle bounds = null;
+        for (Controller c : this.controllers) {
+            for (Polygon p : c.getBounds()) {
+                if (bounds == null) {
+                    bounds = p.getBounds();
+                }
+                else {
+                    bounds.add(p.getBounds());
+                }
+            }
+        }
+        if (bounds == null) {
+            this.resetZoom();
+            return;
+        }
+
+        Dimension extent = this.getExtentSize();
+        int level = 0;
+        while (level > minZoomLevel) {
+            double zoom = Math.pow(2, (double)level / zoomLevelsPerDoubling);
+            if (bounds.width * zoom <= extent.width &&
+                bounds.height * zoom <= extent.height)
+            {
+                break;
+            }
+            level--;
+        }
+
+        this.zoomLevel = level;
+        this.updateCanvasSize();
+
+        double zoom = this.getZoom();
+        this.setViewPosition(new Point(
+            (int)Math.round((bounds.x + bounds.width/2.0)*zoom) - extent.width/2,
+            (int)Math.round((bounds.y + bounds.height/2.0)*zoom) - extent.height/2));
+        this.updateWindowTitle();
+        this.repaint();
+    }
+
+    /** Scroll the view contents by ('dx','dy') pixels. */
+    public void panBy(int dx, int dy)
+    {
+        Point pos = this.getViewPosition();
+        this.setViewPosition(new Point(pos.x - dx, pos.y - dy));
+    }
+
+    /** Size the component to the diagram window size at the current
+      * zoom.  In a viewport, if that is smaller than the viewport, the
+      * component is stretched to fill it; see 'Scrollable'. */
+    private void updateCanvasSize()
+    {
+        double zoom = this.getZoom();
+        Dimension d = new Dimension(
+            (int)Math.ceil(this.diagram.windowSize.width * zoom),
+            (int)Math.ceil(this.diagram.windowSize.height * zoom));
+
+        // When playing around with undo/redo involving resize,
+        // sometimes 'setPreferredSize' is not enough.  I don't
+        // understand why; it seems dependent on the specific size
+        // values?  Perhaps an odd interaction with the window
+        // manager's snap behavior?  Setting the size directly as
+        // well seems to fix the problem.
+        this.setPreferredSize(d);
+        if (this.viewport != null) {
+            Dimension extent = this.viewport.getExtentSize();
+            this.viewport.setViewSize(new Dimension(Math.max(d.width, extent.width),
+                                                    Math.max(d.height, extent.height)));
+            this.revalidate();
+        }
+        else {
+            this.setSize(d);
+        }
+    }
+
+    /** Return the location of the upper-left corner of the visible
+      * area, in component coordinates. */
+    private Point getViewPosition()
+    {
+        if (this.viewport != null) {
+            return this.viewport.getViewPosition();
+        }
+        return new Point(0, 0);
+    }
+
+    /** Scroll so 'p' is the upper-left corner of the visible area, as
+      * nearly as possible. */
+    private void setViewPosition(Point p)
+    {
+        if (this.viewport == null) {
+            return;
+        }
+
+        Dimension view = this.viewport.getViewSize();
+        Dimension extent = this.viewport.getExtentSize();
+        p = new Point(Math.max(0, Math.min(view.width - extent.width, p.x)),
+                      Math.max(0, Math.min(view.height - extent.height, p.y)));
+        if (!p.equals(this.viewport.getViewPosition())) {
+            this.viewport.setViewPosition(p);
+        }
+    }
+
+    /** Return the size of the visible area. */
+    private Dimension getExtentSize()
+    {
+        if (this.viewport != null) {
+            return this.viewport.getExtentSize();
         }
+        return this.getSize();
+    }
+
+    /** Convert a point in component coordinates to diagram
+      * coordinates. */
+    public Point viewToDiagram(Point v)
+    {
+        double zoom = this.getZoom();
+        return new Point((int)Math.floor(v.x / zoom),
+                         (int)Math.floor(v.y / zoom));
+    }
+
+    /** Convert a point in diagram coordinates to component coordinates.
+      * When zoomed in, this is the first pixel that 'viewToDiagram'
+      * maps to 'd'. */
+    public Point diagramToView(Point d)
+    {
+        double zoom = this.getZoom();
+        return new Point((int)Math.ceil(d.x * zoom - 1e-9),
+                         (int)Math.ceil(d.y * zoom - 1e-9));
+    }
+
+    /** Return 'e', or a copy of it, with its location expressed in
+      * diagram coordinates.  The controllers and the editing logic
+      * work entirely in diagram coordinates. */
+    @SuppressWarnings("deprecation")
+    private MouseEvent toDiagramCoordinates(MouseEvent e)
+    {
+        if (this.zoomLevel == 0) {
+            return e;
+        }
+
+        // This mirrors SwingUtilities.convertMouseEvent.
+        Point p = this.viewToDiagram(e.getPoint());
+        return new MouseEvent(this, e.getID(), e.getWhen(),
+                              e.getModifiers() | e.getModifiersEx(),
+                              p.x, p.y, e.getXOnScreen(), e.getYOnScreen(),
+                              e.getClickCount(), e.isPopupTrigger(),
+                              e.getButton());
     }
 
     /** Return the set of currently selected controllers as a freshly
       * created set object. */
     protected HashSet<Controller> getSelectionSet()
     {
-        HashSet<Controller> ret = new HashSet<Controller>();
+        return new HashSet<Controller>(this.selection);
+    }
 
-        for (Controller c : this.controllers) {
-            if (c.isSelected()) {
-                ret.add(c);
-            }
+    /** Update 'selection' after the selection state of 'c' changed. */
+    void selectionChanged(Controller c)
+    {
+        if (c.isSelected()) {
+            this.selection.add(c);
         }
+        else {
+            this.selection.remove(c);
+        }
+    }
 
-        return ret;
+    /** Return the number of selected controllers. */
+    public int getSelectionCount()
+    {
+        return this.selection.size();
     }
 
     /** Set the selection state of all of the controllers in 'set' to 'state'. */
@@ -493,6 +992,22 @@ public class DiagramController extends JPanel
     /** Return the top-most Controller that contains 'point' and satisfies 'filter'
       * (if it is not null), or null if none does. */
     private Controller hitTest(Point point, ControllerFilter filter)
+    {
+        PerfMonitor.HitTestEvent ev = new PerfMonitor.HitTestEvent();
+        ev.begin();
+        long start = System.nanoTime();
+
+        Controller ret = this.innerHitTest(point, filter);
+
+        ev.controllers = this.controllers.size();
+        ev.hit = (ret != null);
+        ev.commit();
+        this.perfMonitor.recordSince(PerfMonitor.OP_HIT_TEST, start);
+        return ret;
+    }
+
+    /** Body of 'hitTest', minus the instrumentation. */
+    private Controller innerHitTest(Point point, ControllerFilter filter)
     {
         // Go backwards for top-down order.
         for (int i = this.controllers.size()-1; i >= 0; i--) {
@@ -556,6 +1071,15 @@ public class DiagramController extends JPanel
     {
         this.eventReceived(e);
 
+        // Middle button pans the view, regardless of mode.
+        if (SwingUtilities.isMiddleMouseButton(e)) {
+            this.panDragLast = e.getLocationOnScreen();
+            this.setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
+            return;
+        }
+
+        e = this.toDiagramCoordinates(e);
+
         switch (this.mode) {
             case DCM_SELECT: {
                 // Clicked a controller?
@@ -638,44 +1162,33 @@ public class DiagramController extends JPanel
     {
         this.eventReceived(e);
 
-        if (this.mode == Mode.DCM_DRAGGING) {
-            this.selfCheck();
-
-            // Where are we going to move the dragged object's main point?
-            Point destLoc = GeomUtil.subtract(e.getPoint(), this.dragOffset);
-
-            // Snap if Shift not held.
-            if (!SwingUtil.shiftPressed(e)) {
-                destLoc = GeomUtil.snapPoint(destLoc, SNAP_DIST);
-            }
-
-            if (this.dragging.isSelected()) {
-                // How far are we going to move the dragged object?
-                Point delta = GeomUtil.subtract(destLoc, this.dragging.getLoc());
+        if (this.panDragLast != null) {
+            Point p = e.getLocationOnScreen();
+            this.panBy(p.x - this.panDragLast.x, p.y - this.panDragLast.y);
+            this.panDragLast = p;
+            return;
+        }
 
-                // Move all selected controls by that amount.
-                HashSet<Controller> selControllers = this.getSelectionSet();
-                for (Controller c : selControllers) {
-                    Point cur = c.getLoc();
-                    c.dragTo(GeomUtil.add(cur, delta));
-                }
+        e = this.toDiagramCoordinates(e);
 
-                this.dragCommandDescription =
-                    fmt("Drag %1$d elements to (%2$d,%3$d)",
-                        selControllers.size(),
-                        destLoc.x,
-                        destLoc.y);
-            }
-            else {
-                // Dragging item is not selected; must be a resize handle.
-                this.dragging.dragTo(destLoc);
-                this.dragCommandDescription =
-                    fmt("Adjust shape by moving handle to (%1$d,%2$d)",
-                        destLoc.x,
-                        destLoc.y);
+        if (this.mode == Mode.DCM_DRAGGING) {
+            // Record the location, and apply it after any other mouse
+            // events already queued have been seen.
+            this.pendingDragPoint.setLocation(e.getX(), e.getY());
+            this.pendingDragSnap = !SwingUtil.shiftPressed(e);
+            this.dragEventPending = true;
+            if (!this.dragUpdateScheduled) {
+                this.dragUpdateScheduled = true;
+                final int generation = this.dragGeneration;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == DiagramController.this.dragGeneration) {
+                            DiagramController.this.applyPendingDrag();
+                        }
+                    }
+                });
             }
-
-            this.repaint();
         }
 
         if (this.mode == Mode.DCM_RECT_LASSO) {
@@ -690,14 +1203,31 @@ public class DiagramController extends JPanel
     {
         this.eventReceived(e);
 
+        if (SwingUtilities.isMiddleMouseButton(e) && this.panDragLast != null) {
+            this.panDragLast = null;
+            this.setCursor(Cursor.getDefaultCursor());
+            return;
+        }
+
         // Click+drag should only be initiated with left mouse button, so ignore
         // release of others.
         if (!SwingUtilities.isLeftMouseButton(e)) {
             return;
         }
 
-        if (this.mode == Mode.DCM_DRAGGING && this.dragCommandDescription != null) {
-            this.diagramChanged(this.dragCommandDescription);
+        if (this.mode == Mode.DCM_DRAGGING) {
+            // Do not leave a step unapplied.
+            this.applyPendingDrag();
+            if (this.dragMoved) {
+                this.diagramChanged(this.dragSelection != null?
+                    fmt("Drag %1$d elements to (%2$d,%3$d)",
+                        this.dragSelection.size(),
+                        this.dragDest.x,
+                        this.dragDest.y) :
+                    fmt("Adjust shape by moving handle to (%1$d,%2$d)",
+                        this.dragDest.x,
+                        this.dragDest.y));
+            }
         }
 
         if (this.mode == Mode.DCM_DRAGGING || this.mode == Mode.DCM_RECT_LASSO) {
@@ -709,6 +1239,7 @@ public class DiagramController extends JPanel
     public void mouseClicked(MouseEvent e)
     {
         this.eventReceived(e);
+        e = this.toDiagramCoordinates(e);
 
         // Double-click on control to edit it.
         if (SwingUtilities.isLeftMouseButton(e) && (e.getClickCount() == 2)) {
@@ -719,6 +1250,24 @@ public class DiagramController extends JPanel
         }
     }
 
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e)
+    {
+        this.eventReceived(e);
+
+        int notches = e.getWheelRotation();
+        if (SwingUtil.controlPressed(e)) {
+            // Zoom, keeping the point under the mouse still.
+            this.setZoomLevel(this.zoomLevel - notches, e.getPoint());
+        }
+        else if (SwingUtil.shiftPressed(e)) {
+            this.panBy(-notches * wheelPanDistance, 0);
+        }
+        else {
+            this.panBy(0, -notches * wheelPanDistance);
+        }
+    }
+
     // MouseListener methods I do not care about.
     @Override public void mouseEntered(MouseEvent e) {}
     @Override public void mouseExited(MouseEvent e) {}
@@ -891,12 +1440,13 @@ public class DiagramController extends JPanel
         // Reset file status.
         this.dirty = false;
         this.setFileName("");
+        this.stopRecoveryFiles();
 
         // Clear the diagram.
         this.setDiagram(new Diagram());
         this.undoHistory = new UndoHistory(this.diagram,
             fmt("Started a new, empty diagram"), this);
-        this.undoHistoryWindow.updateHistory();
+        this.updateUndoHistoryWindow();
     }
 
     /** Change the Diagram to an entirely new one. */
@@ -905,27 +1455,40 @@ public class DiagramController extends JPanel
         this.diagram = newDiagram;
 
         // Sizing is achieved by specifying a preferred size for
-        // the content pane, then packing other controls and the
-        // window border stuff around it.
-        this.setPreferredSize(this.diagram.windowSize);
+        // the scrolled canvas, then packing the viewport, other
+        // controls, and the window border stuff around it.
+        this.updateCanvasSize();
 
-        // When playing around with undo/redo involving resize,
-        // sometimes 'setPreferredSize' is not enough.  I don't
-        // understand why; it seems dependent on the specific size
-        // values?  Perhaps an odd interaction with the window
-        // manager's snap behavior?  Calling 'setSize' as well seems
-        // to fix the problem.
-        this.setSize(this.diagram.windowSize);
-
-        this.dedWindow.pack();
+        if (this.dedWindow != null) {
+            this.dedWindow.pack();
+        }
 
         this.setBackground(this.diagram.getBackgroundColor());
 
         this.rebuildControllers();
-        this.dedWindow.updateMenuState();
+        if (this.dedWindow != null) {
+            this.dedWindow.updateMenuState();
+        }
         this.repaint();
     }
 
+    /** Replace the current diagram with 'd', treating it as having
+      * been read from 'name', which is used for the file name label
+      * and to resolve relative image file names.  Unlike
+      * 'loadFromNamedFile', this does no I/O and reports nothing to
+      * the user, so it is suitable for headless rendering. */
+    public void setDiagramAndFileName(Diagram d, String name)
+    {
+        this.dirty = false;
+        this.importedFile = false;
+        this.setFileName(name);
+        this.stopRecoveryFiles();
+        this.setDiagram(d);
+        this.undoHistory = new UndoHistory(this.diagram,
+            fmt("Loaded file \"%1$s\"", name), this);
+        this.updateUndoHistoryWindow();
+    }
+
     /** Prompt for a file name to load, then replace the current diagram with it. */
     public void loadFromFile()
     {
@@ -958,50 +1521,151 @@ public class DiagramController extends JPanel
             return;
         }
 
+        PerfMonitor.LoadEvent ev = new PerfMonitor.LoadEvent();
+        ev.begin();
+        ev.fileName = name;
+        long start = System.nanoTime();
+
         try {
             Diagram d;
+            Diagram recovered = null;
+
+            // Read the file, whatever its format.
+            DiagramFile file = DiagramFile.read(name);
 
             // See if this is a PNG file with a DED-created comment.
-            if (name.endsWith(".png") || name.endsWith(".PNG")) {
-                d = loadFromPNG(name);
+            if (file.format == DiagramFile.Format.PNG) {
+                d = loadFromPNG(name, file.pngComment);
                 if (d == null) {
                     return;     // canceled, or error already reported
                 }
+
+                // The file it will be saved to may not exist yet, so
+                // there is nothing for a journal to start from.
+                this.stopRecoveryFiles();
             }
             else {
-                // For compatibility with the C++ implementation, start
-                // by trying to read it in the ER format.
-                d = Diagram.readFromERFile(name);
-                if (d != null) {
-                    // Success; but we need to indicate that the file will
-                    // be saved in a different format, lest people lose
-                    // their original file unexpectedly.
-                    this.importedFile = true;
-                }
-                else {
-                    // Read the file as JSON.
-                    d = Diagram.readFromFile(name);
-                    this.importedFile = false;
+                d = file.diagram;
+
+                // Reloading the current file abandons its unsaved
+                // changes.  Discard their journal, now that the file
+                // has been read, so they are not offered for recovery
+                // below.  If the read failed, the editor keeps them,
+                // and goes on journaling them.
+                if (name.equals(this.fileName)) {
+                    this.stopRecoveryFiles();
                 }
 
+                // If it was in the ER format, we need to indicate that
+                // the file will be saved in a different format, lest
+                // people lose their original file unexpectedly.
+                this.importedFile = (file.format == DiagramFile.Format.ER);
+
                 // Success.  Update file name.
                 this.dirty = false;
                 this.setFileName(name);
+
+                // If the editor quit without saving edits to this
+                // file, offer them back.  But if another editor has it
+                // open, its journal is live, not left by a crash, so
+                // leave that and its autosaved copy alone.
+                if (EditJournal.isInUse(name)) {
+                    this.log("\""+name+"\" is being edited in another "+
+                             "editor, so edits made here will not be "+
+                             "journaled or autosaved");
+                    this.stopRecoveryFiles();
+                }
+                else {
+                    recovered = this.offerRecovery(name, d);
+                    this.startRecoveryFiles(name, d);
+                }
             }
 
             // Swap in the new diagram and rebuild the UI for it.
-            this.setDiagram(d);
-            this.undoHistory = new UndoHistory(this.diagram,
+            this.setDiagram(recovered != null? recovered : d);
+            this.undoHistory = new UndoHistory(d,
                 fmt("Loaded file \"%1$s\"", name), this);
-            this.undoHistoryWindow.updateHistory();
+            if (recovered != null) {
+                this.diagramChanged(fmt("Recover unsaved edits"));
+            }
+            this.updateUndoHistoryWindow();
+
+            ev.entities = d.entities.size();
+            ev.commit();
+            this.perfMonitor.recordSince(PerfMonitor.OP_LOAD, start);
         }
         catch (Exception e) {
             this.exnErrorMessageBox("Error while reading \""+name+"\"", e);
         }
     }
 
-    /** Try to load a diagram by reading the JSON out of the comment
-      * section of the PNG file 'pngName'.  If that succeeds, return
+    /** If there are unsaved edits to 'name', which was just read as
+      * 'saved', left by an earlier session, ask the user whether to
+      * recover them.  Return the recovered diagram if so, otherwise
+      * null. */
+    private Diagram offerRecovery(String name, Diagram saved)
+    {
+        // The journal has every command, so prefer it.
+        EditJournal.Replay replay = null;
+        try {
+            replay = EditJournal.replay(name, saved);
+        }
+        catch (Exception e) {
+            this.exnErrorMessageBox(
+                "There is a journal of unsaved edits to \""+name+"\", but "+
+                "it cannot be used, and will be replaced when the diagram is "+
+                "next edited", e);
+        }
+
+        if (replay != null && !replay.commands.isEmpty()) {
+            int res = SwingUtil.confirmationBox(this,
+                "The editor exited without saving "+replay.commands.size()+
+                    " edits made to \""+name+"\".  The last was \""+
+                    replay.commands.get(replay.commands.size()-1)+"\".  "+
+                    "Recover them?  If not, they will be discarded.",
+                "Recover Unsaved Edits",
+                JOptionPane.YES_NO_OPTION);
+            if (res == JOptionPane.YES_OPTION) {
+                return replay.diagram;
+            }
+
+            // If another editor has started writing the journal since
+            // it was read, it owns both files now.
+            if (EditJournal.delete(name)) {
+                Autosaver.delete(name);
+            }
+            return null;
+        }
+
+        // Otherwise, there may be an autosaved copy, for example if
+        // the journal could not be written.
+        if (Autosaver.isNewerThanFile(name)) {
+            String autosaveName = Autosaver.autosaveFileName(name);
+            int res = SwingUtil.confirmationBox(this,
+                "There is an automatically saved copy of \""+name+"\" "+
+                    "that is newer than the file itself, made "+
+                    new Date(new File(autosaveName).lastModified())+".  "+
+                    "Recover it?  If not, it will be discarded.",
+                "Recover Autosaved Copy",
+                JOptionPane.YES_NO_OPTION);
+            if (res == JOptionPane.YES_OPTION) {
+                try {
+                    return Diagram.readFromFile(autosaveName);
+                }
+                catch (Exception e) {
+                    this.exnErrorMessageBox(
+                        "Error while reading \""+autosaveName+"\"", e);
+                }
+            }
+            Autosaver.delete(name);
+        }
+
+        return null;
+    }
+
+    /** Try to load a diagram from 'comment', the comment section of
+      * the PNG file 'pngName', which is null if it has none.  If that
+      * succeeds, return
       * non-null, and also set:
       *
       *   * this.importedFile
@@ -1010,11 +1674,11 @@ public class DiagramController extends JPanel
       *
       * Return null if this failed but we already explained the problem
       * to the user, or the user cancels; or throw an exception otherwise. */
-    private Diagram loadFromPNG(String pngName)
+    private Diagram loadFromPNG(String pngName, String comment)
         throws Exception
     {
         // Get the name of the image source file.
-        String sourceFileName = pngName.substring(0, pngName.length()-4);
+        String sourceFileName = getPNGSourceFileName(pngName);
         File sourceFile = new File(sourceFileName);
         if (sourceFile.exists()) {
             if (SwingUtil.confirmationBox(this,
@@ -1030,10 +1694,6 @@ public class DiagramController extends JPanel
             }
         }
 
-        // Try to read the comment from the file.  If the file is corrupt
-        // or cannot be read, this will throw.  But if the comment is merely
-        // absent, then this will return null.
-        String comment = ImageFileUtil.getPNGComment(new File(pngName));
         if (comment == null || comment.isEmpty()) {
             SwingUtil.errorMessageBox(this,
                 "The PNG file \""+pngName+"\" does not contain a comment, "+
@@ -1068,7 +1728,7 @@ public class DiagramController extends JPanel
         this.importedFile = false;
 
         // Note: We chop off ".png" and treat that as the name for
-        // subsequent saves.
+        // subsequent saves; see 'getPNGSourceFileName'.
         this.setFileName(sourceFileName);
 
         // The file is not considered dirty because they are no
@@ -1080,10 +1740,23 @@ public class DiagramController extends JPanel
         return d;
     }
 
+    /** Return the name of the diagram source file that PNG 'pngName'
+      * was presumably rendered from: 'pngName' without its ".png"
+      * extension.  A PNG file is recognized by its contents, so if it
+      * has some other name, append ".ded" instead. */
+    public static String getPNGSourceFileName(String pngName)
+    {
+        if (pngName.toLowerCase(Locale.ENGLISH).endsWith(".png")) {
+            return pngName.substring(0, pngName.length()-4);
+        }
+        return pngName+".ded";
+    }
+
     /** Rebuild all the controllers from 'diagram'. */
     private void rebuildControllers()
     {
         this.controllers.clear();
+        this.selection.clear();
 
         for (Entity e : this.diagram.entities) {
             this.buildEntityController(e);
@@ -1182,6 +1855,11 @@ public class DiagramController extends JPanel
             return;
         }
 
+        PerfMonitor.SaveEvent ev = new PerfMonitor.SaveEvent();
+        ev.begin();
+        ev.fileName = fname;
+
+        long start = System.nanoTime();
         try {
             this.diagram.saveToFile(fname);
         }
@@ -1189,15 +1867,22 @@ public class DiagramController extends JPanel
             this.exnErrorMessageBox("Error while saving \""+fname+"\"", e);
             return;
         }
+        ev.jsonTime = this.perfMonitor.recordSince(PerfMonitor.OP_SAVE_JSON, start);
 
-        // If it worked, remember the new name.
+        // If it worked, remember the new name.  Edits are now journaled
+        // relative to what was just saved.
         this.dirty = false;
         this.importedFile = false;
         this.setFileName(fname);
+        this.startRecoveryFiles(fname, this.diagram);
 
         // Additionally, always export to PNG.
         String pngFname = fname+".png";
+        start = System.nanoTime();
         try {
+            String comment = makePNGComment(this.diagram);
+            String renderHash = this.getRenderHash(comment);
+
             // I will save the document source JSON as a comment in the image
             // file so if the source gets separated, I can still edit
             // the image.  One place this really helps is with diagrams
@@ -1206,42 +1891,56 @@ public class DiagramController extends JPanel
             // for that matter.  It also helps with email attachments,
             // where again it is awkward to send pairs of files.
 
-            // First, get the JSON as a string.
-            String comment = this.diagram.toJSONString();
-
-            // Now, this string might contain non-ASCII characters inside
-            // the JSON strings.  They need to be changed to use JSON
-            // escapes to conform to the requirements of comments in PNG
-            // files.
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < comment.length(); i++) {
-                char c = comment.charAt(i);
-                if (c >= 127) {
-                    // Render this using a JSON escape sequence.  (We
-                    // simply assume that non-ASCII characters will only
-                    // appear inside quoted strings.)
-                    //
-                    // JSON escapes use UTF-16 code units, with all the
-                    // surrogate pair ugliness, just like Java Strings,
-                    // so there is no transformation to do on them.
-                    sb.append(String.format("\\u%04X", (int)c));
-                }
-                else {
-                    // Note that 'c' here will be printable because the
-                    // procedure for rendering JSON as a string already
-                    // maps the control characters to escape sequences.
-                    sb.append(c);
-                }
+            // Write the image to the PNG file, including with the comment,
+            // unless it already holds exactly what we would write.
+            if (isPNGFileCurrent(new File(pngFname), renderHash)) {
+                ev.pngUnchanged = true;
+            }
+            else {
+                writeToPNG(new File(pngFname), comment, renderHash);
             }
-
-            // Write the image to the PNG file, including with the comment.
-            writeToPNG(new File(pngFname), sb.toString());
         }
         catch (Exception e) {
             this.exnErrorMessageBox(
                 "The primary diagram file \""+fname+"\" was saved successfully, "+
                 "but exporting the PNG to \""+pngFname+"\" failed", e);
         }
+        ev.pngTime = this.perfMonitor.recordSince(PerfMonitor.OP_SAVE_PNG, start);
+        ev.commit();
+    }
+
+    /** Return the comment to embed in the PNG export of 'd', which is
+      * its JSON, restricted to ASCII. */
+    public static String makePNGComment(Diagram d)
+    {
+        // First, get the JSON as a string.
+        String comment = d.toJSONString();
+
+        // Now, this string might contain non-ASCII characters inside
+        // the JSON strings.  They need to be changed to use JSON
+        // escapes to conform to the requirements of comments in PNG
+        // files.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < comment.length(); i++) {
+            char c = comment.charAt(i);
+            if (c >= 127) {
+                // Render this using a JSON escape sequence.  (We
+                // simply assume that non-ASCII characters will only
+                // appear inside quoted strings.)
+                //
+                // JSON escapes use UTF-16 code units, with all the
+                // surrogate pair ugliness, just like Java Strings,
+                // so there is no transformation to do on them.
+                sb.append(String.format("\\u%04X", (int)c));
+            }
+            else {
+                // Note that 'c' here will be printable because the
+                // procedure for rendering JSON as a string already
+                // maps the control characters to escape sequences.
+                sb.append(c);
+            }
+        }
+        return sb.toString();
     }
 
     /** Change the recent file name to 'name', updating window title too. */
@@ -1250,69 +1949,238 @@ public class DiagramController extends JPanel
         this.fileName = name;
         this.updateWindowTitle();
 
-        // Changing the file name affects the drawn name in the
-        // main editing area (if enabled).
-        this.repaint();
+        // Changing the file name affects the drawn name in the
+        // main editing area (if enabled).
+        this.repaint();
+    }
+
+    /** Write the diagram in PNG format to 'file' with an optional comment.
+      * The comment must only use ASCII characters.  'renderHash' is as
+      * for 'renderToPNGFile'. */
+    public void writeToPNG(File file, String comment, String renderHash)
+        throws Exception
+    {
+        // For a large-ish diagram, this operation takes ~200ms.  For now,
+        // I will just acknowledge the delay.  An idea for the future is
+        // to add a status bar to the UI, then do the export work in a
+        // separate thread, with an indicator in the status bar that will
+        // reflect when the operation completes.  I consider it important
+        // for the user to know when it finishes so if it takes a long
+        // time, they don't in the meantime go copy or view the partially
+        // written image.
+        this.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        try {
+            String warning = this.renderToPNGFile(file, comment, renderHash);
+            if (warning != null) {
+                SwingUtil.warningMessageBox(this,
+                    "File save completed successfully, but while exporting to PNG, "+
+                    "there was a warning: "+warning);
+            }
+        }
+        finally {
+            this.setCursor(Cursor.getDefaultCursor());
+        }
+    }
+
+    /** Render the diagram, without selection indicators, and write it
+      * in PNG format to 'file' with an optional ASCII comment.  Throw
+      * on failure.  On success, return a warning message, or null if
+      * there is none.  This does not interact with the user, so it
+      * can be used headless.
+      *
+      * If 'renderHash' is not null, it must be 'getRenderHash(comment)',
+      * and is recorded in the file for 'isPNGFileCurrent'. */
+    public String renderToPNGFile(File file, String comment, String renderHash)
+        throws Exception
+    {
+        // Based on code from:
+        // http://stackoverflow.com/questions/5655908/export-jpanel-graphics-to-png-or-gif-or-jpg
+
+        // The exported image is of the diagram at its natural size,
+        // regardless of the current zoom and pan.
+        int w = this.diagram.windowSize.width;
+        int h = this.diagram.windowSize.height;
+
+        Map<String, String> textChunks = null;
+        if (renderHash != null) {
+            textChunks = Collections.singletonMap(renderHashKeyword, renderHash);
+        }
+
+        if ((long)w * h > bandedExportThreshold) {
+            // Too big to comfortably hold in memory at once.
+            BandedImage bi = this.makeBandedExportImage();
+            try {
+                return ImageFileUtil.writeImageToPNGFile(bi, file, comment, textChunks);
+            }
+            finally {
+                bi.close();
+            }
+        }
+
+        // First, render the image to an in-memory image buffer.
+        BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = bi.createGraphics();
+        this.paintForExport(g);
+        g.dispose();
+
+        // Now, write that image to a file in PNG format.
+        return ImageFileUtil.writeImageToPNGFile(bi, file, comment, textChunks);
+    }
+
+    /** Return an image of the diagram, as 'paintForExport' would
+      * paint it, that is painted in bands on several threads as it
+      * is read.  The diagram must not change until the image is closed. */
+    private BandedImage makeBandedExportImage()
+    {
+        // Load the images on this thread so the copies can share them.
+        for (Entity e : this.diagram.entities) {
+            if (!e.imageFileName.isEmpty()) {
+                this.getImage(e.imageFileName);
+            }
+        }
+
+        // Painting is not thread-safe, so each thread gets its own
+        // controllers, font and caches.  They share the diagram, which
+        // painting only reads, apart from its color cache, which
+        // allows concurrent use (see 'Diagram.getNamedColor').
+        int threads = Runtime.getRuntime().availableProcessors();
+        ArrayList<BandedImage.BandPainter> painters =
+            new ArrayList<BandedImage.BandPainter>();
+        for (int i=0; i < threads; i++) {
+            final DiagramController copy =
+                new DiagramController(new BitmapFont(this.diagramFont),
+                                      this.resourceImageCache);
+            copy.fileName = this.fileName;
+            copy.imageCache.putAll(this.imageCache);
+            copy.setDiagram(this.diagram);
+            painters.add(new BandedImage.BandPainter() {
+                @Override
+                public void paint(Graphics2D g) {
+                    copy.paintForExport(g);
+                }
+            });
+        }
+
+        return new BandedImage(this.diagram.windowSize.width,
+                               this.diagram.windowSize.height,
+                               exportBandPixels, painters);
+    }
+
+    /** Return a string that identifies everything that determines the
+      * image 'renderToPNGFile' would write for the current diagram and
+      * 'comment': the comment, which is the diagram JSON, the program
+      * build, the drawn file name, and the files of any images.  If
+      * two renders have the same hash, they wrote the same file. */
+    public String getRenderHash(String comment)
+    {
+        return getRenderHash(this.diagram, this.fileName, comment);
+    }
+
+    /** Like 'getRenderHash(String)', for diagram 'diagram' loaded from
+      * 'fileName', without needing a controller for it. */
+    public static String getRenderHash(Diagram diagram, String fileName, String comment)
+    {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java implementation is required to have SHA-256.
+            throw new RuntimeException(e);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("build: ").append(getBuildVersion()).append('\n');
+        sb.append("file: ").append(new File(fileName).getName()).append('\n');
+
+        // Images are identified by their size and modification time,
+        // which is much cheaper than reading them.
+        TreeSet<String> imageFileNames = new TreeSet<String>();
+        for (Entity e : diagram.entities) {
+            if (!e.imageFileName.isEmpty()) {
+                imageFileNames.add(e.imageFileName);
+            }
+        }
+        for (String name : imageFileNames) {
+            File f = getImageFile(fileName, name);
+            sb.append("image: ").append(name)
+              .append(' ').append(f.length())
+              .append(' ').append(f.lastModified()).append('\n');
+        }
+
+        md.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        md.update(comment.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
     }
 
-    /** Write the diagram in PNG format to 'file' with an optional comment.
-      * The comment must only use ASCII characters. */
-    public void writeToPNG(File file, String comment)
-        throws Exception
+    /** Return true if 'file' is a PNG that 'renderToPNGFile' wrote
+      * with 'renderHash', so writing it again would not change it. */
+    public static boolean isPNGFileCurrent(File file, String renderHash)
     {
-        // For a large-ish diagram, this operation takes ~200ms.  For now,
-        // I will just acknowledge the delay.  An idea for the future is
-        // to add a status bar to the UI, then do the export work in a
-        // separate thread, with an indicator in the status bar that will
-        // reflect when the operation completes.  I consider it important
-        // for the user to know when it finishes so if it takes a long
-        // time, they don't in the meantime go copy or view the partially
-        // written image.
-        this.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        if (!file.isFile()) {
+            return false;
+        }
         try {
-            // Based on code from:
-            // http://stackoverflow.com/questions/5655908/export-jpanel-graphics-to-png-or-gif-or-jpg
-
-            // First, render the image to an in-memory image buffer.
-            BufferedImage bi =
-                new BufferedImage(this.getSize().width, this.getSize().height,
-                                  BufferedImage.TYPE_INT_ARGB);
-            Graphics g = bi.createGraphics();
-            this.paintWithoutSelectionsShowing(g);
-            g.dispose();
-
-            // Now, write that image to a file in PNG format.
-            String warning = ImageFileUtil.writeImageToPNGFile(bi, file, comment);
-            if (warning != null) {
-                SwingUtil.warningMessageBox(this,
-                    "File save completed successfully, but while exporting to PNG, "+
-                    "there was a warning: "+warning);
-            }
+            return renderHash.equals(ImageFileUtil.getPNGText(file, renderHashKeyword));
         }
-        finally {
-            this.setCursor(Cursor.getDefaultCursor());
+        catch (Exception e) {
+            // Not a valid PNG, so it needs to be rewritten.
+            return false;
         }
     }
 
-    /** Paint diagram to 'g', except temporarily deselect everything
-      * first so that the selection indicators do not not appear. */
-    protected void paintWithoutSelectionsShowing(Graphics g)
+    /** Return the identification of the program build that was recorded
+      * when it was compiled, or "" if that is not available. */
+    private static synchronized String getBuildVersion()
     {
-        // Turn off selections.
-        HashSet<Controller> originalSelection = this.getSelectionSet();
-        setMultipleSelected(originalSelection, SelectionState.SS_UNSELECTED);
-        try {
-            // Paint now that selections are turned off.
-            //
-            // This uses 'innerPaint' to bypass the additional buffering
-            // logic, which is unnecessary here since we are already
-            // rendering to a hidden image to write to a file.
-            this.innerPaint(g);
-        }
-        finally {
-            // Restore selection state.
-            setSelectionSet(originalSelection);
+        if (buildVersion == null) {
+            buildVersion = "";
+            InputStream is =
+                DiagramController.class.getResourceAsStream("/resources/version.txt");
+            if (is != null) {
+                try {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    byte[] buf = new byte[256];
+                    int n;
+                    while ((n = is.read(buf)) > 0) {
+                        baos.write(buf, 0, n);
+                    }
+                    buildVersion = baos.toString("UTF-8").trim();
+                }
+                catch (IOException e) {
+                    // Treat as unknown.
+                }
+                finally {
+                    try {
+                        is.close();
+                    }
+                    catch (IOException e) {/*ignore*/}
+                }
+            }
         }
+        return buildVersion;
+    }
+
+    /** Paint the background and diagram to 'g' at its natural size,
+      * without the selection indicators.  This does not change any
+      * editor state, including the selection.
+      *
+      * This bypasses the additional buffering logic, which is
+      * unnecessary here since we are already rendering to a
+      * hidden image to write to a file, and the view transform,
+      * since we want the diagram at its natural size. */
+    private void paintForExport(Graphics g)
+    {
+        g.setColor(this.getBackground());
+        g.fillRect(0, 0, this.diagram.windowSize.width,
+                         this.diagram.windowSize.height);
+        g.setColor(this.getForeground());
+        this.paintDiagram(g, RenderContext.export);
     }
 
     /** Get and log some details related to display scaling, particularly
@@ -1391,14 +2259,95 @@ public class DiagramController extends JPanel
     public void diagramChanged(String command)
     {
         //System.out.println("Diagram changed: "+command);
+        PerfMonitor.DiagramChangedEvent ev = new PerfMonitor.DiagramChangedEvent();
+        ev.begin();
+        ev.command = command;
+
+        long start = System.nanoTime();
         this.undoHistory.recordDiagramChange(this.diagram, command);
-        this.undoHistoryWindow.updateHistory();
+        ev.snapshotTime = this.perfMonitor.recordSince(
+            PerfMonitor.OP_CHANGE_SNAPSHOT, start);
+
+        start = System.nanoTime();
+        this.updateUndoHistoryWindow();
+        ev.historyWindowTime = this.perfMonitor.recordSince(
+            PerfMonitor.OP_CHANGE_HISTORY_WINDOW, start);
+
+        start = System.nanoTime();
         this.populateRedoAlternateMenu();
+        ev.redoMenuTime = this.perfMonitor.recordSince(
+            PerfMonitor.OP_CHANGE_REDO_MENU, start);
+
+        ev.commit();
 
+        this.recordChangeForRecovery(command);
         this.setDirty();
         this.repaint();
     }
 
+    /** Begin journaling and autosaving changes to the current
+      * diagram, 'saved', which was just read from or written to
+      * 'name'.  This ends those for the previous diagram. */
+    private void startRecoveryFiles(String name, Diagram saved)
+    {
+        this.stopRecoveryFiles();
+        this.editJournal = new EditJournal(name, saved);
+        if (this.autosaveSeconds > 0 || this.autosaveCommands > 0) {
+            this.autosaver = new Autosaver(name, this.autosaveSeconds,
+                                           this.autosaveCommands);
+        }
+    }
+
+    /** Stop journaling and autosaving, deleting their files.  That is
+      * only done when the changes have been saved or the user has
+      * agreed to lose them. */
+    private void stopRecoveryFiles()
+    {
+        if (this.editJournal != null) {
+            this.editJournal.discard();
+            this.editJournal = null;
+        }
+        if (this.autosaver != null) {
+            this.autosaver.discard();
+            this.autosaver = null;
+        }
+    }
+
+    /** Pass the current undo history state, reached by 'command', to
+      * the journal and autosaver, if any. */
+    private void recordChangeForRecovery(String command)
+    {
+        // The history's copy is never modified, so they can look at
+        // it after we return, on other threads.
+        Diagram snapshot = this.undoHistory.getCurrentDiagram();
+
+        if (this.editJournal != null) {
+            this.editJournal.record(command, snapshot);
+
+            String error = this.editJournal.getError();
+            if (error != null) {
+                this.log("edit journal disabled: "+error);
+                this.editJournal = null;
+            }
+        }
+
+        if (this.autosaver != null) {
+            this.autosaver.changed(snapshot);
+
+            String error = this.autosaver.takeError();
+            if (error != null) {
+                this.log("autosave failed: "+error);
+            }
+        }
+    }
+
+    /** Delete the edit journal and autosave file, since the user has
+      * chosen to exit without saving. */
+    public void discardRecoveryFiles()
+    {
+        this.stopRecoveryFiles();
+    }
+
     /** Set 'dirty' to true.  This is private because all other classes
       * are supposed to use 'diagramChanged'. */
     private void setDirty()
@@ -1442,7 +2391,13 @@ public class DiagramController extends JPanel
             title += " *";
         }
 
-        this.dedWindow.setTitle(title);
+        if (this.zoomLevel != 0) {
+            title += " ("+Math.round(this.getZoom()*100)+"%)";
+        }
+
+        if (this.dedWindow != null) {
+            this.dedWindow.setTitle(title);
+        }
     }
 
     // KeyListener methods I do not care about.
@@ -1460,7 +2415,10 @@ public class DiagramController extends JPanel
             }
             this.dragging = null;
             this.dragOffset = new Point(0,0);
-            this.dragCommandDescription = null;
+            this.dragMoved = false;
+            this.dragSelection = null;
+            this.dragDamageControllers = null;
+            this.dragEventPending = false;
         }
 
         if (m != Mode.DCM_RECT_LASSO) {
@@ -1527,28 +2485,20 @@ public class DiagramController extends JPanel
       * return null. */
     public Controller getUniqueSelected()
     {
-        Controller ret = null;
-
-        for (Controller c : this.controllers) {
-            if (c.isSelected()) {
-                if (ret != null) {
-                    return null;      // More than one is selected.
-                }
-                ret = c;
-            }
+        if (this.selection.size() != 1) {
+            return null;
         }
-
-        return ret;
+        return this.selection.iterator().next();
     }
 
     /** Get all selected controllers. */
     public IdentityHashSet<Controller> getAllSelected()
     {
-        return this.findControllers(new ControllerFilter() {
-            public boolean satisfies(Controller c) {
-                return c.isSelected();
-            }
-        });
+        IdentityHashSet<Controller> ret = new IdentityHashSet<Controller>();
+        for (Controller c : this.selection) {
+            ret.add(c);
+        }
+        return ret;
     }
 
     /** Edit the selected controller and associated entity, if any. */
@@ -1617,12 +2567,7 @@ public class DiagramController extends JPanel
     public boolean innerCopySelected(boolean isCutCommand)
     {
         // Get selected controllers.
-        ArrayList<Controller> selControllers = new ArrayList<Controller>();
-        for (Controller c : this.controllers) {
-            if (c.isSelected()) {
-                selControllers.add(c);
-            }
-        }
+        ArrayList<Controller> selControllers = new ArrayList<Controller>(this.selection);
         if (selControllers.isEmpty()) {
             this.errorMessageBox(fmt(isCutCommand?
                 "Nothing is selected to cut." :
@@ -1638,7 +2583,6 @@ public class DiagramController extends JPanel
 
         // Make sure the Diagram is well-formed.
         try {
-            // This is quadratic...
             copy.selfCheck();
         }
         catch (Throwable t) {
@@ -1646,8 +2590,9 @@ public class DiagramController extends JPanel
             return false;
         }
 
-        // Copy it as a string to the system clipboard.
-        StringSelection data = new StringSelection(copy.toJSONString());
+        // Copy it to the system clipboard.  Other programs will get it
+        // as a JSON string.
+        DiagramSelection data = new DiagramSelection(copy);
         Clipboard clipboard =
             Toolkit.getDefaultToolkit().getSystemClipboard();
         clipboard.setContents(data, data);
@@ -1682,6 +2627,12 @@ public class DiagramController extends JPanel
             }
             else {
                 try {
+                    // If this editor put it there, use it directly.
+                    Diagram local = DiagramSelection.getDiagram(clipData);
+                    if (local != null) {
+                        return local;
+                    }
+
                     if (clipData.isDataFlavorSupported(DataFlavor.stringFlavor)) {
                         selContents = (String)(clipData.getTransferData(
                             DataFlavor.stringFlavor));
@@ -1719,6 +2670,11 @@ public class DiagramController extends JPanel
             }
             else {
                 try {
+                    Diagram local = DiagramSelection.getDiagram(clipData);
+                    if (local != null) {
+                        return local;
+                    }
+
                     if (clipData.isDataFlavorSupported(DataFlavor.stringFlavor)) {
                         clipContents = (String)(clipData.getTransferData(
                             DataFlavor.stringFlavor));
@@ -1868,11 +2824,13 @@ public class DiagramController extends JPanel
       * SS_SELECTED. */
     public void normalizeExclusiveSelect()
     {
-        this.selectAccordingToFilter(new ControllerFilter() {
-            public boolean satisfies(Controller c) {
-                return c.isSelected();
-            }
-        });
+        // Copy the selection first, since changing the state of a
+        // controller can add or remove resize handles.
+        ArrayList<Controller> sel = new ArrayList<Controller>(this.selection);
+        for (Controller c : sel) {
+            c.setSelected(sel.size() == 1?
+                SelectionState.SS_EXCLUSIVE : SelectionState.SS_SELECTED);
+        }
     }
 
     /** Select a single controller. */
@@ -1888,11 +2846,168 @@ public class DiagramController extends JPanel
     {
         this.dragging = c;
         this.dragOffset = GeomUtil.subtract(pt, c.getLoc());
-        this.dragCommandDescription = null;
+        this.dragMoved = false;
+
+        // Forget anything left over from a previous drag, including a
+        // scheduled update, which will see the new generation.
+        this.dragGeneration++;
+        this.dragEventPending = false;
+        this.dragUpdateScheduled = false;
+        if (c.isSelected()) {
+            this.dragSelection = new ArrayList<Controller>(this.getSelectionSet());
+            this.dragDamageControllers = this.getDragDamageControllers(this.dragSelection);
+        }
         c.beginDragging(pt);
         this.setMode(Mode.DCM_DRAGGING);
     }
 
+    /** Return the controllers whose appearance can change when
+      * 'selection' is moved, or null if one of them does not report
+      * its paint bounds. */
+    private ArrayList<Controller> getDragDamageControllers(ArrayList<Controller> selection)
+    {
+        // Elements that will move.
+        IdentityHashSet<Object> moving = new IdentityHashSet<Object>();
+        for (Controller c : selection) {
+            if (c instanceof EntityController) {
+                moving.add(((EntityController)c).entity);
+            }
+            else if (c instanceof InheritanceController) {
+                moving.add(((InheritanceController)c).inheritance);
+            }
+        }
+
+        ArrayList<Controller> ret = new ArrayList<Controller>();
+        for (Controller c : this.controllers) {
+            boolean affected;
+            if (c.isSelected()) {
+                affected = true;
+            }
+            else if (c instanceof RelationController) {
+                Relation r = ((RelationController)c).relation;
+                affected = isMovingEndpoint(moving, r.start) ||
+                           isMovingEndpoint(moving, r.end);
+            }
+            else if (c instanceof InheritanceController) {
+                affected = moving.contains(((InheritanceController)c).inheritance.parent);
+            }
+            else if (c instanceof EntityController) {
+                affected = false;
+            }
+            else {
+                // Handles follow what they are attached to.  There are
+                // only a few of them.
+                affected = true;
+            }
+
+            if (affected) {
+                if (c.getPaintBounds() == null) {
+                    return null;
+                }
+                ret.add(c);
+            }
+        }
+        return ret;
+    }
+
+    /** True if 're' is attached to an element in 'moving'. */
+    private static boolean isMovingEndpoint(IdentityHashSet<Object> moving, RelationEndpoint re)
+    {
+        return (re.entity != null && moving.contains(re.entity)) ||
+               (re.inheritance != null && moving.contains(re.inheritance));
+    }
+
+    /** Move the dragged controller, and the rest of the selection if
+      * it is selected, to follow 'pendingDragPoint', if a mouse event
+      * has set it since this was last done. */
+    private void applyPendingDrag()
+    {
+        this.dragUpdateScheduled = false;
+        if (this.mode != Mode.DCM_DRAGGING || !this.dragEventPending) {
+            return;
+        }
+        this.dragEventPending = false;
+
+        // Where are we going to move the dragged object's main point?
+        int x = this.pendingDragPoint.x - this.dragOffset.x;
+        int y = this.pendingDragPoint.y - this.dragOffset.y;
+
+        // Snap if Shift not held.
+        if (this.pendingDragSnap) {
+            x = GeomUtil.snapInt(x, SNAP_DIST);
+            y = GeomUtil.snapInt(y, SNAP_DIST);
+        }
+
+        if (this.dragSelection == null) {
+            // Dragging item is not selected; must be a resize handle.
+            if (!this.dragMoved || x != this.dragDest.x || y != this.dragDest.y) {
+                this.dragDest.setLocation(x, y);
+                this.dragging.dragTo(new Point(x, y));
+                this.dragMoved = true;
+                this.repaint();
+            }
+            return;
+        }
+
+        // How far are we going to move the dragged object?
+        Point cur = this.dragging.getLoc();
+        int dx = x - cur.x;
+        int dy = y - cur.y;
+        if (dx == 0 && dy == 0) {
+            return;
+        }
+
+        Rectangle damage = this.getDragDamage(null);
+
+        // Move all selected controls by that amount.
+        for (Controller c : this.dragSelection) {
+            c.dragBy(dx, dy);
+        }
+        this.dragDest.setLocation(x, y);
+        this.dragMoved = true;
+
+        damage = this.getDragDamage(damage);
+        if (damage == null) {
+            this.repaint();
+        }
+        else {
+            this.repaintDiagramRect(damage);
+        }
+    }
+
+    /** Return the union of 'r', if not null, and the paint bounds of
+      * 'dragDamageControllers', or null if the latter is null. */
+    private Rectangle getDragDamage(Rectangle r)
+    {
+        if (this.dragDamageControllers == null) {
+            return null;
+        }
+        for (Controller c : this.dragDamageControllers) {
+            Rectangle b = c.getPaintBounds();
+            if (r == null) {
+                r = b;
+            }
+            else {
+                r.add(b);
+            }
+        }
+        return r;
+    }
+
+    /** Repaint the part of the component showing 'r', which is in
+      * diagram coordinates. */
+    private void repaintDiagramRect(Rectangle r)
+    {
+        double zoom = this.getZoom();
+        int x0 = (int)Math.floor(r.x * zoom);
+        int y0 = (int)Math.floor(r.y * zoom);
+        int x1 = (int)Math.ceil((r.x + r.width) * zoom);
+        int y1 = (int)Math.ceil((r.y + r.height) * zoom);
+
+        // One more pixel all around covers antialiasing.
+        this.repaint(x0-1, y0-1, x1-x0+2, y1-y0+2);
+    }
+
     /** Check internal invariants, throw assertion failure if violated. */
     public void selfCheck()
     {
@@ -1901,12 +3016,23 @@ public class DiagramController extends JPanel
         }
         else {
             assert(this.dragging == null);
-            assert(this.dragCommandDescription == null);
+            assert(!this.dragMoved);
+            assert(!this.dragEventPending);
         }
 
         for (Controller c : this.controllers) {
             c.globalSelfCheck(this.diagram);
         }
+
+        // 'selection' must be exactly the selected controllers.
+        int numSelected = 0;
+        for (Controller c : this.controllers) {
+            if (c.isSelected()) {
+                assert(this.selection.contains(c));
+                numSelected++;
+            }
+        }
+        assert(numSelected == this.selection.size());
     }
 
     /** Set the set of selected controllers to those in 'toSelect'. */
@@ -2003,6 +3129,7 @@ public class DiagramController extends JPanel
     public void add(Controller c)
     {
         this.controllers.add(c);
+        this.selectionChanged(c);
         this.repaint();
     }
 
@@ -2010,6 +3137,7 @@ public class DiagramController extends JPanel
     public void remove(Controller c)
     {
         this.controllers.remove(c);
+        this.selection.remove(c);
         this.repaint();
     }
 
@@ -2147,12 +3275,13 @@ public class DiagramController extends JPanel
         this.diagramChanged(fmt("Set line color to \"%1$s\"", colorName));
     }
 
-    /** Return a sequence containing all of the selected entity controllers. */
+    /** Return a sequence containing all of the selected entity
+      * controllers, in no particular order. */
     public ArrayList<EntityController> getSelectedEntities()
     {
         ArrayList<EntityController> ret = new ArrayList<EntityController>();
-        for (Controller c : this.controllers) {
-            if (c.isSelected() && c instanceof EntityController) {
+        for (Controller c : this.selection) {
+            if (c instanceof EntityController) {
                 ret.add((EntityController)c);
             }
         }
@@ -2280,31 +3409,73 @@ public class DiagramController extends JPanel
         }
 
         // Try to load the image from disk.
+        PerfMonitor.ImageDecodeEvent ev = new PerfMonitor.ImageDecodeEvent();
+        ev.begin();
+        ev.fileName = imageFileName;
+        long start = System.nanoTime();
+
         Image image = this.innerGetImage(imageFileName);
 
+        ev.success = (image != null);
+        ev.commit();
+        this.perfMonitor.recordSince(PerfMonitor.OP_IMAGE_DECODE, start);
+
         // Cache the result, whatever it was, even if null.
         this.imageCache.put(imageFileName, image);
 
         return image;
     }
 
-    /** Get an image for a file name, not using the cache.  If there
-      * is problem, log it and return null. */
-    private Image innerGetImage(String imageFileName)
+    /** Get the image for 'imageFileName' to draw at paint scale
+      * 'scale'.  When zoomed out, this is a reduced copy of the image,
+      * which is faster to draw and looks better.  Return null if it
+      * cannot be loaded. */
+    public Image getImageForPaint(String imageFileName, double scale)
+    {
+        Image image = this.getImage(imageFileName);
+        if (image == null || scale > 0.5) {
+            return image;
+        }
+
+        Mipmap m = this.mipmapCache.get(imageFileName);
+        if (m == null || m.getOriginal() != image) {
+            m = new Mipmap(image);
+            this.mipmapCache.put(imageFileName, m);
+        }
+        return m.getImageForScale(scale);
+    }
+
+    /** Return the file that 'imageFileName', as named by an entity,
+      * refers to. */
+    private File getImageFile(String imageFileName)
+    {
+        return getImageFile(this.fileName, imageFileName);
+    }
+
+    /** Return the file that 'imageFileName', as named by an entity in
+      * the diagram loaded from 'fileName', refers to. */
+    private static File getImageFile(String fileName, String imageFileName)
     {
         // What directory will we interpret a relative name as relative to?
         File relativeBase;
-        if (this.fileName.isEmpty()) {
+        if (fileName.isEmpty()) {
             // Use current working directory.
             relativeBase = Util.getWorkingDirectoryFile();
         }
         else {
             // Use the directory containing the diagram file.
-            relativeBase = new File(this.fileName).getParentFile();
+            relativeBase = new File(fileName).getParentFile();
         }
 
         // Combine the base with the specified file.
-        File imageFile = Util.getFileRelativeTo(relativeBase, imageFileName);
+        return Util.getFileRelativeTo(relativeBase, imageFileName);
+    }
+
+    /** Get an image for a file name, not using the cache.  If there
+      * is problem, log it and return null. */
+    private Image innerGetImage(String imageFileName)
+    {
+        File imageFile = this.getImageFile(imageFileName);
 
         // Try to load the file.
         FileInputStream is = null;
@@ -2341,6 +3512,7 @@ public class DiagramController extends JPanel
         this.log("image cache cleared at "+(new Date()));
 
         this.imageCache.clear();
+        this.mipmapCache.clear();
 
         // Reloading images might alter size-locked entity sizes.
         for (Controller c : this.controllers) {
@@ -2389,12 +3561,16 @@ public class DiagramController extends JPanel
     public void moveSelectedEntitiesToFrontOrBack(boolean front)
     {
         // Collect the selected entities and controllers in their
-        // current relative order.  I need 'selEntities' so I can
-        // call 'removeAll' and 'addAll' with them.
+        // current relative order, which 'getSelectedEntities' does not
+        // preserve.  I need 'selEntities' so I can call 'removeAll'
+        // and 'addAll' with them.
         ArrayList<Entity> selEntities = new ArrayList<Entity>();
-        ArrayList<EntityController> selControllers = this.getSelectedEntities();
-        for (EntityController ec : selControllers) {
-            selEntities.add(ec.entity);
+        ArrayList<EntityController> selControllers = new ArrayList<EntityController>();
+        for (Controller c : this.controllers) {
+            if (c.isSelected() && c instanceof EntityController) {
+                selControllers.add((EntityController)c);
+                selEntities.add(((EntityController)c).entity);
+            }
         }
 
         if (selEntities.isEmpty()) {
@@ -2426,10 +3602,60 @@ public class DiagramController extends JPanel
             "Move to back"));
     }
 
+    @Override
+    public void addNotify()
+    {
+        super.addNotify();
+
+        // Hook up to the viewport the first time we are put into one.
+        if (this.viewport == null && this.getParent() instanceof JViewport) {
+            this.viewport = (JViewport)this.getParent();
+            this.viewport.addComponentListener(this);
+            this.viewport.addChangeListener(new ChangeListener() {
+                @Override
+                public void stateChanged(ChangeEvent e) {
+                    DiagramController.this.viewportChanged();
+                }
+            });
+            this.lastViewportSize = this.viewport.getExtentSize();
+            this.updateCanvasSize();
+        }
+    }
+
+    /** React to the viewport scrolling. */
+    private void viewportChanged()
+    {
+        // The viewport only repaints the newly exposed area, but the
+        // overlays are drawn relative to the visible area, so they
+        // would be left behind.
+        if (this.mode != Mode.DCM_SELECT ||
+            this.fpsMeasurementMode ||
+            debugFocus)
+        {
+            this.repaint();
+        }
+    }
+
     @Override
     public void componentResized(ComponentEvent e)
     {
-        this.diagram.windowSize = this.getSize();
+        // This is the viewport being resized.
+        Dimension size = this.viewport.getExtentSize();
+
+        // If the whole diagram window was visible, it follows the
+        // size of the viewport.  Otherwise, the window is bigger than
+        // the screen area given to it, and the user is scrolling
+        // around in it, so leave it alone.  While zoomed, the window
+        // size does not correspond to any size in diagram
+        // coordinates, so also leave the diagram's alone.
+        if (this.zoomLevel == 0 &&
+            this.lastViewportSize.width >= this.diagram.windowSize.width &&
+            this.lastViewportSize.height >= this.diagram.windowSize.height)
+        {
+            this.diagram.windowSize = size;
+            this.setPreferredSize(size);
+        }
+        this.lastViewportSize = size;
 
         // I do not set the dirty bit here because resizing is not a
         // very important action, and I'm having some trouble avoiding
@@ -2441,6 +3667,46 @@ public class DiagramController extends JPanel
     @Override public void componentShown(ComponentEvent e) {}
     @Override public void componentHidden(ComponentEvent e) {}
 
+    // ---------- Scrollable ----------
+    @Override
+    public Dimension getPreferredScrollableViewportSize()
+    {
+        return this.getPreferredSize();
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect,
+                                          int orientation, int direction)
+    {
+        return wheelPanDistance;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect,
+                                           int orientation, int direction)
+    {
+        // Leave a little of the previous page visible for context.
+        int page = (orientation == SwingConstants.HORIZONTAL?
+                       visibleRect.width : visibleRect.height);
+        return Math.max(wheelPanDistance, page - wheelPanDistance);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth()
+    {
+        // Stretch to fill the viewport when the diagram is smaller,
+        // so the whole area can be clicked on and painted.
+        return this.viewport != null &&
+               this.viewport.getWidth() > this.getPreferredSize().width;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight()
+    {
+        return this.viewport != null &&
+               this.viewport.getHeight() > this.getPreferredSize().height;
+    }
+
     @Override
     public void focusGained(FocusEvent e)
     {
@@ -2462,14 +3728,14 @@ public class DiagramController extends JPanel
     /** Return a resource image, using an internal cache. */
     public Image getResourceImage(String resourceName)
     {
-        return this.dedWindow.resourceImageCache.getResourceImage(resourceName);
+        return this.resourceImageCache.getResourceImage(resourceName);
     }
 
     /** Swap the endpoint arrowheads for all selected relations. */
     public void swapSelectedRelationEndpoints()
     {
-        for (Controller c : this.controllers) {
-            if (c.isSelected() && c instanceof RelationController) {
+        for (Controller c : this.selection) {
+            if (c instanceof RelationController) {
                 RelationController rc = (RelationController)c;
                 rc.relation.swapArrows();
             }
@@ -2480,15 +3746,15 @@ public class DiagramController extends JPanel
     /** Set every selected entity that has a line style to style 'lds'. */
     public void setSelectedEntitiesLineDashStyle(LineDashStyle lds)
     {
-        for (Controller c : this.controllers) {
-            if (c.isSelected() && c instanceof RelationController) {
+        for (Controller c : this.selection) {
+            if (c instanceof RelationController) {
                 RelationController rc = (RelationController)c;
                 if (lds.dashStructureString == null) {
-                    rc.relation.dashStructure = new ArrayList<Integer>();
+                    rc.relation.dashStructure = Interner.solidDashStructure;
                 }
                 else {
-                    rc.relation.dashStructure =
-                        RelationDialog.stringToDashStructure(lds.dashStructureString);
+                    rc.relation.dashStructure = Interner.internDashStructure(
+                        RelationDialog.stringToDashStructure(lds.dashStructureString));
                 }
             }
         }
@@ -2500,7 +3766,8 @@ public class DiagramController extends JPanel
     {
         if (this.undoHistory.canUndo()) {
             this.setDiagram(this.undoHistory.undo());
-            this.undoHistoryWindow.updateHistory();
+            this.updateUndoHistoryWindow();
+            this.recordChangeForRecovery(localize("Undo"));
         }
         else {
             this.errorMessageBox("Cannot undo because there is no further undo history.");
@@ -2512,7 +3779,8 @@ public class DiagramController extends JPanel
     {
         if (this.undoHistory.canRedo()) {
             this.setDiagram(this.undoHistory.redoMostRecent());
-            this.undoHistoryWindow.updateHistory();
+            this.updateUndoHistoryWindow();
+            this.recordChangeForRecovery(localize("Redo"));
         }
         else {
             this.errorMessageBox("Cannot redo because there are no more redo states on this future.");
@@ -2523,7 +3791,8 @@ public class DiagramController extends JPanel
     public void editRedoAlternate(int whichRedo)
     {
         this.setDiagram(this.undoHistory.redo(whichRedo));
-        this.undoHistoryWindow.updateHistory();
+        this.updateUndoHistoryWindow();
+        this.recordChangeForRecovery(localize("Redo"));
     }
 
     /** Show the Undo History window. */
@@ -2537,11 +3806,40 @@ public class DiagramController extends JPanel
         this.undoHistoryWindow.setVisible(true);
     }
 
+    /** Show the Performance window. */
+    public void showPerformanceWindow()
+    {
+        if (this.performanceWindow == null) {
+            this.performanceWindow = new PerformanceWindow(this.perfMonitor, this);
+        }
+        this.performanceWindow.setVisible(true);
+    }
+
     /** Dispose of any windows we own, since the enclosing window is
       * being disposed. */
     public void disposeOwnedWindows()
     {
-        this.undoHistoryWindow.dispose();
+        if (this.undoHistoryWindow != null) {
+            this.undoHistoryWindow.dispose();
+        }
+        if (this.performanceWindow != null) {
+            this.performanceWindow.dispose();
+        }
+    }
+
+    /** Bring the undo history window, if any, up to date. */
+    private void updateUndoHistoryWindow()
+    {
+        if (this.undoHistoryWindow != null) {
+            this.undoHistoryWindow.updateHistory();
+        }
+    }
+
+    /** Return the controllers, in drawing order.  This has package
+      * access for RenderBenchmark, which must not modify the list. */
+    ArrayList<Controller> getControllers()
+    {
+        return this.controllers;
     }
 
     /** Return the undo history object.  It is intended that callers
@@ -2574,12 +3872,23 @@ public class DiagramController extends JPanel
     /** Rebuild the "Redo Alternate" sub-menu. */
     public void populateRedoAlternateMenu()
     {
+        if (this.dedWindow == null) {
+            return;
+        }
+
         JMenu redoSubmenu = this.dedWindow.redoSubmenu;
+        if (this.undoHistory.numRedos() < 2 &&
+            !redoSubmenu.isEnabled() &&
+            redoSubmenu.getMenuComponentCount() == 0)
+        {
+            // This is the common case, and the menu already shows it,
+            // so avoid rebuilding it after every edit.
+            return;
+        }
         redoSubmenu.removeAll();
 
         ArrayList<String> futures = this.undoHistory.describeRedos();
         if (futures.size() < 2) {
-            // This is the common case.
             redoSubmenu.setEnabled(false);
         }
         else {
@@ -0,0 +1,101 @@
+// DiagramSelection.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.ClipboardOwner;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.Transferable;
+import java.awt.datatransfer.UnsupportedFlavorException;
+
+import java.io.IOException;
+
+import ded.model.Diagram;
+
+/** Transferable holding diagram elements that were copied.
+  *
+  * Within the editor's JVM, the elements are transferred as a Diagram,
+  * using 'diagramFlavor', so pasting does not have to parse anything.
+  * Other programs see only 'DataFlavor.stringFlavor', the diagram
+  * JSON, which is not made until one of them asks for it. */
+public class DiagramSelection implements Transferable, ClipboardOwner {
+    // ---------- constants ----------
+    /** Flavor for a Diagram transferred within this JVM. */
+    public static final DataFlavor diagramFlavor =
+        new DataFlavor(DataFlavor.javaJVMLocalObjectMimeType+
+                           ";class="+Diagram.class.getName(),
+                       "DED diagram");
+
+    // ---------- data ----------
+    /** The copied elements.  This is never modified, and never given
+      * out; every transfer gets a deep copy. */
+    private final Diagram diagram;
+
+    /** JSON for 'diagram', or null if it has not been asked for yet.
+      * Protected by 'this'. */
+    private String json = null;
+
+    // ---------- methods ----------
+    /** Make a selection of 'diagram', which the caller must not
+      * modify afterward. */
+    public DiagramSelection(Diagram diagram)
+    {
+        this.diagram = diagram;
+    }
+
+    /** Return the diagram JSON, making it if necessary. */
+    private synchronized String getJSON()
+    {
+        if (this.json == null) {
+            this.json = this.diagram.toJSONString();
+        }
+        return this.json;
+    }
+
+    /** If 't' carries a diagram within this JVM, return a copy of it
+      * that the caller may keep.  Otherwise return null. */
+    public static Diagram getDiagram(Transferable t)
+        throws UnsupportedFlavorException, IOException
+    {
+        if (!t.isDataFlavorSupported(diagramFlavor)) {
+            return null;
+        }
+        return (Diagram)t.getTransferData(diagramFlavor);
+    }
+
+    // ---------- Transferable ----------
+    @Override
+    public DataFlavor[] getTransferDataFlavors()
+    {
+        return new DataFlavor[] { diagramFlavor, DataFlavor.stringFlavor };
+    }
+
+    @Override
+    public boolean isDataFlavorSupported(DataFlavor flavor)
+    {
+        return flavor.equals(diagramFlavor) || flavor.equals(DataFlavor.stringFlavor);
+    }
+
+    @Override
+    public Object getTransferData(DataFlavor flavor)
+        throws UnsupportedFlavorException
+    {
+        if (flavor.equals(diagramFlavor)) {
+            return this.diagram.deepCopy();
+        }
+        if (flavor.equals(DataFlavor.stringFlavor)) {
+            return this.getJSON();
+        }
+        throw new UnsupportedFlavorException(flavor);
+    }
+
+    // ---------- ClipboardOwner ----------
+    @Override
+    public void lostOwnership(Clipboard clipboard, Transferable contents)
+    {
+        // Nothing to do.
+    }
+}
+
+// EOF
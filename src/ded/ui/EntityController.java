@@ -273,6 +273,13 @@ public class EntityController extends Controller
         // drag, which is slightly wrong, but I think acceptable.
     }
 
+    @Override
+    public void dragBy(int dx, int dy)
+    {
+        // As with 'dragTo', the diagram change is recorded on release.
+        this.entity.loc.translate(dx, dy);
+    }
+
     @Override
     public void paintSelectionBackground(Graphics g0)
     {
@@ -291,6 +298,25 @@ public class EntityController extends Controller
         }
     }
 
+    @Override
+    public Rectangle getPaintBounds()
+    {
+        Rectangle r = this.entity.getRect();
+
+        // Cuboid sides extend outside the rectangle by amounts given
+        // by the shape parameters.
+        int grow = selectionBoxExpansion;
+        int[] params = this.entity.shapeParams;
+        if (this.entity.shape == EntityShape.ES_CUBOID &&
+            params != null && params.length >= 2)
+        {
+            grow = Math.max(grow, Math.max(Math.abs(params[0]), Math.abs(params[1])));
+        }
+
+        r.grow(grow+1, grow+1);
+        return r;
+    }
+
     /** Draw 'str' in 'r', centered vertically, and horizontally aligned per 'align'. */
     public void drawAlignedText(Graphics g0, Rectangle r, String str, TextAlign align)
     {
@@ -325,12 +351,18 @@ public class EntityController extends Controller
     }
 
     @Override
-    public void paint(Graphics g0)
+    public void paint(Graphics g0, RenderContext rc)
     {
         Graphics g = g0.create();
 
         // Get bounding rectangle.
         Rectangle r = this.entity.getRect();
+        boolean selected = rc.showSelected(this);
+
+        if (rc.lowDetail) {
+            this.paintLowDetail(g, r, rc);
+            return;
+        }
 
         // If cuboid, draw visible side faces beside the front face,
         // outside 'r'.
@@ -345,18 +377,18 @@ public class EntityController extends Controller
         // want it unless we are selected, since in that case,
         // super.paint already painted the background in the
         // selection color.
-        boolean wantSolidBackground = !this.isSelected();
+        boolean wantSolidBackground = !selected;
 
         // Image background.
         if (!this.entity.imageFileName.isEmpty()) {
-            this.drawImage(g, r);
+            this.drawImage(g, r, rc.scale);
 
             // Do not draw a solid background; the image will
             // act as the background.
             wantSolidBackground = false;
         }
 
-        if (this.isSelected() && this.entity.shape == EntityShape.ES_WINDOW) {
+        if (selected && this.entity.shape == EntityShape.ES_WINDOW) {
             // Draw the auto-resize location.
             g.setColor(windowResizeCenterHandleColor);
 
@@ -514,7 +546,7 @@ public class EntityController extends Controller
 
         // Try to make sure selected objects are noticeable, even when
         // using a fill image.
-        if (this.isSelected()) {
+        if (selected) {
             // Must be white to ensure that at least one bit is flipped.
             g.setXORMode(Color.WHITE);
 
@@ -530,6 +562,27 @@ public class EntityController extends Controller
         }
     }
 
+    /** Paint a simplified version of the entity in 'r', for when the
+      * diagram is zoomed far enough out that detail would not be
+      * legible: just its image or fill color, and an outline. */
+    private void paintLowDetail(Graphics g, Rectangle r, RenderContext rc)
+    {
+        if (!this.entity.imageFileName.isEmpty()) {
+            Graphics g2 = g.create();
+            g2.clipRect(r.x, r.y, r.width, r.height);
+            this.drawImage(g2, r, rc.scale);
+        }
+        else if (!rc.showSelected(this) && this.entity.shape != EntityShape.ES_NO_SHAPE) {
+            g.setColor(this.getFillColor());
+            g.fillRect(r.x, r.y, r.width, r.height);
+        }
+
+        if (this.entity.shape != EntityShape.ES_NO_SHAPE) {
+            g.setColor(this.getLineColor());
+            g.drawRect(r.x, r.y, r.width-1, r.height-1);
+        }
+    }
+
     /** Draw the window operations menu button in left end of 'titleRect',
       * updating it to reflect the remaining space. */
     private void drawWindowTitleButton(
@@ -567,8 +620,8 @@ public class EntityController extends Controller
         }
     }
 
-    /** Draw the named image onto 'g' in 'r'. */
-    public void drawImage(Graphics g, Rectangle r)
+    /** Draw the named image onto 'g' in 'r', when painting at 'scale'. */
+    public void drawImage(Graphics g, Rectangle r, double scale)
     {
         Image image = this.diagramController.getImage(this.entity.imageFileName);
         if (image == null) {
@@ -576,6 +629,10 @@ public class EntityController extends Controller
             return;
         }
 
+        // Geometry below is computed using the full-size image, but
+        // what gets drawn may be a reduced copy; see 'drawImagePart'.
+        Image drawn = this.diagramController.getImageForPaint(this.entity.imageFileName, scale);
+
         ImageFillStyle ifs = this.entity.imageFillStyle;
         int imageWidth = image.getWidth(null);
         int imageHeight = image.getHeight(null);
@@ -600,39 +657,58 @@ public class EntityController extends Controller
                 // I first tried the simplest drawImage call, but it is
                 // significantly slower than specifying all of the
                 // coordinates, even when the image is not clipped (?).
-                //
-                // The API docs do not say that it is ok to pass null
-                // as the observer, but I saw code that did it online,
-                // and so far it seems to work.
-                g.drawImage(image, r.x, r.y, r.x + w, r.y + h,
-                                   0,0, w, h, null);
+                drawImagePart(g, image, drawn, r.x, r.y, r.x + w, r.y + h,
+                                               0,0, w, h);
                 break;
             }
 
             case IFS_CENTER:
-                g.drawImage(image, r.x + r.width/2 - imageWidth/2,
-                                   r.y + r.height/2 - imageHeight/2,
-                                   r.x + r.width/2 + imageWidth/2,
-                                   r.y + r.height/2 + imageHeight/2,
-                                   0,0, imageWidth, imageHeight, null);
+                drawImagePart(g, image, drawn, r.x + r.width/2 - imageWidth/2,
+                                               r.y + r.height/2 - imageHeight/2,
+                                               r.x + r.width/2 + imageWidth/2,
+                                               r.y + r.height/2 + imageHeight/2,
+                                               0,0, imageWidth, imageHeight);
                 break;
 
             case IFS_STRETCH:
-                g.drawImage(image, r.x, r.y, r.x+r.width, r.y+r.height,
-                                   0,0, imageWidth, imageHeight, null);
+                drawImagePart(g, image, drawn, r.x, r.y, r.x+r.width, r.y+r.height,
+                                               0,0, imageWidth, imageHeight);
                 break;
 
             case IFS_TILE:
                 for (int x = r.x; x < r.x+r.width; x += imageWidth) {
                     for (int y = r.y; y < r.y+r.height; y += imageWidth) {
-                        g.drawImage(image, x, y, x+imageWidth, y+imageHeight,
-                                    0,0, imageWidth, imageHeight, null);
+                        drawImagePart(g, image, drawn, x, y, x+imageWidth, y+imageHeight,
+                                                       0,0, imageWidth, imageHeight);
                     }
                 }
                 break;
         }
     }
 
+    /** Draw the part of 'image' in source rectangle ('sx1','sy1')
+      * to ('sx2','sy2') onto the destination rectangle.  'drawn' is
+      * either 'image' or a reduced copy of it, in which case the
+      * source coordinates are scaled to match. */
+    private static void drawImagePart(Graphics g, Image image, Image drawn,
+                                      int dx1, int dy1, int dx2, int dy2,
+                                      int sx1, int sy1, int sx2, int sy2)
+    {
+        if (drawn != image) {
+            double fx = (double)drawn.getWidth(null) / image.getWidth(null);
+            double fy = (double)drawn.getHeight(null) / image.getHeight(null);
+            sx1 = (int)Math.round(sx1 * fx);
+            sy1 = (int)Math.round(sy1 * fy);
+            sx2 = Math.max(sx1+1, (int)Math.round(sx2 * fx));
+            sy2 = Math.max(sy1+1, (int)Math.round(sy2 * fy));
+        }
+
+        // The API docs do not say that it is ok to pass null
+        // as the observer, but I saw code that did it online,
+        // and so far it seems to work.
+        g.drawImage(drawn, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+    }
+
     /** Draw an indicator on 'r' that we could not load the image. */
     private void drawBrokenImageIndicator(Graphics g0, Rectangle r)
     {
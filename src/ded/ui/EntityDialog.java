@@ -33,6 +33,7 @@ import ded.model.Diagram;
 import ded.model.Entity;
 import ded.model.EntityShape;
 import ded.model.ImageFillStyle;
+import ded.model.Interner;
 import ded.model.ShapeFlag;
 import ded.model.TextAlign;
 
@@ -416,9 +417,11 @@ public class EntityDialog extends ModalDialog
             return;
         }
 
-        String fillColor = (String)this.fillColorChooser.getSelectedItem();
-        String lineColor = (String)this.lineColorChooser.getSelectedItem();
-        String textColor = (String)this.textColorChooser.getSelectedItem();
+        // A color typed into the box is a new string each time, so
+        // intern them to share with other entities.
+        String fillColor = Interner.intern((String)this.fillColorChooser.getSelectedItem());
+        String lineColor = Interner.intern((String)this.lineColorChooser.getSelectedItem());
+        String textColor = Interner.intern((String)this.textColorChooser.getSelectedItem());
 
         ImageFillStyle imageFillStyle = (ImageFillStyle)this.imageFillStyleChooser.getSelectedItem();
 
@@ -443,7 +446,7 @@ public class EntityDialog extends ModalDialog
         this.entity.size.width = w;
         this.entity.size.height = h;
         this.entity.anchorName = this.anchorNameText.getText();
-        this.entity.imageFileName = this.imageFileNameText.getText();
+        this.entity.imageFileName = Interner.intern(this.imageFileNameText.getText());
         this.entity.imageFillStyle = imageFillStyle;
 
         // Not completely general at this time.
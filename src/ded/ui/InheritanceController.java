@@ -3,7 +3,6 @@
 
 package ded.ui;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
@@ -19,10 +18,12 @@ import java.util.Set;
 import util.IntRange;
 import util.awt.GeomUtil;
 import util.awt.HorizOrVert;
+import util.awt.IntPointList;
 import util.swing.SwingUtil;
 
 import ded.model.Diagram;
 import ded.model.Inheritance;
+import ded.model.Interner;
 import ded.model.RelationEndpoint;
 
 import static util.StringUtil.localize;
@@ -177,9 +178,21 @@ public class InheritanceController extends Controller {
     }
 
     @Override
-    public void paint(Graphics g0)
+    public Rectangle getPaintBounds()
     {
-        super.paint(g0);
+        // The triangle, plus the line to the parent, which stays
+        // within the bounding box of the parent and the triangle tip.
+        Rectangle r = new Rectangle(this.inheritance.pt);
+        r.grow(height + selectionBoxMargin, height + selectionBoxMargin);
+        r.add(this.inheritance.parent.getRect());
+        r.grow(inheritLineWidth, inheritLineWidth);
+        return r;
+    }
+
+    @Override
+    public void paint(Graphics g0, RenderContext rc)
+    {
+        super.paint(g0, rc);
 
         Graphics2D g = (Graphics2D)(g0.create());
 
@@ -196,8 +209,8 @@ public class InheritanceController extends Controller {
 
         // Triangle outline.
         g.setColor(inheritLineColor);
-        g.setStroke(new BasicStroke(
-            inheritLineWidth, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER));
+        g.setStroke(this.diagramController.strokeCache.getLineStroke(
+            inheritLineWidth, Interner.solidDashStructure));
         g.drawPolygon(trianglePolygon);
 
         // Preferred dimension for line leaving parent, if we must turn
@@ -208,7 +221,7 @@ public class InheritanceController extends Controller {
 
         // Determine the point of emergence from parent such that we are
         // set up to hit the tip of the triangle.
-        ArrayList<Point> linePoints = new ArrayList<Point>();
+        IntPointList linePoints = new IntPointList();
         RelationEndpoint parent = new RelationEndpoint(this.inheritance.parent);
         linePoints.add(RelationController.manhattan_getEndpointEmergence(
             parent, preferredHV, tip));
@@ -239,6 +252,12 @@ public class InheritanceController extends Controller {
         this.inheritance.pt = pt;
     }
 
+    @Override
+    public void dragBy(int dx, int dy)
+    {
+        this.inheritance.pt.translate(dx, dy);
+    }
+
     @Override
     public void deleteSelfAndData(Diagram diagram)
     {
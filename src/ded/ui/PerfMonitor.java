@@ -0,0 +1,231 @@
+// PerfMonitor.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import util.RollingHistogram;
+
+/** Timing instrumentation for the diagram editor.
+  *
+  * Each instrumented operation does two things: it commits a JDK
+  * Flight Recorder event, so a recording taken with, e.g.,
+  *
+  *   java -XX:StartFlightRecording=filename=ded.jfr -jar dist/ded.jar
+  *
+  * contains structured timing alongside the JVM's own events, and it
+  * adds its duration to a RollingHistogram that PerformanceWindow
+  * shows live.
+  *
+  * The events are cheap when no recording is active, and recording
+  * into a histogram does not allocate, so this is always on. */
+public class PerfMonitor {
+    // ---------- operation names ----------
+    public static final String OP_PAINT = "paint frame";
+    public static final String OP_HIT_TEST = "hitTest";
+    public static final String OP_CHANGE_SNAPSHOT = "diagramChanged: undo snapshot";
+    public static final String OP_CHANGE_HISTORY_WINDOW = "diagramChanged: undo window";
+    public static final String OP_CHANGE_REDO_MENU = "diagramChanged: redo menu";
+    public static final String OP_SAVE_JSON = "save: JSON";
+    public static final String OP_SAVE_PNG = "save: PNG";
+    public static final String OP_LOAD = "load";
+    public static final String OP_IMAGE_DECODE = "image decode";
+
+    /** Number of samples each histogram retains. */
+    public static final int histogramCapacity = 1000;
+
+    // ---------- JFR events ----------
+    @Name("ded.Paint")
+    @Label("Paint Frame")
+    @Category("Diagram Editor")
+    @Description("One repaint of the diagram area.")
+    public static class PaintEvent extends Event {
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+
+        @Label("Controllers")
+        public int controllers;
+    }
+
+    @Name("ded.HitTest")
+    @Label("Hit Test")
+    @Category("Diagram Editor")
+    @Description("Search for the controller under a point.")
+    public static class HitTestEvent extends Event {
+        @Label("Controllers")
+        public int controllers;
+
+        @Label("Hit")
+        public boolean hit;
+    }
+
+    @Name("ded.DiagramChanged")
+    @Label("Diagram Changed")
+    @Category("Diagram Editor")
+    @Description("Bookkeeping after a user edit, broken down by phase.")
+    public static class DiagramChangedEvent extends Event {
+        @Label("Command")
+        public String command;
+
+        @Label("Undo Snapshot Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long snapshotTime;
+
+        @Label("Undo Window Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long historyWindowTime;
+
+        @Label("Redo Menu Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long redoMenuTime;
+    }
+
+    @Name("ded.Save")
+    @Label("Save")
+    @Category("Diagram Editor")
+    @Description("Saving a diagram, broken down by phase.")
+    public static class SaveEvent extends Event {
+        @Label("File Name")
+        public String fileName;
+
+        @Label("JSON Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long jsonTime;
+
+        @Label("PNG Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long pngTime;
+
+        @Label("PNG Unchanged")
+        public boolean pngUnchanged;
+    }
+
+    @Name("ded.Load")
+    @Label("Load")
+    @Category("Diagram Editor")
+    @Description("Loading a diagram from a file.")
+    public static class LoadEvent extends Event {
+        @Label("File Name")
+        public String fileName;
+
+        @Label("Entities")
+        public int entities;
+    }
+
+    @Name("ded.ImageDecode")
+    @Label("Image Decode")
+    @Category("Diagram Editor")
+    @Description("Reading an entity image file.")
+    public static class ImageDecodeEvent extends Event {
+        @Label("File Name")
+        public String fileName;
+
+        @Label("Success")
+        public boolean success;
+    }
+
+    // ---------- data ----------
+    /** Histogram for each operation, in the order they are shown. */
+    private LinkedHashMap<String, RollingHistogram> histograms =
+        new LinkedHashMap<String, RollingHistogram>();
+
+    // ---------- methods ----------
+    public PerfMonitor()
+    {
+        String[] ops = {
+            OP_PAINT,
+            OP_HIT_TEST,
+            OP_CHANGE_SNAPSHOT,
+            OP_CHANGE_HISTORY_WINDOW,
+            OP_CHANGE_REDO_MENU,
+            OP_SAVE_JSON,
+            OP_SAVE_PNG,
+            OP_LOAD,
+            OP_IMAGE_DECODE,
+        };
+        for (String op : ops) {
+            this.histograms.put(op, new RollingHistogram(histogramCapacity));
+        }
+    }
+
+    /** Record that 'op' took 'nanos'. */
+    public void record(String op, long nanos)
+    {
+        this.histograms.get(op).record(nanos);
+    }
+
+    /** Record that 'op' started at System.nanoTime() 'startNanos' and
+      * has just finished.  Return the elapsed time. */
+    public long recordSince(String op, long startNanos)
+    {
+        long elapsed = System.nanoTime() - startNanos;
+        this.record(op, elapsed);
+        return elapsed;
+    }
+
+    /** Discard all samples. */
+    public void clear()
+    {
+        for (RollingHistogram h : this.histograms.values()) {
+            h.clear();
+        }
+    }
+
+    /** Return a plain-text table summarizing all histograms. */
+    public String getReport()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-30s %8s %9s %9s %9s %9s\n",
+            "Operation", "Count", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, RollingHistogram> e : this.histograms.entrySet()) {
+            long[] s = e.getValue().getSortedSamples();
+            sb.append(String.format("%-30s %8d %9.3f %9.3f %9.3f %9.3f\n",
+                e.getKey(),
+                e.getValue().getTotalCount(),
+                RollingHistogram.percentile(s, 50) / 1e6,
+                RollingHistogram.percentile(s, 90) / 1e6,
+                RollingHistogram.percentile(s, 99) / 1e6,
+                RollingHistogram.percentile(s, 100) / 1e6));
+        }
+
+        sb.append("\nDistribution of the last "+histogramCapacity+
+                  " samples of each operation:\n\n");
+        sb.append(String.format("%-30s", "Operation"));
+        for (long limit : RollingHistogram.bucketLimitsMicros) {
+            sb.append(String.format(" %8s", "<="+formatMicros(limit)));
+        }
+        sb.append(String.format(" %8s\n", "more"));
+        for (Map.Entry<String, RollingHistogram> e : this.histograms.entrySet()) {
+            sb.append(String.format("%-30s", e.getKey()));
+            for (int c : RollingHistogram.bucketCounts(e.getValue().getSortedSamples())) {
+                sb.append(String.format(" %8d", c));
+            }
+            sb.append("\n");
+        }
+
+        return sb.toString();
+    }
+
+    /** Format a bucket limit compactly. */
+    private static String formatMicros(long micros)
+    {
+        if (micros < 1000) {
+            return micros+"us";
+        }
+        return (micros/1000)+"ms";
+    }
+}
+
+// EOF
@@ -0,0 +1,171 @@
+// PerformanceWindow.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.awt.Container;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+import util.swing.ModalDialog;
+import util.swing.SwingUtil;
+
+/** Window showing the timing histograms collected by PerfMonitor. */
+public class PerformanceWindow extends JFrame {
+    // ---- constants ----
+    private static final long serialVersionUID = 4816352034011279533L;
+
+    /** Milliseconds between refreshes while visible. */
+    private static final int refreshMillis = 1000;
+
+    // ---- data ----
+    /** Source of the data we show. */
+    public PerfMonitor perfMonitor;
+
+    /** Editor whose undo history size we show. */
+    public DiagramController diagramController;
+
+    /** Text display of the report. */
+    public JTextArea reportTextArea;
+
+    /** Timer that refreshes the report while we are visible. */
+    private Timer refreshTimer;
+
+    // ---- methods ----
+    public PerformanceWindow(PerfMonitor pm, DiagramController dc)
+    {
+        super("Performance");
+        this.perfMonitor = pm;
+        this.diagramController = dc;
+        this.setSize(800,450);
+
+        Container content = this.getContentPane();
+        content.setLayout(new BoxLayout(content, BoxLayout.Y_AXIS));
+
+        Box vb = Box.createVerticalBox();
+        content.add(vb);
+
+        this.reportTextArea = new JTextArea();
+        this.reportTextArea.setEditable(false);
+        this.reportTextArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        vb.add(new JScrollPane(this.reportTextArea));
+
+        vb.add(Box.createVerticalStrut(ModalDialog.CONTROL_PADDING));
+
+        // Button panel along the bottom.
+        Box buttons = Box.createHorizontalBox();
+        vb.add(buttons);
+
+        buttons.add(Box.createRigidArea(new Dimension(ModalDialog.CONTROL_PADDING, 0)));
+
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                PerformanceWindow.this.perfMonitor.clear();
+                PerformanceWindow.this.refresh();
+            }
+        });
+        buttons.add(resetButton);
+
+        buttons.add(Box.createHorizontalGlue());
+        buttons.add(Box.createRigidArea(new Dimension(ModalDialog.CONTROL_PADDING, 0)));
+
+        JButton helpButton = new JButton("Help");
+        helpButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                PerformanceWindow.this.displayHelp();
+            }
+        });
+        buttons.add(helpButton);
+        buttons.add(Box.createRigidArea(new Dimension(ModalDialog.CONTROL_PADDING, 0)));
+
+        JButton closeButton = new JButton("Close");
+        closeButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                PerformanceWindow.this.setVisible(false);
+            }
+        });
+        buttons.add(closeButton);
+        buttons.add(Box.createRigidArea(new Dimension(ModalDialog.CONTROL_PADDING, 0)));
+
+        vb.add(Box.createVerticalStrut(ModalDialog.CONTROL_PADDING));
+
+        this.refreshTimer = new Timer(refreshMillis, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                PerformanceWindow.this.refresh();
+            }
+        });
+    }
+
+    /** Redisplay the current report. */
+    public void refresh()
+    {
+        Runtime rt = Runtime.getRuntime();
+        long usedKB = (rt.totalMemory() - rt.freeMemory()) / 1024;
+        this.reportTextArea.setText(
+            this.perfMonitor.getReport() +
+            "\nUndo history: "+this.diagramController.getUndoHistory().describeSize()+
+            "\nJava heap: "+usedKB+" KB used of "+(rt.maxMemory() / 1024)+" KB maximum\n");
+    }
+
+    @Override
+    public void setVisible(boolean b)
+    {
+        // Only spend time refreshing while someone can see it.
+        if (b) {
+            this.refresh();
+            this.refreshTimer.start();
+        }
+        else {
+            this.refreshTimer.stop();
+        }
+        super.setVisible(b);
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.refreshTimer.stop();
+        super.dispose();
+    }
+
+    /** Show the help dialog for this window. */
+    public void displayHelp()
+    {
+        SwingUtil.informationMessageBox(this, "Performance Help",
+            "This window shows how long various editor operations have "+
+            "taken recently.  The first table has percentiles over the "+
+            "last "+PerfMonitor.histogramCapacity+" occurrences of each "+
+            "operation; the count is of all occurrences since the editor "+
+            "started or Reset was pressed.  The second table shows how "+
+            "many of those recent occurrences fell in each time range.  "+
+            "Below the tables are the size of the undo history, with an "+
+            "estimate of the memory its diagrams occupy, and the current "+
+            "Java heap usage.\n\n"+
+
+            "The same measurements are emitted as Java Flight Recorder "+
+            "events in the \"Diagram Editor\" category.  To capture them, "+
+            "start the editor with:\n\n"+
+
+            "  java -XX:StartFlightRecording=filename=ded.jfr -jar dist/ded.jar\n\n"+
+
+            "then reproduce the problem and exit.  The resulting ded.jfr "+
+            "file can be opened with JDK Mission Control or 'jfr print'.");
+    }
+}
+
+// EOF
@@ -85,7 +85,10 @@ public class RelationControlPointController extends ResizeController {
             });
 
             // Show the popup menu.  This does *not* wait for the choice to be made.
-            menu.show(this.diagramController, ev.getPoint().x, ev.getPoint().y);
+            // The event is in diagram coordinates, but the menu
+            // location is relative to the component.
+            Point menuLoc = this.diagramController.diagramToView(ev.getPoint());
+            menu.show(this.diagramController, menuLoc.x, menuLoc.y);
         }
     }
 
@@ -71,9 +71,7 @@ public class RelationControlPointDialog extends ModalDialog {
             return;
         }
 
-        Point pt = this.relation.controlPts.get(this.whichCP);
-        pt.x = x;
-        pt.y = y;
+        this.relation.controlPts.set(this.whichCP, x, y);
 
         super.okPressed();
     }
@@ -3,7 +3,6 @@
 
 package ded.ui;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
@@ -17,7 +16,6 @@ import java.awt.geom.GeneralPath;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 
-import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
@@ -31,12 +29,14 @@ import util.Util;
 import util.awt.BitmapFont;
 import util.awt.GeomUtil;
 import util.awt.HorizOrVert;
+import util.awt.IntPointList;
 import util.swing.MenuAction;
 import util.swing.SwingUtil;
 
 import ded.model.ArrowStyle;
 import ded.model.Diagram;
 import ded.model.Entity;
+import ded.model.Interner;
 import ded.model.Relation;
 import ded.model.RelationEndpoint;
 import ded.model.RoutingAlgorithm;
@@ -199,21 +199,23 @@ public class RelationController extends Controller {
     {
         // Convert to a delta relative to 'getLoc()'.
         Point delta = GeomUtil.subtract(pt, this.getLoc());
+        this.dragBy(delta.x, delta.y);
+    }
 
+    @Override
+    public void dragBy(int dx, int dy)
+    {
         // Apply the delta to the endpoints if they are specified as
         // points rather than Entities or Inheritances.
         if (this.relation.start.isPoint()) {
-            this.relation.start.pt = GeomUtil.add(this.relation.start.pt, delta);
+            this.relation.start.pt.translate(dx, dy);
         }
         if (this.relation.end.isPoint()) {
-            this.relation.end.pt = GeomUtil.add(this.relation.end.pt, delta);
+            this.relation.end.pt.translate(dx, dy);
         }
 
         // Apply the delta to all control points.
-        for (int i=0; i < this.relation.controlPts.size(); i++) {
-            Point cp = this.relation.controlPts.get(i);
-            this.relation.controlPts.set(i, GeomUtil.add(cp, delta));
-        }
+        this.relation.controlPts.translate(dx, dy);
 
         // Do not set dirty bit.  Wait until mouse is released.
     }
@@ -221,7 +223,7 @@ public class RelationController extends Controller {
     @Override
     public Set<Polygon> getBounds()
     {
-        ArrayList<Point> points = this.computePoints();
+        IntPointList points = this.computePoints();
 
         if (points.size() == 1) {
             return getSelfLoopBounds(points.get(0));
@@ -235,13 +237,54 @@ public class RelationController extends Controller {
         return bounds;
     }
 
+    @Override
+    public Rectangle getPaintBounds()
+    {
+        // Every routing algorithm stays within the bounding box of the
+        // endpoints and control points.
+        Rectangle r = getEndpointExtent(this.relation.start);
+        r.add(getEndpointExtent(this.relation.end));
+        IntPointList cpts = this.relation.controlPts;
+        for (int i=0; i < cpts.size(); i++) {
+            r.add(cpts.getX(i), cpts.getY(i));
+        }
+
+        // Arrowheads, thick lines, self-loops and the label can stick
+        // out beyond that.  This is generous, but cheap to compute.
+        BitmapFont font = this.diagramController.getDiagramFont();
+        int margin = arrowHeadLength + selfRelationRadius*2 +
+                     font.stringWidth(this.relation.label) +
+                     font.getAscent() + font.getDescent();
+        if (this.relation.lineWidth != null) {
+            margin += this.relation.lineWidth.intValue();
+        }
+        r.grow(margin, margin);
+        return r;
+    }
+
+    /** Return a rectangle enclosing the thing 're' connects to. */
+    private static Rectangle getEndpointExtent(RelationEndpoint re)
+    {
+        if (re.isEntity()) {
+            return re.entity.getRect();
+        }
+        else if (re.isInheritance()) {
+            Rectangle r = new Rectangle(re.inheritance.pt);
+            r.grow(InheritanceController.height, InheritanceController.height);
+            return r;
+        }
+        else {
+            return new Rectangle(re.pt);
+        }
+    }
+
     /** Compute the sequence of points that determine the line segments
       * we will draw to represent the relation.  The start and end points
       * are adjusted to not go inside the Entity or Inheritance they
       * connect to, if they do connect.  This does not include the points
       * that make up the arrowhead; on an end with an arrowhead, this
       * just has the single point that will be the tip of the arrowhead. */
-    private ArrayList<Point> computePoints()
+    private IntPointList computePoints()
     {
         switch (this.relation.routingAlg) {
             case RA_DIRECT:          return this.direct_computePoints();
@@ -365,12 +408,12 @@ public class RelationController extends Controller {
     }
 
     @Override
-    public void paint(Graphics g0)
+    public void paint(Graphics g0, RenderContext rc)
     {
-        super.paint(g0);
+        super.paint(g0, rc);
         Graphics2D g = (Graphics2D)g0.create();
 
-        ArrayList<Point> points = computePoints();
+        IntPointList points = computePoints();
         if (points.isEmpty()) {
             return;      // defensive; should not happen
         }
@@ -389,64 +432,31 @@ public class RelationController extends Controller {
             lineWidth = InheritanceController.inheritLineWidth;
         }
 
-        // Dashed line?
-        if (!this.relation.dashStructure.isEmpty()) {
-            // Determine how many segments to pass to BasicStroke.
-            int numSegments = this.relation.dashStructure.size();
-            if ((numSegments & 1) == 1) {
-                // BasicStroke has (to me) unexpected behavior with an
-                // odd number of segments: it repeats the segments, but
-                // swapping what is opaque and what is transparent.
-                // Therefore, I will add one more zero-length segment
-                // to preserve the opaque and transparent roles.
-                numSegments++;
-            }
-
-            // Copy the integers to a float array for BasicStroke.
-            float[] segments = new float[numSegments];    // zero-initialized
-            for (int i=0; i < this.relation.dashStructure.size(); i++) {
-                segments[i] = (float)this.relation.dashStructure.get(i);
-            }
-
-            // Create a dashed stroke.
-            g.setStroke(new BasicStroke(
-                lineWidth,
-                BasicStroke.CAP_BUTT,
-                BasicStroke.JOIN_MITER,
-                10.0f,       // miter limit (default)
-                segments,
-                0.0f));      // dash phase
-        }
-        else {
-            // Solid line.
-            g.setStroke(new BasicStroke(
-                lineWidth,
-                BasicStroke.CAP_BUTT,
-                BasicStroke.JOIN_MITER));
-        }
+        // Solid or dashed line.  When zoomed far out, dashes would be
+        // too small to see, and stroking them is very slow, so the
+        // line is drawn solid.
+        boolean lowDetail = rc.lowDetail;
+        g.setStroke(this.diagramController.strokeCache.getLineStroke(
+            lineWidth,
+            lowDetail? Interner.solidDashStructure : this.relation.dashStructure));
 
         // Choose line color.
         g.setColor(this.getLineColor());
 
-        // Draw the line segments.
+        // Draw the line segments.  They are drawn with one call in
+        // order to draw the corners correctly (JOIN_MITER) for thick
+        // lines.
         int nPoints = points.size();
-        {
-            // Construct a pair of arrays containing the points along
-            // the line, in order to pass to drawPolyline.
-            int xPoints[] = new int[nPoints];
-            int yPoints[] = new int[nPoints];
-            for (int i=0; i < nPoints; i++) {
-                xPoints[i] = points.get(i).x;
-                yPoints[i] = points.get(i).y;
-            }
+        points.drawPolyline(g);
 
-            // Draw them all with one call.  This is important in order
-            // to draw the corners correctly (JOIN_MITER) for thick lines.
-            g.drawPolyline(xPoints, yPoints, nPoints);
+        // When zoomed far out, arrowheads and labels are too small to
+        // make out, so just the line is drawn.
+        if (lowDetail) {
+            return;
         }
 
         // Solid line for arrow heads.
-        g.setStroke(new BasicStroke(lineWidth));
+        g.setStroke(this.diagramController.strokeCache.getArrowheadStroke(lineWidth));
 
         // Arrowhead at start.
         {
@@ -1043,9 +1053,9 @@ public class RelationController extends Controller {
 
     /** Return a singleton list containing the start relation's center.
       * This is the sequence of points to connect for a self-loop. */
-    private ArrayList<Point> selfLoop_computePoints()
+    private IntPointList selfLoop_computePoints()
     {
-        ArrayList<Point> points = new ArrayList<Point>();
+        IntPointList points = new IntPointList();
         points.add(this.relation.start.getCenter());
         return points;
     }
@@ -1126,13 +1136,13 @@ public class RelationController extends Controller {
 
     /** Get the sequence of points to connect for a relation using the
       * direct-line algorithm. */
-    private ArrayList<Point> direct_computePoints()
+    private IntPointList direct_computePoints()
     {
         RelationEndpoint start = this.relation.start;
         RelationEndpoint end = this.relation.end;
-        ArrayList<Point> cpts = this.relation.controlPts;
+        IntPointList cpts = this.relation.controlPts;
 
-        ArrayList<Point> points = new ArrayList<Point>();
+        IntPointList points = new IntPointList();
 
         // Start point.
         if (start.isEntity()) {
@@ -1207,13 +1217,12 @@ public class RelationController extends Controller {
       * first when a corner must be turned.  Return the new value to use
       * in place of 'currentHV' by the caller. */
     public static HorizOrVert manhattan_hitNextControlPoint(
-        ArrayList<Point> /*INOUT*/ points,
+        IntPointList /*INOUT*/ points,
         HorizOrVert currentHV,
         Point target)
     {
         // Where does the chain end?
-        int nPoints = points.size();
-        Point source = points.get(nPoints-1);
+        Point source = points.get(points.size()-1);
 
         // Can hit w/o turning corner?
         for (HorizOrVert hv : EnumSet.allOf(HorizOrVert.class)) {
@@ -1305,16 +1314,16 @@ public class RelationController extends Controller {
 
     /** Get the sequence of points to connect to draw a relation that
       * is drawn using either Manhattan algorithm. */
-    private ArrayList<Point> manhattan_computePoints()
+    private IntPointList manhattan_computePoints()
     {
         RelationEndpoint start = this.relation.start;
         RelationEndpoint end = this.relation.end;
-        ArrayList<Point> cpts = this.relation.controlPts;
+        IntPointList cpts = this.relation.controlPts;
         Point startCenter = start.getCenter();
         Point endCenter = end.getCenter();
 
         // Return value.
-        ArrayList<Point> points = new ArrayList<Point>();
+        IntPointList points = new IntPointList();
 
         // Preferred starting dimension?
         HorizOrVert preferredHV =
@@ -1370,8 +1379,8 @@ public class RelationController extends Controller {
 
         // Hit successive control points.
         HorizOrVert currentHV = preferredHV;
-        for (Point p : cpts) {
-            currentHV = manhattan_hitNextControlPoint(points, currentHV, p);
+        for (int i=0; i < cpts.size(); i++) {
+            currentHV = manhattan_hitNextControlPoint(points, currentHV, cpts.get(i));
         }
 
         // Determine the point of entrance to 'end', coming from
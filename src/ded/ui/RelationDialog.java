@@ -17,6 +17,7 @@ import util.swing.SwingUtil;
 
 import ded.model.ArrowStyle;
 import ded.model.Diagram;
+import ded.model.Interner;
 import ded.model.Relation;
 import ded.model.RoutingAlgorithm;
 
@@ -117,23 +118,23 @@ public class RelationDialog extends ModalDialog {
 
     /** Convert a Relation 'dashStructure' sequence into a string of
       * space-separated integers. */
-    private static String dashStructureToString(ArrayList<Integer> dashStructure)
+    private static String dashStructureToString(int[] dashStructure)
     {
         StringBuilder sb = new StringBuilder();
         boolean first = true;
-        for (Integer i : dashStructure) {
+        for (int i : dashStructure) {
             if (!first) {
                 sb.append(" ");
             }
             first = false;
-            sb.append(i.toString());
+            sb.append(i);
         }
         return sb.toString();
     }
 
     /** Convert a space-separated sequence of integers into an array.
       * Throws RuntimeException if the input is malformed. */
-    public static ArrayList<Integer> stringToDashStructure(String str)
+    public static int[] stringToDashStructure(String str)
     {
         ArrayList<Integer> ret = new ArrayList<Integer>();
 
@@ -175,7 +176,11 @@ public class RelationDialog extends ModalDialog {
                 "list must be empty.");
         }
 
-        return ret;
+        int[] arr = new int[ret.size()];
+        for (int i=0; i < arr.length; i++) {
+            arr[i] = ret.get(i);
+        }
+        return arr;
     }
 
     @Override
@@ -209,7 +214,7 @@ public class RelationDialog extends ModalDialog {
             return;     // do *not* call super.okPressed()
         }
 
-        ArrayList<Integer> dashStructure;
+        int[] dashStructure;
         try {
             dashStructure = stringToDashStructure(this.dashStructureField.getText());
         }
@@ -224,10 +229,10 @@ public class RelationDialog extends ModalDialog {
         this.relation.routingAlg = ra;
         this.relation.start.arrowStyle = startStyle;
         this.relation.end.arrowStyle = endStyle;
-        this.relation.lineColor = (String)this.lineColorChooser.getSelectedItem();
-        this.relation.textColor = (String)this.textColorChooser.getSelectedItem();
+        this.relation.lineColor = Interner.intern((String)this.lineColorChooser.getSelectedItem());
+        this.relation.textColor = Interner.intern((String)this.textColorChooser.getSelectedItem());
         this.relation.lineWidth = lineWidth;
-        this.relation.dashStructure = dashStructure;
+        this.relation.dashStructure = Interner.internDashStructure(dashStructure);
 
         super.okPressed();
     }
@@ -0,0 +1,385 @@
+// RenderBenchmark.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import util.awt.BitmapFont;
+import util.awt.ResourceImageCache;
+
+import ded.Ded;
+import ded.model.Diagram;
+import ded.model.DiagramGenerator;
+
+/** Headless benchmark of diagram rendering.
+  *
+  * Usage:
+  *
+  *   java -Djava.awt.headless=true -cp bin ded.ui.RenderBenchmark \
+  *     [-warmup N] [-frames N] [-types rgb,argb,compatible,volatile] \
+  *     [-size N] [-zoom Z] [-view WxH] file.ded...
+  *
+  * For each file and each image type, the diagram is painted with
+  * DiagramController.innerPaint, exactly as the editor does, 'frames'
+  * times after 'warmup' discarded frames.  The report gives frame time
+  * percentiles and bytes allocated per frame, then the same broken
+  * down by controller type.  Each "-size N" adds a diagram made by
+  * DiagramGenerator.scaled(N), treated as if it were in the 'tests'
+  * directory so its images can be found.  "-zoom Z" paints at
+  * magnification Z, rounded to the nearest zoom level the editor
+  * offers, which exercises the low-detail paths when Z < 0.5.
+  * "-view WxH" renders a window of that size, as when viewing part
+  * of a large diagram in the scroll viewport, instead of the
+  * diagram's whole window size; elements outside it are skipped.
+  *
+  * The "compatible" and "volatile" types require a display, so they
+  * are skipped when running headless.  Allocation numbers require the
+  * HotSpot ThreadMXBean extension and are otherwise reported as -1. */
+public class RenderBenchmark {
+    // ---------- types ----------
+    /** The kinds of image we can render into. */
+    private static enum ImageKind {
+        IK_RGB("rgb"),
+        IK_ARGB("argb"),
+        IK_COMPATIBLE("compatible"),
+        IK_VOLATILE("volatile");
+
+        public final String label;
+
+        ImageKind(String label)
+        {
+            this.label = label;
+        }
+
+        /** True if this kind can only be created with a display. */
+        public boolean needsDisplay()
+        {
+            return this == IK_COMPATIBLE || this == IK_VOLATILE;
+        }
+    }
+
+    /** Accumulated measurements for one category. */
+    private static class Samples {
+        /** Nanoseconds for each sample.  Only the first 'count'
+          * entries are meaningful. */
+        public long[] nanos;
+
+        /** Number of samples taken. */
+        public int count = 0;
+
+        /** Total bytes allocated across all samples, or -1 if unknown. */
+        public long allocatedBytes = 0;
+
+        public Samples(int capacity)
+        {
+            this.nanos = new long[capacity];
+        }
+
+        public void add(long n, long bytes)
+        {
+            if (this.count == this.nanos.length) {
+                this.nanos = Arrays.copyOf(this.nanos, this.count*2);
+            }
+            this.nanos[this.count++] = n;
+            if (bytes < 0 || this.allocatedBytes < 0) {
+                this.allocatedBytes = -1;
+            }
+            else {
+                this.allocatedBytes += bytes;
+            }
+        }
+
+        /** Return the 'p'th percentile, 0 <= p <= 100, in microseconds. */
+        public double percentileMicros(double p)
+        {
+            long[] sorted = Arrays.copyOf(this.nanos, this.count);
+            Arrays.sort(sorted);
+            int index = (int)Math.ceil(p / 100.0 * this.count) - 1;
+            index = Math.max(0, Math.min(this.count-1, index));
+            return sorted[index] / 1000.0;
+        }
+    }
+
+    // ---------- data ----------
+    /** HotSpot extension for per-thread allocation, or null. */
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    /** Frames to discard before measuring. */
+    private int warmupFrames = 50;
+
+    /** Frames to measure. */
+    private int measuredFrames = 200;
+
+    /** Zoom level at which to paint. */
+    private int zoomLevel = 0;
+
+    /** If not null, the size of the view to render. */
+    private Dimension viewSize = null;
+
+    /** Image kinds to measure. */
+    private ArrayList<ImageKind> kinds = new ArrayList<ImageKind>();
+
+    // ---------- methods ----------
+    public static void main(String args[]) throws Exception
+    {
+        RenderBenchmark rb = new RenderBenchmark();
+        ArrayList<String> files = new ArrayList<String>();
+        ArrayList<Integer> sizes = new ArrayList<Integer>();
+
+        for (int i=0; i < args.length; i++) {
+            if (args[i].equals("-warmup") && i+1 < args.length) {
+                rb.warmupFrames = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-frames") && i+1 < args.length) {
+                rb.measuredFrames = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("-types") && i+1 < args.length) {
+                for (String t : args[++i].split(",")) {
+                    rb.kinds.add(parseKind(t));
+                }
+            }
+            else if (args[i].equals("-size") && i+1 < args.length) {
+                sizes.add(Integer.parseInt(args[++i]));
+            }
+            else if (args[i].equals("-zoom") && i+1 < args.length) {
+                double z = Double.parseDouble(args[++i]);
+                rb.zoomLevel = (int)Math.round(Math.log(z) / Math.log(2) *
+                                               DiagramController.zoomLevelsPerDoubling);
+            }
+            else if (args[i].equals("-view") && i+1 < args.length) {
+                String[] wh = args[++i].split("x");
+                rb.viewSize = new Dimension(Integer.parseInt(wh[0]),
+                                            Integer.parseInt(wh[1]));
+            }
+            else if (args[i].startsWith("-")) {
+                System.err.println("unknown option: "+args[i]);
+                System.exit(2);
+            }
+            else {
+                files.add(args[i]);
+            }
+        }
+
+        if (files.isEmpty() && sizes.isEmpty()) {
+            System.err.println("usage: RenderBenchmark [options] file.ded...");
+            System.exit(2);
+        }
+        if (rb.kinds.isEmpty()) {
+            rb.kinds.addAll(Arrays.asList(ImageKind.values()));
+        }
+
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+            if (threadBean.isThreadAllocatedMemorySupported()) {
+                threadBean.setThreadAllocatedMemoryEnabled(true);
+            }
+            else {
+                threadBean = null;
+            }
+        }
+
+        BitmapFont font = Ded.loadDiagramBitmapFont();
+        ResourceImageCache resources = new ResourceImageCache();
+
+        for (String fname : files) {
+            DiagramController dc = new DiagramController(font, resources);
+            dc.setDiagramAndFileName(Diagram.readFromFileAutodetect(fname), fname);
+            rb.setView(dc);
+            for (ImageKind kind : rb.kinds) {
+                rb.measure(fname, dc, kind);
+            }
+        }
+        for (int n : sizes) {
+            String fname = "tests/synthetic-"+n+".ded";
+            DiagramController dc = new DiagramController(font, resources);
+            dc.setDiagramAndFileName(DiagramGenerator.scaled(n).generate(), fname);
+            rb.setView(dc);
+            for (ImageKind kind : rb.kinds) {
+                rb.measure(fname, dc, kind);
+            }
+        }
+    }
+
+    /** Apply the zoom and view size options to 'dc'. */
+    private void setView(DiagramController dc)
+    {
+        dc.setZoomLevel(this.zoomLevel, new Point(0, 0));
+        if (this.viewSize != null) {
+            dc.setSize(this.viewSize);
+        }
+    }
+
+    private static ImageKind parseKind(String s)
+    {
+        for (ImageKind k : ImageKind.values()) {
+            if (k.label.equals(s)) {
+                return k;
+            }
+        }
+        throw new IllegalArgumentException("unknown image type: "+s);
+    }
+
+    /** Return bytes allocated so far by the current thread, or -1. */
+    private static long allocatedBytes()
+    {
+        if (threadBean == null) {
+            return -1;
+        }
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Make an image of 'kind' and size w x h, or return null if that
+      * is not possible in this environment. */
+    private static Image makeImage(ImageKind kind, int w, int h)
+    {
+        if (kind.needsDisplay() && GraphicsEnvironment.isHeadless()) {
+            return null;
+        }
+
+        switch (kind) {
+            case IK_RGB:
+                return new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+
+            case IK_ARGB:
+                return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+
+            case IK_COMPATIBLE:
+            case IK_VOLATILE: {
+                GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+                if (kind == ImageKind.IK_COMPATIBLE) {
+                    return gc.createCompatibleImage(w, h, Transparency.OPAQUE);
+                }
+                else {
+                    return gc.createCompatibleVolatileImage(w, h, Transparency.OPAQUE);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Return a fresh Graphics for 'image', as the toolkit would for
+      * each frame. */
+    private static Graphics2D createGraphics(Image image)
+    {
+        if (image instanceof VolatileImage) {
+            return ((VolatileImage)image).createGraphics();
+        }
+        return ((BufferedImage)image).createGraphics();
+    }
+
+    /** Measure rendering of the diagram in 'dc' into images of 'kind'
+      * and print the results. */
+    private void measure(String fname, DiagramController dc, ImageKind kind)
+    {
+        int w = Math.max(1, dc.getWidth());
+        int h = Math.max(1, dc.getHeight());
+
+        Image image = makeImage(kind, w, h);
+        if (image == null) {
+            System.out.println(fname+" ["+kind.label+"]: skipped, requires a display");
+            System.out.println();
+            return;
+        }
+
+        // Whole frames.
+        Samples frames = new Samples(this.measuredFrames);
+        for (int i=0; i < this.warmupFrames + this.measuredFrames; i++) {
+            Graphics2D g = createGraphics(image);
+            long a0 = allocatedBytes();
+            long t0 = System.nanoTime();
+            dc.innerPaint(g);
+            long t1 = System.nanoTime();
+            long a1 = allocatedBytes();
+            g.dispose();
+
+            if (i >= this.warmupFrames) {
+                frames.add(t1-t0, a0<0? -1 : a1-a0);
+            }
+        }
+
+        // Per controller type.  Each sample is the time to paint all
+        // controllers of that type in one frame.
+        LinkedHashMap<String, Samples> byType = new LinkedHashMap<String, Samples>();
+        ArrayList<Controller> controllers = dc.getControllers();
+        RenderContext rc = RenderContext.forView(dc.getZoom());
+        for (int i=0; i < this.warmupFrames + this.measuredFrames; i++) {
+            Graphics2D g = createGraphics(image);
+
+            LinkedHashMap<String, long[]> frameTotals = new LinkedHashMap<String, long[]>();
+            for (Controller c : controllers) {
+                long a0 = allocatedBytes();
+                long t0 = System.nanoTime();
+                c.paint(g, rc);
+                long t1 = System.nanoTime();
+                long a1 = allocatedBytes();
+
+                String type = c.getClass().getSimpleName();
+                long[] tot = frameTotals.get(type);
+                if (tot == null) {
+                    tot = new long[2];
+                    frameTotals.put(type, tot);
+                }
+                tot[0] += t1-t0;
+                tot[1] = (a0<0 || tot[1]<0)? -1 : tot[1] + (a1-a0);
+            }
+            g.dispose();
+
+            if (i >= this.warmupFrames) {
+                for (Map.Entry<String, long[]> e : frameTotals.entrySet()) {
+                    Samples s = byType.get(e.getKey());
+                    if (s == null) {
+                        s = new Samples(this.measuredFrames);
+                        byType.put(e.getKey(), s);
+                    }
+                    s.add(e.getValue()[0], e.getValue()[1]);
+                }
+            }
+        }
+
+        if (image instanceof VolatileImage) {
+            ((VolatileImage)image).flush();
+        }
+
+        System.out.println(fname+" ["+kind.label+"] "+w+"x"+h+
+                           " at "+Math.round(dc.getZoom()*100)+"%, "+
+                           controllers.size()+" controllers, "+
+                           this.measuredFrames+" frames:");
+        System.out.println(String.format("  %-28s %10s %10s %10s %10s %12s",
+            "", "p50 us", "p90 us", "p99 us", "max us", "bytes/frame"));
+        printRow("innerPaint", frames);
+        for (Map.Entry<String, Samples> e : byType.entrySet()) {
+            printRow(e.getKey(), e.getValue());
+        }
+        System.out.println();
+    }
+
+    private static void printRow(String label, Samples s)
+    {
+        System.out.println(String.format("  %-28s %10.1f %10.1f %10.1f %10.1f %12d",
+            label,
+            s.percentileMicros(50),
+            s.percentileMicros(90),
+            s.percentileMicros(99),
+            s.percentileMicros(100),
+            s.allocatedBytes<0? -1 : s.allocatedBytes / s.count));
+    }
+}
+
+// EOF
@@ -0,0 +1,56 @@
+// RenderContext.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+/** Describes one painting pass over the diagram's controllers, so they
+  * can decide what to draw without consulting the state of the editor.
+  *
+  * Painting for an export uses 'export', which draws everything as
+  * unselected, so it does not have to change the selection and put it
+  * back afterward. */
+public class RenderContext {
+    // ---------- constants ----------
+    /** Context for painting an exported image at natural size. */
+    public static final RenderContext export =
+        new RenderContext(1.0, true /*suppressSelection*/, true /*exportMode*/);
+
+    // ---------- public data ----------
+    /** Scale from diagram coordinates to device pixels. */
+    public final double scale;
+
+    /** When true, controllers are drawn as if unselected, and selection
+      * handles are not drawn at all. */
+    public final boolean suppressSelection;
+
+    /** True when painting an image to be saved rather than the editing
+      * area.  Transient feedback such as the lasso rectangle is omitted. */
+    public final boolean exportMode;
+
+    /** True if 'scale' is so small that controllers should omit text
+      * and decorations. */
+    public final boolean lowDetail;
+
+    // ---------- methods ----------
+    public RenderContext(double scale, boolean suppressSelection, boolean exportMode)
+    {
+        this.scale = scale;
+        this.suppressSelection = suppressSelection;
+        this.exportMode = exportMode;
+        this.lowDetail = scale < DiagramController.lowDetailScale;
+    }
+
+    /** Return a context for painting the editing area at 'scale'. */
+    public static RenderContext forView(double scale)
+    {
+        return new RenderContext(scale, false /*suppressSelection*/, false /*exportMode*/);
+    }
+
+    /** Return true if 'c' should be drawn as selected. */
+    public boolean showSelected(Controller c)
+    {
+        return !this.suppressSelection && c.isSelected();
+    }
+}
+
+// EOF
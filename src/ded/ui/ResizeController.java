@@ -39,10 +39,20 @@ public abstract class ResizeController extends Controller {
     }
 
     @Override
-    public void paint(Graphics g)
+    public Rectangle getPaintBounds()
     {
-        super.paint(g);
-        this.paintBounds(g, resizeHandleColor);
+        return getResizeHandleRect(this.getLoc());
+    }
+
+    @Override
+    public void paint(Graphics g, RenderContext rc)
+    {
+        super.paint(g, rc);
+
+        // Handles are part of how the selection is shown.
+        if (!rc.suppressSelection) {
+            this.paintBounds(g, resizeHandleColor);
+        }
     }
 
     @Override
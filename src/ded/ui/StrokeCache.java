@@ -0,0 +1,113 @@
+// StrokeCache.java
+// See toplevel license.txt for copyright and license terms.
+
+package ded.ui;
+
+import java.awt.BasicStroke;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+import ded.model.Interner;
+
+/** Table of the BasicStroke objects used to paint a diagram, so that
+  * painting does not construct new strokes (and their dash arrays)
+  * for every line of every frame.  Strokes are immutable, so sharing
+  * them among elements with the same line style is safe. */
+public class StrokeCache {
+    // ---------- data ----------
+    /** Map from line width to a map from dash structure to the stroke
+      * used for lines with that width and dash structure.  Solid lines
+      * have an empty dash structure.  The dash structures are the
+      * shared arrays from Interner, so they are compared by identity. */
+    private HashMap<Integer, IdentityHashMap<int[], BasicStroke>> lineStrokes =
+        new HashMap<Integer, IdentityHashMap<int[], BasicStroke>>();
+
+    /** Map from line width to the solid stroke, with default cap and
+      * join, used for arrowheads. */
+    private HashMap<Integer, BasicStroke> arrowheadStrokes =
+        new HashMap<Integer, BasicStroke>();
+
+    // ---------- methods ----------
+    /** Get the stroke for a line of 'lineWidth' with 'dashStructure',
+      * which has the meaning of Relation.dashStructure. */
+    public BasicStroke getLineStroke(int lineWidth, int[] dashStructure)
+    {
+        IdentityHashMap<int[], BasicStroke> byDash = this.lineStrokes.get(lineWidth);
+        if (byDash == null) {
+            byDash = new IdentityHashMap<int[], BasicStroke>();
+            this.lineStrokes.put(lineWidth, byDash);
+        }
+
+        BasicStroke ret = byDash.get(dashStructure);
+        if (ret == null) {
+            // Normally 'dashStructure' is already the shared array, but
+            // if not, key on that so the cache does not grow.
+            int[] shared = Interner.internDashStructure(dashStructure);
+            ret = byDash.get(shared);
+            if (ret == null) {
+                ret = makeLineStroke(lineWidth, shared);
+                byDash.put(shared, ret);
+            }
+        }
+        return ret;
+    }
+
+    /** Get the stroke used to draw arrowheads on a line of 'lineWidth'. */
+    public BasicStroke getArrowheadStroke(int lineWidth)
+    {
+        BasicStroke ret = this.arrowheadStrokes.get(lineWidth);
+        if (ret == null) {
+            ret = new BasicStroke(lineWidth);
+            this.arrowheadStrokes.put(lineWidth, ret);
+        }
+        return ret;
+    }
+
+    /** Discard all cached strokes. */
+    public void clear()
+    {
+        this.lineStrokes.clear();
+        this.arrowheadStrokes.clear();
+    }
+
+    /** Build a new stroke for 'getLineStroke'. */
+    private static BasicStroke makeLineStroke(int lineWidth, int[] dashStructure)
+    {
+        if (dashStructure.length == 0) {
+            // Solid line.
+            return new BasicStroke(
+                lineWidth,
+                BasicStroke.CAP_BUTT,
+                BasicStroke.JOIN_MITER);
+        }
+
+        // Determine how many segments to pass to BasicStroke.
+        int numSegments = dashStructure.length;
+        if ((numSegments & 1) == 1) {
+            // BasicStroke has (to me) unexpected behavior with an
+            // odd number of segments: it repeats the segments, but
+            // swapping what is opaque and what is transparent.
+            // Therefore, I will add one more zero-length segment
+            // to preserve the opaque and transparent roles.
+            numSegments++;
+        }
+
+        // Copy the integers to a float array for BasicStroke.
+        float[] segments = new float[numSegments];    // zero-initialized
+        for (int i=0; i < dashStructure.length; i++) {
+            segments[i] = (float)dashStructure[i];
+        }
+
+        // Create a dashed stroke.
+        return new BasicStroke(
+            lineWidth,
+            BasicStroke.CAP_BUTT,
+            BasicStroke.JOIN_MITER,
+            10.0f,       // miter limit (default)
+            segments,
+            0.0f);       // dash phase
+    }
+}
+
+// EOF
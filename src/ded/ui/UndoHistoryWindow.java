@@ -3,22 +3,41 @@
 
 package ded.ui;
 
+import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
 import javax.swing.Box;
 import javax.swing.BoxLayout;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JScrollPane;
-import javax.swing.JTextArea;
 
+import util.StringUtil;
 import util.swing.ModalDialog;
 import util.swing.SwingUtil;
 
-public class UndoHistoryWindow extends JFrame {
+import ded.model.UndoHistory;
+
+/** Window showing the undo history.
+  *
+  * The display is a list with one row per line of the history's
+  * printed form.  It listens to the history and applies the common
+  * changes (a new command, undo, redo, trimming to the size limit) as
+  * edits of a row or two.  Other changes rebuild the whole list.
+  * While the window is hidden, changes only mark the list as stale,
+  * and it is rebuilt when the window is shown. */
+public class UndoHistoryWindow extends JFrame implements UndoHistory.Listener {
     // ---- constants ----
     private static final long serialVersionUID = -3494202437710226667L;
 
@@ -26,13 +45,40 @@ public class UndoHistoryWindow extends JFrame {
     /** Diagram editor whose undo history we show. */
     public DiagramController diagramController;
 
-    /** For now at least, show the debug dump of the history in a
-      * text area. */
-    public JTextArea historyTextArea;
+    /** The history we show and listen to, or null before the first
+      * 'updateHistory'. */
+    private UndoHistory undoHistory = null;
+
+    /** Rows of the printed history. */
+    private DefaultListModel<UndoHistory.HistoryRow> rowModel =
+        new DefaultListModel<UndoHistory.HistoryRow>();
+
+    /** List showing 'rowModel'. */
+    public JList<UndoHistory.HistoryRow> historyList;
+
+    /** Map from each entry with a row in 'rowModel' to its row number.
+      * A row's index in the model is its number minus 'firstRowNumber'. */
+    private IdentityHashMap<UndoHistory.HistoryEntry, Integer> entryToRowNumber =
+        new IdentityHashMap<UndoHistory.HistoryEntry, Integer>();
+
+    /** Row number of the first row in 'rowModel'.  Removing rows from
+      * the start increases this, so the numbers of the others stay
+      * valid. */
+    private int firstRowNumber = 0;
+
+    /** The entry whose row is marked as current. */
+    private UndoHistory.HistoryEntry currentEntry = null;
+
+    /** True if 'rowModel' does not reflect 'undoHistory' and must be
+      * rebuilt before it is shown. */
+    private boolean stale = true;
 
     /** Button to show/change the history size limit. */
     public JButton historySizeLimitButton;
 
+    /** Shows the size of the history. */
+    public JLabel summaryLabel;
+
     // ---- methods ----
     public UndoHistoryWindow(DiagramController dc)
     {
@@ -46,9 +92,38 @@ public class UndoHistoryWindow extends JFrame {
         Box vb = Box.createVerticalBox();
         content.add(vb);
 
-        this.historyTextArea = new JTextArea();
-        this.historyTextArea.setEditable(false);
-        vb.add(new JScrollPane(this.historyTextArea));
+        this.historyList = new JList<UndoHistory.HistoryRow>(this.rowModel);
+        this.historyList.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        this.historyList.setCellRenderer(new DefaultListCellRenderer() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Component getListCellRendererComponent(
+                JList<?> list, Object value, int index,
+                boolean isSelected, boolean cellHasFocus)
+            {
+                return super.getListCellRendererComponent(list,
+                    UndoHistoryWindow.this.getRowString((UndoHistory.HistoryRow)value),
+                    index, isSelected, cellHasFocus);
+            }
+        });
+
+        // With a prototype, the list does not measure every row
+        // whenever one changes.  Longer rows are truncated.
+        this.historyList.setPrototypeCellValue(new UndoHistory.HistoryRow(0, null,
+            "Set line dash style to \"dashed\" and resize to (1000,1000): (e=1000, i=100, r=1000)"));
+        vb.add(new JScrollPane(this.historyList));
+
+        vb.add(Box.createVerticalStrut(ModalDialog.CONTROL_PADDING));
+
+        {
+            Box hb = Box.createHorizontalBox();
+            hb.add(Box.createRigidArea(new Dimension(ModalDialog.CONTROL_PADDING, 0)));
+            this.summaryLabel = new JLabel(" ");
+            hb.add(this.summaryLabel);
+            hb.add(Box.createHorizontalGlue());
+            vb.add(hb);
+        }
 
         vb.add(Box.createVerticalStrut(ModalDialog.CONTROL_PADDING));
 
@@ -96,11 +171,178 @@ public class UndoHistoryWindow extends JFrame {
         this.updateHistory();
     }
 
-    /** Update the history display due to a change to that history. */
+    /** Start showing the diagram controller's history, if it has
+      * been replaced.  Changes within one history arrive through the
+      * UndoHistory.Listener methods. */
     public void updateHistory()
     {
-        this.historyTextArea.setText(
-            this.diagramController.getUndoHistory().dumpHistoryStructure());
+        UndoHistory h = this.diagramController.getUndoHistory();
+        if (h != this.undoHistory) {
+            if (this.undoHistory != null) {
+                this.undoHistory.setListener(null);
+            }
+            this.undoHistory = h;
+            h.setListener(this);
+            this.historyRestructured();
+        }
+    }
+
+    @Override
+    public void setVisible(boolean b)
+    {
+        if (b && this.stale) {
+            this.rebuild();
+        }
+        super.setVisible(b);
+    }
+
+    /** Return true if changes to the history can be applied to
+      * 'rowModel' incrementally.  Otherwise, mark it stale. */
+    private boolean canUpdate()
+    {
+        if (!this.stale && !this.isVisible()) {
+            // Stop tracking changes; they will be picked up when
+            // the window is shown again.
+            this.stale = true;
+        }
+        return !this.stale;
+    }
+
+    /** Refill 'rowModel' from 'undoHistory'. */
+    private void rebuild()
+    {
+        ArrayList<UndoHistory.HistoryRow> rows = this.undoHistory.getHistoryRows();
+        if (rows == null) {
+            rows = new ArrayList<UndoHistory.HistoryRow>();
+            rows.add(new UndoHistory.HistoryRow(0, null, "History parent chain has a cycle!"));
+        }
+
+        // Fill a new model so the list is only notified once.
+        this.rowModel = new DefaultListModel<UndoHistory.HistoryRow>();
+        this.entryToRowNumber.clear();
+        this.firstRowNumber = 0;
+        for (UndoHistory.HistoryRow row : rows) {
+            if (row.entry != null) {
+                this.entryToRowNumber.put(row.entry, this.rowModel.size());
+            }
+            this.rowModel.addElement(row);
+        }
+        this.historyList.setModel(this.rowModel);
+
+        this.currentEntry = this.undoHistory.getCurrentEntry();
+        this.stale = false;
+        this.scrollToCurrent();
+        this.updateSummary();
+    }
+
+    /** Return the model index of the row for 'entry'. */
+    private int getRowIndex(UndoHistory.HistoryEntry entry)
+    {
+        return this.entryToRowNumber.get(entry) - this.firstRowNumber;
+    }
+
+    /** Redraw the row for 'entry', whose marker may have changed. */
+    private void refreshRow(UndoHistory.HistoryEntry entry)
+    {
+        int i = this.getRowIndex(entry);
+        this.rowModel.set(i, this.rowModel.get(i));
+    }
+
+    /** Scroll so the current state's row is visible. */
+    private void scrollToCurrent()
+    {
+        this.historyList.ensureIndexIsVisible(this.getRowIndex(this.currentEntry));
+    }
+
+    /** Show the current size of the history.  The history maintains
+      * the numbers, so this is cheap enough to do for every change. */
+    private void updateSummary()
+    {
+        this.summaryLabel.setText(this.undoHistory.describeSize());
+    }
+
+    /** Return the text to show for 'row'. */
+    private String getRowString(UndoHistory.HistoryRow row)
+    {
+        String prefix = "";
+        if (this.undoHistory != null) {
+            // Null while measuring the prototype row.
+            prefix = this.undoHistory.getRowPrefix(row);
+        }
+        return StringUtil.indent(row.indent) + prefix + row.text;
+    }
+
+    // ---- UndoHistory.Listener ----
+    @Override
+    public void entryAdded(UndoHistory.HistoryEntry entry)
+    {
+        if (!this.canUpdate()) {
+            return;
+        }
+
+        UndoHistory.HistoryEntry parent = this.currentEntry;
+        int indent = this.rowModel.get(this.getRowIndex(parent)).indent;
+        this.entryToRowNumber.put(entry, this.firstRowNumber + this.rowModel.size());
+        this.rowModel.addElement(new UndoHistory.HistoryRow(indent, entry,
+            UndoHistory.describeEntry(entry)));
+
+        this.currentEntry = entry;
+        this.refreshRow(parent);
+        this.scrollToCurrent();
+        this.updateSummary();
+    }
+
+    @Override
+    public void currentChanged(UndoHistory.HistoryEntry from, UndoHistory.HistoryEntry to)
+    {
+        if (!this.canUpdate()) {
+            return;
+        }
+
+        this.currentEntry = to;
+        this.refreshRow(from);
+        this.refreshRow(to);
+        this.scrollToCurrent();
+        this.updateSummary();
+    }
+
+    @Override
+    public void entriesDiscarded(UndoHistory.HistoryEntry newRoot)
+    {
+        if (!this.canUpdate()) {
+            return;
+        }
+
+        int n = this.getRowIndex(newRoot);
+        if (this.rowModel.get(n).indent > 0) {
+            // The new root was inside an alternate future, so rows
+            // after it are discarded too, and the rest are re-indented.
+            this.historyRestructured();
+            return;
+        }
+
+        // Everything before a root-level row is discarded, and
+        // everything after it descends from it.
+        for (int i=0; i < n; i++) {
+            UndoHistory.HistoryEntry e = this.rowModel.get(i).entry;
+            if (e != null) {
+                this.entryToRowNumber.remove(e);
+            }
+        }
+        if (n > 0) {
+            this.rowModel.removeRange(0, n-1);
+            this.firstRowNumber += n;
+        }
+        this.updateSummary();
+    }
+
+    @Override
+    public void historyRestructured()
+    {
+        this.stale = true;
+        if (this.isVisible()) {
+            this.rebuild();
+        }
     }
 
     /** Show the help dialog for this window. */
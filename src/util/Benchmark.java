@@ -0,0 +1,218 @@
+// Benchmark.java
+// See toplevel license.txt for copyright and license terms.
+
+package util;
+
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** Minimal micro-benchmark harness in the style of JMH.
+  *
+  * Each benchmark is a subclass that overrides 'run' to perform one
+  * operation.  The harness runs a number of warmup iterations, whose
+  * results are discarded, followed by measurement iterations.  Every
+  * iteration calls 'run' repeatedly for roughly 'iterationMillis'
+  * and records the average time per operation.  The reported score
+  * is the mean over measurement iterations, with an error bound of
+  * two standard deviations.
+  *
+  * The value returned by 'run' is folded into a sink so that the JIT
+  * cannot eliminate the work as dead code.
+  *
+  * This exists because the project has no build dependencies beyond
+  * the JDK, so using JMH itself is not an option. */
+public abstract class Benchmark {
+    // ---------- types ----------
+    /** Outcome of running one benchmark. */
+    public static class Result {
+        /** Name of the benchmark. */
+        public final String name;
+
+        /** Nanoseconds per operation for each measurement iteration. */
+        public final double[] nsPerOp;
+
+        public Result(String name, double[] nsPerOp)
+        {
+            this.name = name;
+            this.nsPerOp = nsPerOp;
+        }
+
+        /** Mean of 'nsPerOp'. */
+        public double mean()
+        {
+            double sum = 0;
+            for (double d : this.nsPerOp) {
+                sum += d;
+            }
+            return sum / this.nsPerOp.length;
+        }
+
+        /** Two sample standard deviations of 'nsPerOp', or 0 if there
+          * is only one sample. */
+        public double error()
+        {
+            int n = this.nsPerOp.length;
+            if (n < 2) {
+                return 0;
+            }
+            double m = this.mean();
+            double sumSq = 0;
+            for (double d : this.nsPerOp) {
+                sumSq += (d-m) * (d-m);
+            }
+            return 2 * Math.sqrt(sumSq / (n-1));
+        }
+
+        /** Smallest of 'nsPerOp'. */
+        public double min()
+        {
+            double[] sorted = this.nsPerOp.clone();
+            Arrays.sort(sorted);
+            return sorted[0];
+        }
+    }
+
+    /** Settings that control how long benchmarks run. */
+    public static class Config {
+        /** Number of iterations whose results are discarded. */
+        public int warmupIterations = 3;
+
+        /** Number of iterations whose results are reported. */
+        public int measurementIterations = 5;
+
+        /** Approximate duration of each iteration. */
+        public int iterationMillis = 200;
+
+        /** Parse "-warmup N", "-iterations N" and "-time MS" out of
+          * 'args', starting at 'i'.  Return the index of the first
+          * argument not consumed, which is 'i' itself if the option
+          * at 'i' is not one of these. */
+        public int parseOption(String[] args, int i)
+        {
+            if (i+1 < args.length) {
+                if (args[i].equals("-warmup")) {
+                    this.warmupIterations = Integer.parseInt(args[i+1]);
+                    return i+2;
+                }
+                if (args[i].equals("-iterations")) {
+                    this.measurementIterations = Integer.parseInt(args[i+1]);
+                    return i+2;
+                }
+                if (args[i].equals("-time")) {
+                    this.iterationMillis = Integer.parseInt(args[i+1]);
+                    return i+2;
+                }
+            }
+            return i;
+        }
+    }
+
+    // ---------- data ----------
+    /** Name shown in the report. */
+    public final String name;
+
+    /** Accumulator for benchmark results.  It is public and volatile
+      * so the JIT must assume someone reads it. */
+    public static volatile int sink;
+
+    // ---------- methods ----------
+    public Benchmark(String name)
+    {
+        this.name = name;
+    }
+
+    /** Perform one operation.  The return value is consumed by the
+      * harness and may be null. */
+    public abstract Object run() throws Exception;
+
+    /** Called once before warmup; not timed. */
+    public void setup() throws Exception
+    {}
+
+    /** Called once after measurement; not timed. */
+    public void teardown() throws Exception
+    {}
+
+    /** Run this benchmark according to 'config'. */
+    public Result measure(Config config) throws Exception
+    {
+        this.setup();
+        try {
+            for (int i=0; i < config.warmupIterations; i++) {
+                this.iterate(config.iterationMillis);
+            }
+
+            double[] samples = new double[config.measurementIterations];
+            for (int i=0; i < config.measurementIterations; i++) {
+                samples[i] = this.iterate(config.iterationMillis);
+            }
+            return new Result(this.name, samples);
+        }
+        finally {
+            this.teardown();
+        }
+    }
+
+    /** Call 'run' repeatedly for about 'millis' and return the
+      * average nanoseconds per call. */
+    private double iterate(int millis) throws Exception
+    {
+        long budget = millis * 1000000L;
+        long start = System.nanoTime();
+        long elapsed;
+        long ops = 0;
+        int h = 0;
+
+        // Check the clock only every so often, doubling the batch
+        // size as we go, so that for very fast operations the cost
+        // of 'nanoTime' itself does not dominate.
+        long batch = 1;
+        do {
+            for (long i=0; i < batch; i++) {
+                Object o = this.run();
+                if (o != null) {
+                    h += System.identityHashCode(o);
+                }
+            }
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+            if (batch < 1024) {
+                batch *= 2;
+            }
+        } while (elapsed < budget);
+
+        sink += h;
+        return (double)elapsed / ops;
+    }
+
+    // ---------- reporting ----------
+    /** Run all of 'benchmarks', printing each result to 'out' as it
+      * finishes, and return the results. */
+    public static ArrayList<Result> runAll(
+        ArrayList<Benchmark> benchmarks,
+        Config config,
+        PrintStream out)
+        throws Exception
+    {
+        int nameWidth = "Benchmark".length();
+        for (Benchmark b : benchmarks) {
+            nameWidth = Math.max(nameWidth, b.name.length());
+        }
+
+        out.println(String.format("%-"+nameWidth+"s  %4s  %14s  %12s  %14s  %5s",
+            "Benchmark", "Cnt", "Score", "Error", "Min", "Units"));
+
+        ArrayList<Result> ret = new ArrayList<Result>();
+        for (Benchmark b : benchmarks) {
+            Result r = b.measure(config);
+            out.println(String.format("%-"+nameWidth+"s  %4d  %14.1f  +-%10.1f  %14.1f  %5s",
+                r.name, r.nsPerOp.length, r.mean(), r.error(), r.min(), "ns/op"));
+            ret.add(r);
+        }
+        return ret;
+    }
+}
+
+// EOF
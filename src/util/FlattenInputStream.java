@@ -5,14 +5,21 @@ package util;
 
 import java.awt.Dimension;
 import java.awt.Point;
-import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
-/** Stream for reading files created by smbase/flatten. */
-public class FlattenInputStream extends BufferedInputStream {
+/** Stream for reading files created by smbase/flatten.
+  *
+  * The data is decoded directly from a little-endian ByteBuffer that
+  * holds the entire file, so reading a field does not allocate
+  * anything other than the value it returns.  Flatten files are
+  * small, so holding all of one in memory is not a concern. */
+public class FlattenInputStream {
     // -------------------- instance data ----------------------
     /** Version of the format being read.  Initially 0, it is up
       * to the calling code to read and write this as it sees fit. */
@@ -22,13 +29,50 @@ public class FlattenInputStream extends BufferedInputStream {
       * This is for 'noteOwner' and 'readSerf'. */
     protected ArrayList<Object> intToOwner;
 
+    /** The data, positioned at the next byte to read. */
+    private ByteBuffer buf;
+
     // ----------------------- methods -------------------------
-    public FlattenInputStream(InputStream in)
+    /** Read from 'buf', starting at its position.  This changes the
+      * byte order of 'buf' to little-endian, and advances it as data
+      * is read. */
+    public FlattenInputStream(ByteBuffer buf)
     {
-        super(in);
         this.version = 0;
         this.intToOwner = new ArrayList<Object>();
         this.intToOwner.add(null);      // dummy entry b/c we start at 1
+        this.buf = buf;
+        this.buf.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Read from the remaining contents of 'in', all of which are
+      * read immediately.  This does not close 'in'. */
+    public FlattenInputStream(InputStream in)
+        throws IOException
+    {
+        this(ByteBuffer.wrap(readAll(in)));
+    }
+
+    /** Return the remaining contents of 'in'. */
+    private static byte[] readAll(InputStream in)
+        throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int len;
+        while ((len = in.read(chunk)) >= 0) {
+            baos.write(chunk, 0, len);
+        }
+        return baos.toByteArray();
+    }
+
+    /** Throw XParse unless at least 'n' more bytes are available. */
+    private void need(int n)
+        throws XParse
+    {
+        if (this.buf.remaining() < n) {
+            throw new XParse("unexpected EOF while reading "+n+" bytes");
+        }
     }
 
     /** Read the next integer and check that it is 'expected'.  Throw
@@ -48,27 +92,16 @@ public class FlattenInputStream extends BufferedInputStream {
     public int readInt()
         throws XParse, IOException
     {
-        byte[] b = new byte[4];
-        this.readBytes(b);
-        return ((b[0] & 0xff) <<  0) |
-               ((b[1] & 0xff) <<  8) |
-               ((b[2] & 0xff) << 16) |
-               ((b[3] & 0xff) << 24);
+        this.need(4);
+        return this.buf.getInt();
     }
 
-    /** Read bytes to fill 'buf', blocking if needed, or throw IOException. */
+    /** Read bytes to fill 'buf', or throw XParse. */
     public void readBytes(byte[] buf)
         throws XParse, IOException
     {
-        int offset = 0;
-        while (offset < buf.length) {
-            int len = this.read(buf, offset, buf.length - offset);
-            if (len < 0) {
-                throw new XParse("unexpected EOF while reading "+buf.length+" bytes");
-            }
-            offset += len;
-        }
-        assert(offset == buf.length);
+        this.need(buf.length);
+        this.buf.get(buf);
     }
 
     /** Read a Dimension, stored as width then height. */
@@ -97,16 +130,35 @@ public class FlattenInputStream extends BufferedInputStream {
         if (len == -1) {
             return null;
         }
+        if (len < 0) {
+            throw new XParse("invalid string length "+len);
+        }
 
-        byte[] buf = new byte[len+1];    // Final byte is 0.
-        this.readBytes(buf);
-
-        if (buf[len] != 0) {
+        // The string and its final 0 byte must fit.  This is not
+        // written as 'need(len+1)', which overflows for the largest
+        // 'len'.
+        if (len >= this.buf.remaining()) {
+            throw new XParse("unexpected EOF while reading "+len+
+                             "-byte string");
+        }
+        int start = this.buf.position();
+        if (this.buf.get(start+len) != 0) {
             throw new XParse("string does not end with 0 byte");
         }
 
         // Do not pass the 0 byte to the String constructor.
-        return new String(buf, 0, len, Charset.forName("US-ASCII"));
+        String ret;
+        if (this.buf.hasArray()) {
+            ret = new String(this.buf.array(), this.buf.arrayOffset() + start, len,
+                             StandardCharsets.US_ASCII);
+        }
+        else {
+            byte[] bytes = new byte[len];
+            this.buf.get(bytes);
+            ret = new String(bytes, StandardCharsets.US_ASCII);
+        }
+        this.buf.position(start+len+1);
+        return ret;
     }
 
     /** Record an owned object so it can be referred to later. */
@@ -140,9 +192,8 @@ public class FlattenInputStream extends BufferedInputStream {
     {
         // I think/hope 'bool' is 1 byte on all the machines where
         // I created .er files...
-        byte[] b = new byte[1];
-        this.readBytes(b);
-        return b[0] != 0;
+        this.need(1);
+        return this.buf.get() != 0;
     }
 }
 
@@ -3,34 +3,51 @@
 
 package util;
 
-import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.InflaterInputStream;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
-import javax.imageio.ImageReadParam;
-import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataNode;
-import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-
 /** Utilities related to manipulating image files. */
 public class ImageFileUtil {
     /** The name of the root node of the "native" metadata XML format
       * for PNG images in the 'imageio' library. */
     public static final String pngMetadataFormatName = "javax_imageio_png_1.0";
 
+    /** The eight bytes that begin every PNG file. */
+    private static final byte[] pngSignature = {
+        (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    };
+
+    /** PNG chunk types, as big-endian integers. */
+    private static final int chunkIHDR = 0x49484452;
+    private static final int chunkIEND = 0x49454E44;
+    private static final int chunktEXt = 0x74455874;
+    private static final int chunkzTXt = 0x7A545874;
+    private static final int chunkiTXt = 0x69545874;
+
     /** Write the 'bi' to 'file' in PNG format.
       *
       * If 'comment' is not null, it will be added as an image comment.
@@ -39,7 +56,17 @@ public class ImageFileUtil {
       * If this fails, it will throw an Exception.  If it succeeds
       * but there is a warning, that warning will be returned as a
       * String.  If there is no warning, then null is returned. */
-    public static String writeImageToPNGFile(BufferedImage bi, File file, String comment)
+    public static String writeImageToPNGFile(RenderedImage bi, File file, String comment)
+        throws Exception
+    {
+        return writeImageToPNGFile(bi, file, comment, null);
+    }
+
+    /** Like above, but also add an uncompressed "tEXt" chunk for each
+      * entry of 'textChunks', if not null, which maps keywords to
+      * values.  Keywords and values must also be ASCII. */
+    public static String writeImageToPNGFile(RenderedImage bi, File file, String comment,
+                                             Map<String, String> textChunks)
         throws Exception
     {
         String warningReturn = null;
@@ -76,6 +103,12 @@ public class ImageFileUtil {
                                     Util.getExceptionMessage(e);
                 }
             }
+            if (textChunks != null) {
+                for (Map.Entry<String, String> entry : textChunks.entrySet()) {
+                    addPNGTextChunk(iiomd, entry.getKey(), entry.getValue(),
+                                    false /*compressed*/);
+                }
+            }
 
             // Open the output file.
             OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
@@ -206,66 +239,186 @@ public class ImageFileUtil {
     public static String getPNGComment(File file)
         throws Exception
     {
-        // Get a reader than can read PNG.
-        ImageReader reader;
-        {
-            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("png");
-            if (!readers.hasNext()) {
-                throw new RuntimeException(
-                    "Unable to read PNG image because there is no registered "+
-                    "image reader for that format.  That might mean the Java "+
-                    "run time library is incomplete somehow.");
-            }
-            reader = readers.next();
+        return getPNGText(file, "Comment");
+    }
+
+    /** Return the text of the first "tEXt", "zTXt" or "iTXt" chunk in
+      * PNG 'file' whose keyword is 'keyword', or null if there is none.
+      * Throw if the file is not a PNG.
+      *
+      * This reads the chunk headers and the text chunks, and seeks over
+      * everything else, so the cost does not depend on the size of the
+      * image.  Pixel data is not decoded, and chunk CRCs are not
+      * checked. */
+    public static String getPNGText(File file, String keyword)
+        throws Exception
+    {
+        FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return getPNGText(ch, keyword);
+        }
+        finally {
+            ch.close();
         }
+    }
 
+    /** Like 'getPNGText(File,String)', but read the PNG from 'ch',
+      * starting at its current position.  This does not close 'ch'. */
+    public static String getPNGText(SeekableByteChannel ch, String keyword)
+        throws Exception
+    {
         try {
-            // Prepare to read the file.
-            FileImageInputStream fiis = new FileImageInputStream(file);
-            try {
-                reader.setInput(fiis);
-                ImageReadParam irp = reader.getDefaultReadParam();
-
-                // Read it, including metadata, which is where comment is.
-                IIOImage iioImage = reader.readAll(reader.getMinIndex(), irp);
-                IIOMetadata metadata = iioImage.getMetadata();
-
-                // Traverse metadata tree to find a comment.
-                Node tree = metadata.getAsTree(pngMetadataFormatName);
-                for (Node elem = tree.getFirstChild(); elem != null;
-                     elem = elem.getNextSibling())
-                {
-                    String name = elem.getNodeName();
-
-                    // For now, I only handle 'zTXt' because that is what I am
-                    // using to write, since 'compression' is always true.
-                    if (name.equals("zTXt")) {
-                        for (Node entry = elem.getFirstChild(); entry != null;
-                             entry = entry.getNextSibling())
-                        {
-                            if (entry.getNodeName().equals("zTXtEntry")) {
-                                NamedNodeMap nnm = entry.getAttributes();
-
-                                Node keyword = nnm.getNamedItem("keyword");
-                                Node text = nnm.getNamedItem("text");
-                                if (keyword != null && text != null &&
-                                    keyword.getNodeValue().equals("Comment"))
-                                {
-                                    return text.getNodeValue();
-                                }
-                            }
-                        }
+            ByteBuffer header = ByteBuffer.allocate(8);
+            readFully(ch, header);
+            header.flip();
+            if (!isPNGSignature(header)) {
+                throw new RuntimeException("The file does not have the PNG signature.");
+            }
+
+            boolean first = true;
+            while (true) {
+                // Each chunk is a four-byte length and type, the data,
+                // and a four-byte CRC.
+                header.clear();
+                readFully(ch, header);
+                header.flip();
+                int length = header.getInt();
+                int type = header.getInt();
+                if (length < 0) {
+                    throw new RuntimeException("PNG chunk has invalid length "+length+".");
+                }
+                if (first && type != chunkIHDR) {
+                    throw new RuntimeException("PNG file does not begin with an IHDR chunk.");
+                }
+                first = false;
+
+                if (type == chunkIEND) {
+                    return null;
+                }
+
+                if (type == chunktEXt || type == chunkzTXt || type == chunkiTXt) {
+                    ByteBuffer data = ByteBuffer.allocate(length);
+                    readFully(ch, data);
+                    String text = decodePNGTextChunk(type, data.array(), keyword);
+                    if (text != null) {
+                        return text;
                     }
+                    ch.position(ch.position() + 4);
                 }
+                else {
+                    // Text chunks are normally before the image data, but
+                    // they are allowed after it, so skip rather than stop.
+                    ch.position(ch.position() + (long)length + 4);
+                }
+            }
+        }
+        catch (EOFException e) {
+            throw new RuntimeException("The PNG file is truncated.");
+        }
+    }
 
-                return null;
+    /** Return true if 'bb', from its position, begins with the PNG
+      * signature.  This does not change the position. */
+    public static boolean isPNGSignature(ByteBuffer bb)
+    {
+        if (bb.remaining() < pngSignature.length) {
+            return false;
+        }
+        for (int i=0; i < pngSignature.length; i++) {
+            if (bb.get(bb.position()+i) != pngSignature[i]) {
+                return false;
             }
-            finally {
-                fiis.close();
+        }
+        return true;
+    }
+
+    /** Fill 'buf' from 'ch', or throw EOFException. */
+    private static void readFully(SeekableByteChannel ch, ByteBuffer buf)
+        throws Exception
+    {
+        Util.readFully(ch, buf);
+        if (buf.hasRemaining()) {
+            throw new EOFException();
+        }
+    }
+
+    /** If 'data', the contents of a text chunk of 'type', has 'keyword',
+      * return its text.  Otherwise return null. */
+    private static String decodePNGTextChunk(int type, byte[] data, String keyword)
+        throws Exception
+    {
+        // All three types begin with a Latin-1 keyword and a NUL.
+        int nul = indexOfNul(data, 0);
+        if (nul < 0 ||
+            !new String(data, 0, nul, StandardCharsets.ISO_8859_1).equals(keyword))
+        {
+            return null;
+        }
+        int pos = nul+1;
+
+        if (type == chunktEXt) {
+            return new String(data, pos, data.length-pos, StandardCharsets.ISO_8859_1);
+        }
+
+        if (type == chunkzTXt) {
+            // Compression method, which must be 0 (deflate), then the
+            // compressed text.
+            if (pos >= data.length || data[pos] != 0) {
+                throw new RuntimeException("PNG zTXt chunk has unknown compression method.");
+            }
+            pos++;
+            return new String(inflate(data, pos, data.length-pos),
+                              StandardCharsets.ISO_8859_1);
+        }
+
+        // iTXt: compression flag, compression method, language tag,
+        // translated keyword, then UTF-8 text.
+        if (pos+2 > data.length) {
+            throw new RuntimeException("PNG iTXt chunk is truncated.");
+        }
+        boolean compressed = data[pos] != 0;
+        pos += 2;
+        for (int i=0; i < 2; i++) {
+            nul = indexOfNul(data, pos);
+            if (nul < 0) {
+                throw new RuntimeException("PNG iTXt chunk is truncated.");
+            }
+            pos = nul+1;
+        }
+        byte[] text = compressed? inflate(data, pos, data.length-pos) :
+                                  Arrays.copyOfRange(data, pos, data.length);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /** Return the index of the first 0 in 'data' at or after 'start',
+      * or -1 if there is none. */
+    private static int indexOfNul(byte[] data, int start)
+    {
+        for (int i=start; i < data.length; i++) {
+            if (data[i] == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Decompress 'len' bytes of zlib data in 'data' at 'off'. */
+    private static byte[] inflate(byte[] data, int off, int len)
+        throws Exception
+    {
+        InflaterInputStream iis =
+            new InflaterInputStream(new ByteArrayInputStream(data, off, len));
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(len*4);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = iis.read(buf)) > 0) {
+                baos.write(buf, 0, n);
             }
+            return baos.toByteArray();
         }
         finally {
-            reader.dispose();
+            iis.close();
         }
     }
 }
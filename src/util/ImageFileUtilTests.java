@@ -0,0 +1,145 @@
+// ImageFileUtilTests.java
+// See toplevel license.txt for copyright and license terms.
+
+package util;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/** Unit tests for the 'ImageFileUtil' class. */
+public class ImageFileUtilTests {
+    public static void main(String args[])
+        throws Exception
+    {
+        File tmp = File.createTempFile("ImageFileUtilTests", ".png");
+        try {
+            testPNGComment(tmp);
+            testPNGTextAfterImageData(tmp);
+            testNotPNG(tmp);
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+
+    private static BufferedImage makeImage()
+    {
+        BufferedImage bi = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        for (int y=0; y < 200; y++) {
+            for (int x=0; x < 300; x++) {
+                bi.setRGB(x, y, x*y);
+            }
+        }
+        return bi;
+    }
+
+    /** Write and read back a comment the way diagrams are saved. */
+    private static void testPNGComment(File tmp)
+        throws Exception
+    {
+        String comment = "{\n  \"entities\": [],\n  \"version\": 1\n}";
+        String warning = ImageFileUtil.writeImageToPNGFile(makeImage(), tmp, comment);
+        assert(warning == null);
+        assert(comment.equals(ImageFileUtil.getPNGComment(tmp)));
+        assert(ImageFileUtil.getPNGText(tmp, "Other") == null);
+
+        ImageFileUtil.writeImageToPNGFile(makeImage(), tmp, null);
+        assert(ImageFileUtil.getPNGComment(tmp) == null);
+    }
+
+    /** Append text chunks of each type after the image data, where
+      * other programs may put them. */
+    private static void testPNGTextAfterImageData(File tmp)
+        throws Exception
+    {
+        ImageFileUtil.writeImageToPNGFile(makeImage(), tmp, null);
+        byte[] png = Files.readAllBytes(tmp.toPath());
+
+        // Everything except the 12-byte IEND chunk.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(png, 0, png.length - 12);
+
+        writeChunk(out, "tEXt", concat(latin1("Plain\0"), latin1("plain text")));
+        writeChunk(out, "iTXt", concat(latin1("Intl\0\0\0en\0Intl\0"),
+                                       "caf\u00E9".getBytes(StandardCharsets.UTF_8)));
+        writeChunk(out, "iTXt", concat(latin1("IntlZ\0\1\0\0\0"),
+                                       deflate("\u00FCber".getBytes(StandardCharsets.UTF_8))));
+        writeChunk(out, "zTXt", concat(latin1("Comment\0\0"), deflate(latin1("compressed"))));
+        writeChunk(out, "IEND", new byte[0]);
+        Files.write(tmp.toPath(), out.toByteArray());
+
+        assert(ImageFileUtil.getPNGText(tmp, "Plain").equals("plain text"));
+        assert(ImageFileUtil.getPNGText(tmp, "Intl").equals("caf\u00E9"));
+        assert(ImageFileUtil.getPNGText(tmp, "IntlZ").equals("\u00FCber"));
+        assert(ImageFileUtil.getPNGComment(tmp).equals("compressed"));
+        assert(ImageFileUtil.getPNGText(tmp, "Missing") == null);
+
+        // Cut off in the middle of the image data.
+        Files.write(tmp.toPath(), Arrays.copyOf(png, png.length / 2));
+        assert(throwsException(tmp));
+    }
+
+    private static void testNotPNG(File tmp)
+        throws Exception
+    {
+        Files.write(tmp.toPath(), latin1("{ \"not\": \"a PNG\" }"));
+        assert(throwsException(tmp));
+    }
+
+    private static boolean throwsException(File tmp)
+    {
+        try {
+            ImageFileUtil.getPNGComment(tmp);
+            return false;
+        }
+        catch (Exception e) {
+            return true;
+        }
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data)
+    {
+        byte[] typeBytes = latin1(type);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        ByteBuffer bb = ByteBuffer.allocate(12 + data.length);
+        bb.putInt(data.length);
+        bb.put(typeBytes);
+        bb.put(data);
+        bb.putInt((int)crc.getValue());
+        out.write(bb.array(), 0, bb.capacity());
+    }
+
+    private static byte[] latin1(String s)
+    {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b)
+    {
+        byte[] ret = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, ret, a.length, b.length);
+        return ret;
+    }
+
+    private static byte[] deflate(byte[] data)
+        throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DeflaterOutputStream dos = new DeflaterOutputStream(baos);
+        dos.write(data);
+        dos.close();
+        return baos.toByteArray();
+    }
+}
+
+// EOF
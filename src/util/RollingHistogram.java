@@ -0,0 +1,103 @@
+// RollingHistogram.java
+// See toplevel license.txt for copyright and license terms.
+
+package util;
+
+import java.util.Arrays;
+
+/** Distribution of the most recent N durations of some operation.
+  *
+  * Samples go into a fixed-size ring buffer, so recording is O(1)
+  * and never allocates.  Statistics are computed on demand from
+  * whatever samples are currently in the buffer.
+  *
+  * This class is thread-safe. */
+public class RollingHistogram {
+    // ---------- constants ----------
+    /** Upper bounds, in microseconds, of the buckets used by
+      * 'bucketCounts'.  The last bucket is unbounded. */
+    public static final long[] bucketLimitsMicros = {
+        100, 1000, 5000, 16000, 50000, 100000, 500000
+    };
+
+    // ---------- data ----------
+    /** Ring buffer of durations in nanoseconds. */
+    private long[] samples;
+
+    /** Index where the next sample will be written. */
+    private int next = 0;
+
+    /** Number of valid entries in 'samples'. */
+    private int size = 0;
+
+    /** Total number of samples ever recorded. */
+    private long totalCount = 0;
+
+    // ---------- methods ----------
+    public RollingHistogram(int capacity)
+    {
+        this.samples = new long[capacity];
+    }
+
+    /** Add a sample. */
+    public synchronized void record(long nanos)
+    {
+        this.samples[this.next] = nanos;
+        this.next = (this.next + 1) % this.samples.length;
+        if (this.size < this.samples.length) {
+            this.size++;
+        }
+        this.totalCount++;
+    }
+
+    /** Discard all samples. */
+    public synchronized void clear()
+    {
+        this.next = 0;
+        this.size = 0;
+        this.totalCount = 0;
+    }
+
+    /** Number of samples ever recorded, including those that have
+      * since rolled out of the buffer. */
+    public synchronized long getTotalCount()
+    {
+        return this.totalCount;
+    }
+
+    /** Return the retained samples in ascending order. */
+    public synchronized long[] getSortedSamples()
+    {
+        long[] ret = Arrays.copyOf(this.samples, this.size);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /** Return the 'p'th percentile, 0 <= p <= 100, of 'sorted'. */
+    public static long percentile(long[] sorted, double p)
+    {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length-1, index))];
+    }
+
+    /** Return the number of retained samples in each bucket defined
+      * by 'bucketLimitsMicros'; the result has one more element than
+      * that array. */
+    public static int[] bucketCounts(long[] samples)
+    {
+        int[] ret = new int[bucketLimitsMicros.length + 1];
+        for (long s : samples) {
+            int b = 0;
+            while (b < bucketLimitsMicros.length && s > bucketLimitsMicros[b]*1000) {
+                b++;
+            }
+            ret[b]++;
+        }
+        return ret;
+    }
+}
+
+// EOF
@@ -64,7 +64,13 @@ public class StringUtil {
       * the first capture group, etc.  Otherwise, return null. */
     public static String[] parseByRegex(String stringToParse, String regex)
     {
-        Pattern p = Pattern.compile(regex);
+        return parseByRegex(stringToParse, Pattern.compile(regex));
+    }
+
+    /** Same as above, but with a pre-compiled pattern, for callers
+      * that match the same regex repeatedly. */
+    public static String[] parseByRegex(String stringToParse, Pattern p)
+    {
         Matcher m = p.matcher(stringToParse);
         if (m.find()) {
             int n = m.groupCount()+1;
@@ -5,8 +5,11 @@ package util;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -97,6 +100,17 @@ public class Util {
         }
     }
 
+    /** Read from 'ch' until 'buf' is full or the end of file is
+      * reached.  On return, 'buf' has remaining space only in the
+      * latter case. */
+    public static void readFully(ReadableByteChannel ch, ByteBuffer buf)
+        throws IOException
+    {
+        while (buf.hasRemaining() && ch.read(buf) >= 0) {
+            // Keep reading.
+        }
+    }
+
     /** Make a copy of the input array, which may be null, in which case
       * the return value is null too. */
     public static int[] copyArray(int[] src)
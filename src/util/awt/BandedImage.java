@@ -0,0 +1,344 @@
+// BandedImage.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/** ARGB image that is painted on demand, one horizontal band at a
+  * time, on a pool of threads.
+  *
+  * This is meant for writing very large images, for example with the
+  * PNG encoder, which reads its source one row at a time from top to
+  * bottom.  When a band is requested, the next few are started in the
+  * background, and bands above it are discarded, so reading in that
+  * order keeps all threads busy while holding only a few bands in
+  * memory rather than the whole image.  Other access orders work, but
+  * may paint bands more than once.
+  *
+  * The image must be closed when done to stop the threads. */
+public class BandedImage implements RenderedImage {
+    // ---------- constants ----------
+    /** Each band is painted with this many extra rows above and below
+      * it, which are then thrown away.  Java2D does not rasterize a line
+      * that crosses the edge of the destination exactly as it would if
+      * the line were entirely inside, so without the extra rows, lines
+      * crossing band boundaries can be off by a pixel there. */
+    private static final int overlap = 16;
+
+    // ---------- types ----------
+    /** Something that can paint the image. */
+    public static interface BandPainter {
+        /** Paint the image to 'g', which is clipped to the band being
+          * rendered, in the image's coordinates. */
+        public void paint(Graphics2D g);
+    }
+
+    // ---------- data ----------
+    /** Image dimensions. */
+    private int width, height;
+
+    /** Height of every band except possibly the last. */
+    private int bandHeight;
+
+    /** Number of bands. */
+    private int numBands;
+
+    /** Painters not currently in use.  Each is used by one thread at
+      * a time. */
+    private BlockingQueue<BandPainter> idlePainters;
+
+    /** Threads doing the painting, one per painter. */
+    private ExecutorService executor;
+
+    /** Number of bands beyond the requested one to start. */
+    private int lookahead;
+
+    /** Color and sample model of the bands. */
+    private ColorModel colorModel;
+    private SampleModel sampleModel;
+
+    /** Bands that have been started and not discarded, by index.
+      * Protected by 'this'. */
+    private TreeMap<Integer, Future<BufferedImage>> bands =
+        new TreeMap<Integer, Future<BufferedImage>>();
+
+    // ---------- methods ----------
+    /** Make a 'width' by 'height' image that is painted, in bands of
+      * about 'bandPixels' pixels, by 'painters', which are used
+      * concurrently with each other. */
+    public BandedImage(int width, int height, int bandPixels,
+                       ArrayList<BandPainter> painters)
+    {
+        this.width = width;
+        this.height = height;
+        this.bandHeight = Math.max(1, Math.min(height, bandPixels / Math.max(1, width)));
+        this.numBands = (height + this.bandHeight - 1) / this.bandHeight;
+        this.idlePainters = new ArrayBlockingQueue<BandPainter>(painters.size(), false, painters);
+        this.lookahead = painters.size();
+
+        BufferedImage prototype = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        this.colorModel = prototype.getColorModel();
+        this.sampleModel = prototype.getSampleModel()
+            .createCompatibleSampleModel(width, this.bandHeight);
+
+        this.executor = Executors.newFixedThreadPool(painters.size(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BandedImage");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** Stop the painting threads and discard the bands. */
+    public synchronized void close()
+    {
+        this.executor.shutdownNow();
+        this.bands.clear();
+    }
+
+    /** Return the band at 'index', painting it if necessary, and start
+      * the ones after it. */
+    private BufferedImage getBand(int index)
+    {
+        Future<BufferedImage> future;
+        synchronized (this) {
+            // Discard bands before this one.
+            Iterator<Map.Entry<Integer, Future<BufferedImage>>> it =
+                this.bands.headMap(index).entrySet().iterator();
+            while (it.hasNext()) {
+                it.next().getValue().cancel(false /*mayInterruptIfRunning*/);
+                it.remove();
+            }
+
+            int last = Math.min(this.numBands - 1, index + this.lookahead);
+            for (int i=index; i <= last; i++) {
+                if (!this.bands.containsKey(i)) {
+                    this.bands.put(i, this.startBand(i));
+                }
+            }
+            future = this.bands.get(index);
+        }
+
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while painting image", e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException("painting image: "+e.getCause(), e.getCause());
+        }
+    }
+
+    /** Begin painting band 'index' on the thread pool. */
+    private Future<BufferedImage> startBand(final int index)
+    {
+        return this.executor.submit(new Callable<BufferedImage>() {
+            @Override
+            public BufferedImage call() throws Exception {
+                return BandedImage.this.paintBand(index);
+            }
+        });
+    }
+
+    /** Paint band 'index' with an idle painter.  The returned image
+      * includes the overlap rows, which are not part of the band. */
+    private BufferedImage paintBand(int index)
+        throws InterruptedException
+    {
+        int top = index * this.bandHeight - overlap;
+        int h = this.bandHeight + overlap*2;
+        BufferedImage band = new BufferedImage(this.width, h, BufferedImage.TYPE_INT_ARGB);
+
+        BandPainter painter = this.idlePainters.take();
+        Graphics2D g = band.createGraphics();
+        try {
+            g.translate(0, -top);
+            g.clipRect(0, top, this.width, h);
+            painter.paint(g);
+        }
+        finally {
+            g.dispose();
+            this.idlePainters.put(painter);
+        }
+        return band;
+    }
+
+    // ---------- RenderedImage ----------
+    @Override
+    public Vector<RenderedImage> getSources()
+    {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name)
+    {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames()
+    {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel()
+    {
+        return this.colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel()
+    {
+        return this.sampleModel;
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return this.width;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return this.height;
+    }
+
+    @Override
+    public int getMinX()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getMinY()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles()
+    {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles()
+    {
+        return this.numBands;
+    }
+
+    @Override
+    public int getMinTileX()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth()
+    {
+        return this.width;
+    }
+
+    @Override
+    public int getTileHeight()
+    {
+        return this.bandHeight;
+    }
+
+    @Override
+    public int getTileGridXOffset()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset()
+    {
+        return 0;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY)
+    {
+        int top = tileY * this.bandHeight;
+        int h = Math.min(this.bandHeight, this.height - top);
+        return this.getBand(tileY).getRaster()
+            .createChild(0, overlap, this.width, h, 0, top, null);
+    }
+
+    @Override
+    public Raster getData()
+    {
+        return this.getData(new Rectangle(0, 0, this.width, this.height));
+    }
+
+    @Override
+    public Raster getData(Rectangle rect)
+    {
+        WritableRaster ret = this.colorModel.createCompatibleWritableRaster(
+            rect.width, rect.height).createWritableTranslatedChild(rect.x, rect.y);
+        return this.copyData(ret);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster)
+    {
+        if (raster == null) {
+            raster = this.colorModel.createCompatibleWritableRaster(this.width, this.height);
+        }
+
+        Rectangle r = raster.getBounds().intersection(
+            new Rectangle(0, 0, this.width, this.height));
+        if (r.isEmpty()) {
+            return raster;
+        }
+
+        int firstBand = r.y / this.bandHeight;
+        int lastBand = (r.y + r.height - 1) / this.bandHeight;
+        for (int i=firstBand; i <= lastBand; i++) {
+            Raster band = this.getTile(0, i);
+            Rectangle part = band.getBounds().intersection(r);
+            raster.setRect(band.createChild(part.x, part.y, part.width, part.height,
+                                            part.x, part.y, null));
+        }
+        return raster;
+    }
+}
+
+// EOF
@@ -59,6 +59,16 @@ public class BitmapFont {
         }
     }
 
+    /** Make a font that shares the parsed glyphs of 'obj' but has its
+      * own cache of rendered glyph images.  Drawing is not thread-safe
+      * because of that cache, so threads that render concurrently
+      * should each use their own copy. */
+    public BitmapFont(BitmapFont obj)
+    {
+        this.bdfParser = obj.bdfParser;
+        this.codeToBitmapGlyph = obj.codeToBitmapGlyph;
+    }
+
     /** Draw 'str' into 'g' with the baseline at 'y' and start of the
       * first character at 'x'. */
     public void drawString(Graphics g, String str, int x, int y)
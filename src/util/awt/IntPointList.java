@@ -0,0 +1,226 @@
+// IntPointList.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Graphics;
+import java.awt.Point;
+
+import java.util.Arrays;
+
+/** Growable sequence of integer points, stored as parallel int
+  * arrays rather than as one Point object per element.
+  *
+  * 'get' returns a new Point that is not connected to the list; use
+  * 'set' to change an element.  'equals' and 'hashCode' agree with
+  * those of a java.util.List of the same Points. */
+public class IntPointList {
+    // ---------- data ----------
+    /** Coordinates of the elements.  Entries at or beyond 'size' are
+      * unused.  The arrays always have the same length. */
+    private int[] xs, ys;
+
+    /** Number of elements. */
+    private int size;
+
+    // ---------- methods ----------
+    /** Make an empty list. */
+    public IntPointList()
+    {
+        this.xs = this.ys = new int[0];
+        this.size = 0;
+    }
+
+    /** Copy constructor.  The new list has no excess capacity. */
+    public IntPointList(IntPointList obj)
+    {
+        this.xs = Arrays.copyOf(obj.xs, obj.size);
+        this.ys = Arrays.copyOf(obj.ys, obj.size);
+        this.size = obj.size;
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    /** Return the x coordinate of element 'i'. */
+    public int getX(int i)
+    {
+        this.checkIndex(i);
+        return this.xs[i];
+    }
+
+    /** Return the y coordinate of element 'i'. */
+    public int getY(int i)
+    {
+        this.checkIndex(i);
+        return this.ys[i];
+    }
+
+    /** Return a new Point equal to element 'i'. */
+    public Point get(int i)
+    {
+        return new Point(this.getX(i), this.getY(i));
+    }
+
+    /** Replace element 'i' with ('x','y'). */
+    public void set(int i, int x, int y)
+    {
+        this.checkIndex(i);
+        this.xs[i] = x;
+        this.ys[i] = y;
+    }
+
+    public void set(int i, Point p)
+    {
+        this.set(i, p.x, p.y);
+    }
+
+    /** Append ('x','y'). */
+    public void add(int x, int y)
+    {
+        this.ensureCapacity(this.size + 1);
+        this.xs[this.size] = x;
+        this.ys[this.size] = y;
+        this.size++;
+    }
+
+    public void add(Point p)
+    {
+        this.add(p.x, p.y);
+    }
+
+    /** Insert 'p' so it becomes element 'i'. */
+    public void add(int i, Point p)
+    {
+        if (i < 0 || i > this.size) {
+            throw new IndexOutOfBoundsException("index "+i+", size "+this.size);
+        }
+        this.ensureCapacity(this.size + 1);
+        System.arraycopy(this.xs, i, this.xs, i+1, this.size - i);
+        System.arraycopy(this.ys, i, this.ys, i+1, this.size - i);
+        this.xs[i] = p.x;
+        this.ys[i] = p.y;
+        this.size++;
+    }
+
+    /** Append all elements of 'other'. */
+    public void addAll(IntPointList other)
+    {
+        this.ensureCapacity(this.size + other.size);
+        System.arraycopy(other.xs, 0, this.xs, this.size, other.size);
+        System.arraycopy(other.ys, 0, this.ys, this.size, other.size);
+        this.size += other.size;
+    }
+
+    /** Remove element 'i', sliding later elements down. */
+    public void remove(int i)
+    {
+        this.checkIndex(i);
+        System.arraycopy(this.xs, i+1, this.xs, i, this.size - i - 1);
+        System.arraycopy(this.ys, i+1, this.ys, i, this.size - i - 1);
+        this.size--;
+    }
+
+    /** Remove all elements, keeping the storage. */
+    public void clear()
+    {
+        this.size = 0;
+    }
+
+    /** Move every element by ('dx','dy'). */
+    public void translate(int dx, int dy)
+    {
+        for (int i=0; i < this.size; i++) {
+            this.xs[i] += dx;
+            this.ys[i] += dy;
+        }
+    }
+
+    /** Draw line segments connecting the elements in order, with one
+      * call so that corners are joined according to the stroke. */
+    public void drawPolyline(Graphics g)
+    {
+        g.drawPolyline(this.xs, this.ys, this.size);
+    }
+
+    private void checkIndex(int i)
+    {
+        if (i < 0 || i >= this.size) {
+            throw new IndexOutOfBoundsException("index "+i+", size "+this.size);
+        }
+    }
+
+    private void ensureCapacity(int n)
+    {
+        if (n > this.xs.length) {
+            int cap = Math.max(n, this.xs.length * 2);
+            this.xs = Arrays.copyOf(this.xs, cap);
+            this.ys = Arrays.copyOf(this.ys, cap);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || this.getClass() != obj.getClass()) {
+            return false;
+        }
+        IntPointList other = (IntPointList)obj;
+        if (this.size != other.size) {
+            return false;
+        }
+        for (int i=0; i < this.size; i++) {
+            if (this.xs[i] != other.xs[i] || this.ys[i] != other.ys[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        // Combine the elements as List.hashCode does, using the value
+        // that Point.hashCode would return for each.
+        int h = 1;
+        for (int i=0; i < this.size; i++) {
+            h = h*31 + pointHashCode(this.xs[i], this.ys[i]);
+        }
+        return h;
+    }
+
+    /** Return the same value as 'new Point(x,y).hashCode()'. */
+    private static int pointHashCode(int x, int y)
+    {
+        long bits = Double.doubleToLongBits(x);
+        bits ^= Double.doubleToLongBits(y) * 31;
+        return (((int) bits) ^ ((int) (bits >> 32)));
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        for (int i=0; i < this.size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append("("+this.xs[i]+","+this.ys[i]+")");
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
+
+// EOF
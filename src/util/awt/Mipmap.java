@@ -0,0 +1,87 @@
+// Mipmap.java
+// See toplevel license.txt for copyright and license terms.
+
+package util.awt;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import java.util.ArrayList;
+
+/** Sequence of progressively halved copies of an image.
+  *
+  * Drawing a large image at a small scale is slow, because every
+  * source pixel is visited, and ugly, because nearest-neighbor
+  * sampling skips most of them.  Drawing a pre-shrunk copy whose
+  * size is close to the destination avoids both problems.  Levels
+  * are built on first use. */
+public class Mipmap {
+    // ---------- data ----------
+    /** Level 0 is the original image; level i+1 is level i scaled
+      * by one half, rounding up, in both dimensions. */
+    private ArrayList<Image> levels = new ArrayList<Image>();
+
+    // ---------- methods ----------
+    public Mipmap(Image original)
+    {
+        this.levels.add(original);
+    }
+
+    /** Return the full-size image. */
+    public Image getOriginal()
+    {
+        return this.levels.get(0);
+    }
+
+    /** Return the image to draw when the original will be shown at
+      * 'scale' times its size.  Its dimensions are at least those of
+      * the original times 'scale', so quality does not suffer. */
+    public Image getImageForScale(double scale)
+    {
+        int level = 0;
+        while (scale <= 0.5) {
+            scale *= 2;
+            level++;
+        }
+        return this.getLevel(level);
+    }
+
+    /** Return level 'level', or the smallest level if 'level' is
+      * beyond it. */
+    public Image getLevel(int level)
+    {
+        while (this.levels.size() <= level) {
+            Image prev = this.levels.get(this.levels.size()-1);
+            int w = prev.getWidth(null);
+            int h = prev.getHeight(null);
+            if (w <= 1 && h <= 1) {
+                // Cannot shrink any further.  This also covers images
+                // that are not loaded yet, which report -1.
+                return prev;
+            }
+            this.levels.add(halve(prev, w, h));
+        }
+        return this.levels.get(level);
+    }
+
+    /** Return a copy of 'src', which is 'w' by 'h', at half size. */
+    private static Image halve(Image src, int w, int h)
+    {
+        int nw = Math.max(1, (w+1)/2);
+        int nh = Math.max(1, (h+1)/2);
+        BufferedImage ret = new BufferedImage(nw, nh, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = ret.createGraphics();
+
+        // Halving with bilinear filtering averages each 2x2 block,
+        // so repeated halving approximates a box filter.
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                           RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(src, 0, 0, nw, nh, null /*observer*/);
+        g.dispose();
+        return ret;
+    }
+}
+
+// EOF
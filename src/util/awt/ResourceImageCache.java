@@ -28,8 +28,11 @@ public class ResourceImageCache {
       * should be relative to the "resources" directory.  It will be
       * loaded from the active JAR files or from the file system,
       * depending on where it can be found.  If it cannot be found or
-      * there is a loading error, returns null. */
-    public Image getResourceImage(String resourceName)
+      * there is a loading error, returns null.
+      *
+      * This is synchronized so one cache can be shared by threads
+      * rendering different diagrams. */
+    public synchronized Image getResourceImage(String resourceName)
     {
         // Consult the cache.
         if (this.cache.containsKey(resourceName)) {